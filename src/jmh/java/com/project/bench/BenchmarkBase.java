@@ -0,0 +1,112 @@
+package com.project.bench;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.project.Ciutada;
+import com.project.Ciutat;
+import com.project.Manager;
+
+/**
+ * Estat comú dels benchmarks del Manager.
+ * 
+ * Cada combinació de paràmetres s'executa en una JVM pròpia (fork), de
+ * manera que la SessionFactory estàtica del Manager es crea i es tanca
+ * un cop per combinació:
+ * 
+ * - tableSize: ciutadans inicials (repartits en tableSize / 10 ciutats)
+ * - journalMode: PRAGMA journal_mode de SQLite (WAL o DELETE)
+ * - storage: "file" (target/jmh/bench.db) o "memory" (BBDD en memòria
+ *   compartida pel pool; allà journal_mode sempre és MEMORY)
+ * 
+ * La resta de PRAGMA són els del perfil THROUGHPUT de hibernate.cfg.xml.
+ * 
+ * JMH només accepta @Param en classes @State: l'anotació també és aquí
+ * (les subclasses la repeteixen amb el mateix Scope).
+ */
+@State(Scope.Benchmark)
+public abstract class BenchmarkBase {
+
+    public static final int CIUTADANS_PER_CIUTAT = 10;
+
+    @Param({"1000", "100000"})
+    public int tableSize;
+
+    @Param({"WAL", "DELETE"})
+    public String journalMode;
+
+    @Param({"file", "memory"})
+    public String storage;
+
+    /** IDs de les ciutats creades a l'inici */
+    protected List<Long> ciutatIds;
+
+    /** IDs dels ciutadans creats a l'inici */
+    protected List<Long> ciutadaIds;
+
+    @Setup(Level.Trial)
+    public void crearBaseDeDades() {
+        Properties overrides = new Properties();
+        if ("memory".equals(storage)) {
+            // cache=shared: totes les connexions del pool veuen la mateixa BBDD
+            overrides.setProperty("hibernate.connection.url", "jdbc:sqlite:file:bench?mode=memory&cache=shared");
+        } else {
+            File dir = new File("target/jmh");
+            dir.mkdirs();
+            for (String sufix : new String[] {"", "-wal", "-shm", "-journal"}) {
+                new File(dir, "bench.db" + sufix).delete();
+            }
+            overrides.setProperty("hibernate.connection.url", "jdbc:sqlite:" + new File(dir, "bench.db").getAbsolutePath());
+        }
+        overrides.setProperty("hibernate.hikari.dataSource.journal_mode", journalMode);
+        overrides.setProperty("hibernate.connection.journal_mode", journalMode);
+        overrides.setProperty("hibernate.hbm2ddl.auto", "create");
+        Manager.createSessionFactory("hibernate.cfg.xml", overrides);
+
+        // Dades inicials: tableSize ciutadans repartits en ciutats de 10
+        List<Ciutat> ciutats = new ArrayList<>();
+        for (int i = 0; i < Math.max(1, tableSize / CIUTADANS_PER_CIUTAT); i++) {
+            Ciutat ciutat = new Ciutat("Ciutat " + i, "País " + (i % 50), 1000 + i);
+            for (int j = 0; j < CIUTADANS_PER_CIUTAT; j++) {
+                ciutat.addCiutada(new Ciutada("Nom " + i + "-" + j, "Cognom " + (i % 100), 18 + (i + j) % 70));
+            }
+            ciutats.add(ciutat);
+        }
+        ciutatIds = Manager.addCiutatsBatch(ciutats, 1000);
+        ciutadaIds = new ArrayList<>(tableSize);
+        for (Ciutada ciutada : Manager.listCollectionStateless(Ciutada.class, "ciutadaId")) {
+            ciutadaIds.add(ciutada.getCiutadaId());
+        }
+        despresDeCarregar();
+    }
+
+    /**
+     * Preparació addicional de cada benchmark, un cop creades les dades inicials.
+     * (Un sol @Setup a la jerarquia: així l'ordre d'execució és segur.)
+     */
+    protected void despresDeCarregar() {
+    }
+
+    @TearDown(Level.Trial)
+    public void tancar() {
+        Manager.close();
+    }
+
+    protected Long ciutatAleatoria() {
+        return ciutatIds.get(ThreadLocalRandom.current().nextInt(ciutatIds.size()));
+    }
+
+    protected Long ciutadaAleatoria() {
+        return ciutadaIds.get(ThreadLocalRandom.current().nextInt(ciutadaIds.size()));
+    }
+}
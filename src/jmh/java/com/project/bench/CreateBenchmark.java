@@ -0,0 +1,66 @@
+package com.project.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.project.Ciutada;
+import com.project.Ciutat;
+import com.project.Manager;
+
+/**
+ * Benchmarks de creació: fila a fila (addCiutat / addCiutada) i per lots.
+ * 
+ * Els mètodes per lots insereixen 'batchSize' files per invocació, de
+ * manera que el temps per invocació dividit per batchSize és el cost per fila.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CreateBenchmark extends BenchmarkBase {
+
+    @Param({"1", "50", "500"})
+    public int batchSize;
+
+    @Benchmark
+    public Ciutat addCiutat() {
+        return Manager.addCiutat("Bench", "País", 1000);
+    }
+
+    @Benchmark
+    public Ciutada addCiutada() {
+        return Manager.addCiutada("Bench", "Cognom", 30);
+    }
+
+    @Benchmark
+    public List<Long> addCiutatsBatch() {
+        List<Ciutat> ciutats = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            ciutats.add(new Ciutat("Bench " + i, "País", 1000 + i));
+        }
+        return Manager.addCiutatsBatch(ciutats, batchSize);
+    }
+
+    @Benchmark
+    public List<Long> addCiutadansBatch() {
+        List<Ciutada> ciutadans = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            ciutadans.add(new Ciutada("Bench " + i, "Cognom", 18 + i % 70));
+        }
+        return Manager.addCiutadansBatch(ciutadans, batchSize);
+    }
+}
@@ -0,0 +1,78 @@
+package com.project.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.project.Ciutada;
+import com.project.Ciutat;
+import com.project.Manager;
+
+/**
+ * Benchmarks d'esborrat.
+ * 
+ * Abans de cada invocació (fora del temps mesurat) s'insereix una ciutat
+ * amb 'batchSize' ciutadans marcats amb el cognom "Esborrar", de manera
+ * que la taula base de 'tableSize' files es manté constant.
+ * 
+ * Amb Level.Invocation JMH afegeix una petita sobrecàrrega per invocació;
+ * és negligible comparada amb el commit de cada esborrat.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DeleteBenchmark extends BenchmarkBase {
+
+    @Param({"1", "50", "500"})
+    public int batchSize;
+
+    private Long ciutatNova;
+    private List<Long> ciutadansNous;
+
+    @Setup(Level.Invocation)
+    public void crearFiles() {
+        Ciutat ciutat = new Ciutat("Esborrar", "País", 0);
+        for (int i = 0; i < batchSize; i++) {
+            ciutat.addCiutada(new Ciutada("Esborrar " + i, "Esborrar", 30));
+        }
+        ciutatNova = Manager.addCiutatsBatch(List.of(ciutat), Manager.DEFAULT_BATCH_SIZE).get(0);
+        ciutadansNous = new ArrayList<>(batchSize);
+        for (Ciutada ciutada : ciutat.getCiutadans()) {
+            ciutadansNous.add(ciutada.getCiutadaId());
+        }
+    }
+
+    @Benchmark
+    public void delete() {
+        // Esborra la ciutat amb els seus ciutadans (cascade)
+        Manager.delete(Ciutat.class, ciutatNova);
+    }
+
+    @Benchmark
+    public int deleteAll() {
+        return Manager.deleteAll(Ciutada.class, ciutadansNous)
+             + Manager.deleteAll(Ciutat.class, List.of(ciutatNova));
+    }
+
+    @Benchmark
+    public int deleteWhere() {
+        return Manager.deleteWhere(Ciutat.class, "e.ciutatId = :id", Map.of("id", ciutatNova));
+    }
+}
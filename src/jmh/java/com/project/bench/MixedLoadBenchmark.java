@@ -0,0 +1,79 @@
+package com.project.bench;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.project.Ciutada;
+import com.project.Ciutat;
+import com.project.Manager;
+
+/**
+ * Càrrega mixta concurrent: 6 fils llegint i 6 escrivint (4 actualitzen, 2 insereixen).
+ * 
+ * Compara els models d'escriptura amb SQLite:
+ * - direct: cada fil escriu amb la seva connexió (competeixen pel bloqueig)
+ * - singleWriter: les escriptures passen pel fil escriptor únic, que
+ *   agrupa les que coincideixen en una transacció
+ * - groupCommit: com singleWriter, però esperant fins a 2 ms per omplir
+ *   el grup i amb un savepoint per operació
+ * 
+ * El resultat és throughput (operacions/s) per mètode i total del grup.
+ * Les escriptures que fallen (SQLITE_BUSY esgotat el busy_timeout) compten
+ * igualment com a operació: cal mirar també els errors per consola o la
+ * mètrica manager_operation_errors_total.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class MixedLoadBenchmark extends BenchmarkBase {
+
+    @Param({"direct", "singleWriter", "groupCommit"})
+    public String writeModel;
+
+    @Override
+    protected void despresDeCarregar() {
+        if ("singleWriter".equals(writeModel)) {
+            Manager.enableSingleWriter();
+        } else if ("groupCommit".equals(writeModel)) {
+            Manager.enableGroupCommit(Duration.ofMillis(2));
+        }
+    }
+
+    @Benchmark
+    @Group("mixt")
+    @GroupThreads(6)
+    public Ciutat llegir() {
+        return Manager.getCiutatWithCiutadans(ciutatAleatoria());
+    }
+
+    @Benchmark
+    @Group("mixt")
+    @GroupThreads(4)
+    public void actualitzar() {
+        Manager.updateCiutada(ciutadaAleatoria(), "Nom", "Cognom", 18 + ThreadLocalRandom.current().nextInt(70));
+    }
+
+    @Benchmark
+    @Group("mixt")
+    @GroupThreads(2)
+    public Ciutada inserir() {
+        return Manager.addCiutada("Mixt", "Cognom", 30);
+    }
+}
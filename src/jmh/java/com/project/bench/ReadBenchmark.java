@@ -0,0 +1,118 @@
+package com.project.bench;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.project.CiutadaSummary;
+import com.project.Ciutada;
+import com.project.Ciutat;
+import com.project.CiutatSummary;
+import com.project.EdatCiutat;
+import com.project.Manager;
+import com.project.Page;
+import com.project.PaisPoblacio;
+
+/**
+ * Benchmarks de lectura: consultes per ID, llistats complets, paginació,
+ * streaming, projeccions DTO i agregacions.
+ * 
+ * Les lectures no modifiquen les dades, per tant totes les invocacions
+ * treballen sobre la mateixa taula de 'tableSize' ciutadans.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReadBenchmark extends BenchmarkBase {
+
+    @Benchmark
+    public Ciutat getCiutatWithCiutadans() {
+        return Manager.getCiutatWithCiutadans(ciutatAleatoria());
+    }
+
+    @Benchmark
+    public Collection<Ciutada> listCollection() {
+        return Manager.listCollection(Ciutada.class, null);
+    }
+
+    @Benchmark
+    public List<Ciutada> listCollectionStateless() {
+        return Manager.listCollectionStateless(Ciutada.class, null);
+    }
+
+    @Benchmark
+    public List<Ciutat> findAllCiutatsWithCiutadans() {
+        return Manager.findAllCiutatsWithCiutadans();
+    }
+
+    @Benchmark
+    public Page<Ciutada> listPage() {
+        // Pàgina de 100 a partir d'un ID aleatori (el cost no depèn de la posició)
+        Long id = ciutadaAleatoria();
+        return Manager.listPage(Ciutada.class, null, new Page.Cursor("ciutadaId", id, id), 100);
+    }
+
+    @Benchmark
+    public void stream(Blackhole bh) {
+        try (Stream<Ciutada> ciutadans = Manager.stream(Ciutada.class)) {
+            ciutadans.forEach(bh::consume);
+        }
+    }
+
+    @Benchmark
+    public List<CiutatSummary> listCiutatSummaries() {
+        return Manager.listCiutatSummaries();
+    }
+
+    @Benchmark
+    public List<CiutadaSummary> listCiutadaSummaries() {
+        return Manager.listCiutadaSummaries();
+    }
+
+    @Benchmark
+    public long count() {
+        return Manager.count(Ciutada.class, "e.edat >= :min", Map.of("min", 40));
+    }
+
+    @Benchmark
+    public List<PaisPoblacio> poblacioPerPais() {
+        return Manager.poblacioPerPais();
+    }
+
+    @Benchmark
+    public List<EdatCiutat> edatPerCiutat() {
+        return Manager.edatPerCiutat();
+    }
+
+    @Benchmark
+    public SortedMap<Integer, Long> histogramaEdats() {
+        return Manager.histogramaEdats(10);
+    }
+
+    @Benchmark
+    public Double edatMediana() {
+        return Manager.edatMediana(ciutatAleatoria());
+    }
+
+    @Benchmark
+    public String collectionToString() {
+        return Manager.collectionToString(CiutatSummary.class, Manager.listCiutatSummaries());
+    }
+}
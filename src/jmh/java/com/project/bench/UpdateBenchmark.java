@@ -0,0 +1,77 @@
+package com.project.bench;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.project.Ciutada;
+import com.project.Ciutat;
+import com.project.Manager;
+
+/**
+ * Benchmarks d'actualització.
+ * 
+ * Les actualitzacions no canvien el nombre de files: updateCiutat rep
+ * els mateixos ciutadans que ja té la ciutat (només canvien les
+ * propietats i es calcula la diferència d'IDs, que és buida).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UpdateBenchmark extends BenchmarkBase {
+
+    /** Ciutadans actuals d'una mostra de ciutats (per a updateCiutat) */
+    private final Map<Long, Set<Ciutada>> ciutadansPerCiutat = new HashMap<>();
+
+    @Override
+    protected void despresDeCarregar() {
+        for (int i = 0; i < Math.min(100, ciutatIds.size()); i++) {
+            Ciutat ciutat = Manager.getCiutatWithCiutadans(ciutatIds.get(i));
+            ciutadansPerCiutat.put(ciutat.getCiutatId(), ciutat.getCiutadans());
+        }
+    }
+
+    @Benchmark
+    public void updateCiutada() {
+        int edat = 18 + ThreadLocalRandom.current().nextInt(70);
+        Manager.updateCiutada(ciutadaAleatoria(), "Nom", "Cognom", edat);
+    }
+
+    @Benchmark
+    public void updateCiutat() {
+        Long id = ciutatIds.get(ThreadLocalRandom.current().nextInt(ciutadansPerCiutat.size()));
+        Manager.updateCiutat(id, "Ciutat " + id, "País", ThreadLocalRandom.current().nextInt(100_000), ciutadansPerCiutat.get(id));
+    }
+
+    @Benchmark
+    public int updateCiutadansWhere() {
+        // Un cognom dels 100 possibles: afecta ~1% de la taula
+        String cognom = "Cognom " + ThreadLocalRandom.current().nextInt(100);
+        return Manager.updateCiutadansWhere("e.edat = e.edat + 0", "e.cognom = :cognom", Map.of("cognom", cognom));
+    }
+
+    @Benchmark
+    public void unitOfWork() {
+        // 10 actualitzacions en una sola transacció (un sol commit)
+        Manager.inTransaction(session -> {
+            for (int i = 0; i < 10; i++) {
+                Manager.updateCiutada(session, ciutadaAleatoria(), "Nom", "Cognom", 18 + i);
+            }
+        });
+    }
+}
@@ -0,0 +1,424 @@
+package com.project;
+
+import java.io.Serializable;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import org.hibernate.Session;
+
+/**
+ * Façana ASÍNCRONA del Manager.
+ * 
+ * Cada operació del Manager té aquí una versió que retorna immediatament
+ * un CompletableFuture, de manera que qui la crida (per exemple un
+ * gestor de peticions) no queda bloquejat esperant la BBDD. L'única
+ * excepció és stream: un Stream obert no pot sortir de la tasca, i la
+ * versió asíncrona en rep un Consumer per a cada entitat.
+ * 
+ * MODEL D'EXECUCIÓ:
+ * - Un fil virtual per tasca (Executors.newVirtualThreadPerTaskExecutor):
+ *   crear-ne milers és barat i un fil bloquejat en JDBC no ocupa un fil del SO
+ * - Concurrència limitada per un Semaphore amb tants permisos com
+ *   connexions té el pool (amb sharding, la suma dels pools de tots els
+ *   shards): mai hi ha més tasques a la BBDD que connexions, i la resta
+ *   esperen sense consumir connexions (ni timeouts del pool)
+ * - Amb SQLite, les escriptures passen per un segon Semaphore amb un
+ *   permís per fitxer (un escriptor alhora a cada fitxer, com imposa
+ *   SQLite; amb sharding, tants escriptors com shards). Les lectures no el
+ *   necessiten i, amb WAL, no queden bloquejades per l'escriptor
+ * - Amb Manager.enableSingleWriter() les escriptures no agafen cap dels
+ *   dos semàfors: la cua de l'escriptor únic ja les serialitza (amb una
+ *   sola connexió) i, si arriben juntes, les agrupa en una transacció
+ * 
+ * CANCEL·LACIÓ I TIMEOUTS:
+ * - cancel(true) sobre el future evita que la tasca comenci si encara
+ *   espera torn (executor o semàfors)
+ * - Amb l'escriptor únic, una escriptura cancel·lada mentre és a la cua
+ *   de l'escriptor es descarta sense executar-se (la cancel·lació arriba
+ *   a la SingleWriter.Operacio encuada)
+ * - Una escriptura que ja ha començat a la BBDD (o que ja forma part del
+ *   grup en curs de l'escriptor únic) NO es desfà: JDBC no es pot
+ *   interrompre i el canvi es confirma igualment, tot i que el future
+ *   consti com a cancel·lat
+ * - withTimeout(future, durada) completa el future amb TimeoutException
+ *   i cancel·la la tasca subjacent, amb les mateixes regles
+ * 
+ * CICLE DE VIDA:
+ *   AsyncManager.start();      // opcional: s'inicia sol al primer ús
+ *   ...
+ *   AsyncManager.shutdown();   // abans de Manager.close()
+ * L'executor i els semàfors formen un sol Estat immutable publicat en un
+ * camp volatile: submit el llegeix una vegada i treballa sempre amb un
+ * conjunt coherent, encara que un altre fil faci shutdown alhora.
+ */
+public final class AsyncManager {
+
+    /**
+     * Executor i semàfors d'una execució (entre start i shutdown).
+     * 
+     * @param escriptor Torns d'escriptura, un per fitxer (només SQLite; null amb altres BBDD)
+     */
+    private record Estat(ExecutorService executor, Semaphore permisos, Semaphore escriptor) {}
+
+    private static volatile Estat estat;
+
+    private AsyncManager() {}
+
+    // ═══════════════════════════════════════════════════════════════════
+    // CICLE DE VIDA
+    // ═══════════════════════════════════════════════════════════════════
+
+    /**
+     * Inicia l'executor amb una concurrència igual a la mida del pool de connexions
+     * (amb sharding, la suma dels pools de tots els shards).
+     * Cal haver cridat abans Manager.createSessionFactory() o
+     * Manager.createShardedSessionFactories().
+     */
+    public static void start() {
+        start(Manager.maxPoolSize());
+    }
+
+    /**
+     * @return L'estat actual, iniciant-lo si encara no ho està
+     */
+    private static Estat estatActiu() {
+        Estat actual = estat;
+        if (actual != null) return actual;
+        synchronized (AsyncManager.class) {
+            if (estat == null) {
+                start();
+            }
+            return estat;
+        }
+    }
+
+    /**
+     * Inicia l'executor amb una concurrència màxima concreta.
+     * 
+     * @param maxConcurrencia Operacions simultànies a la BBDD (normalment la mida del pool)
+     */
+    public static synchronized void start(int maxConcurrencia) {
+        if (estat != null) return;
+        if (maxConcurrencia <= 0) {
+            throw new IllegalArgumentException("maxConcurrencia ha de ser positiu: " + maxConcurrencia);
+        }
+        estat = new Estat(
+            Executors.newVirtualThreadPerTaskExecutor(),
+            new Semaphore(maxConcurrencia, true),
+            Manager.sqliteWriters() > 0 ? new Semaphore(Manager.sqliteWriters(), true) : null);
+    }
+
+    /**
+     * Atura l'executor esperant (com a màxim 'espera') que acabin les tasques en curs.
+     * 
+     * @param espera Temps màxim d'espera
+     * @return true si totes les tasques han acabat
+     */
+    public static synchronized boolean shutdown(Duration espera) {
+        Estat actual = estat;
+        if (actual == null) return true;
+        // Les crides posteriors ja no el veuen (i tornen a iniciar-ne un de nou)
+        estat = null;
+        actual.executor().shutdown();
+        try {
+            return actual.executor().awaitTermination(espera.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Atura l'executor esperant fins a 30 s les tasques en curs.
+     */
+    public static boolean shutdown() {
+        return shutdown(Duration.ofSeconds(30));
+    }
+
+    // ═══════════════════════════════════════════════════════════════════
+    // TIMEOUTS
+    // ═══════════════════════════════════════════════════════════════════
+
+    /**
+     * Aplica un temps màxim a una operació asíncrona.
+     * Si s'excedeix, el future es completa amb TimeoutException i la tasca
+     * subjacent es cancel·la (vegeu CANCEL·LACIÓ I TIMEOUTS: una escriptura
+     * que ja ha començat s'aplica igualment).
+     * 
+     * @param <R> Tipus del resultat
+     * @param future Future retornat per un mètode d'AsyncManager
+     * @param timeout Temps màxim
+     * @return El mateix future, per encadenar
+     */
+    public static <R> CompletableFuture<R> withTimeout(CompletableFuture<R> future, Duration timeout) {
+        return future.orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    // ═══════════════════════════════════════════════════════════════════
+    // CREATE
+    // ═══════════════════════════════════════════════════════════════════
+
+    public static CompletableFuture<Ciutat> addCiutat(String nom, String pais, Integer poblacio) {
+        return write(() -> Manager.addCiutat(nom, pais, poblacio));
+    }
+
+    public static CompletableFuture<Ciutada> addCiutada(String nom, String cognom, Integer edat) {
+        return write(() -> Manager.addCiutada(nom, cognom, edat));
+    }
+
+    public static CompletableFuture<List<Long>> addCiutatsBatch(Iterable<Ciutat> ciutats, int batchSize) {
+        return write(() -> Manager.addCiutatsBatch(ciutats, batchSize));
+    }
+
+    public static CompletableFuture<List<Long>> addCiutadansBatch(Iterable<Ciutada> ciutadans, int batchSize) {
+        return write(() -> Manager.addCiutadansBatch(ciutadans, batchSize));
+    }
+
+    // ═══════════════════════════════════════════════════════════════════
+    // UPDATE
+    // ═══════════════════════════════════════════════════════════════════
+
+    public static CompletableFuture<Void> updateCiutada(Long ciutadaId, String nom, String cognom, Integer edat) {
+        return write(() -> {
+            Manager.updateCiutada(ciutadaId, nom, cognom, edat);
+            return null;
+        });
+    }
+
+    public static CompletableFuture<Void> updateCiutat(Long ciutatId, String nom, String pais, Integer poblacio, Set<Ciutada> ciutadans) {
+        return write(() -> {
+            Manager.updateCiutat(ciutatId, nom, pais, poblacio, ciutadans);
+            return null;
+        });
+    }
+
+    public static CompletableFuture<Integer> updateCiutadansWhere(String setClause, String whereClause, Map<String, ?> params) {
+        return write(() -> Manager.updateCiutadansWhere(setClause, whereClause, params));
+    }
+
+    // ═══════════════════════════════════════════════════════════════════
+    // READ
+    // ═══════════════════════════════════════════════════════════════════
+
+    public static CompletableFuture<Ciutat> getCiutatWithCiutadans(Long ciutatId) {
+        return read(() -> Manager.getCiutatWithCiutadans(ciutatId));
+    }
+
+    public static <T> CompletableFuture<Collection<T>> listCollection(Class<T> clazz, String orderBy) {
+        return read(() -> Manager.listCollection(clazz, orderBy));
+    }
+
+    public static <T> CompletableFuture<Page<T>> listPage(Class<T> clazz, String orderBy, Page.Cursor after, int pageSize) {
+        return read(() -> Manager.listPage(clazz, orderBy, after, pageSize));
+    }
+
+    public static CompletableFuture<List<Ciutat>> findAllCiutatsWithCiutadans() {
+        return read(Manager::findAllCiutatsWithCiutadans);
+    }
+
+    public static <T> CompletableFuture<List<T>> listCollectionStateless(Class<T> clazz, String orderBy) {
+        return read(() -> Manager.listCollectionStateless(clazz, orderBy));
+    }
+
+    public static CompletableFuture<List<CiutatSummary>> listCiutatSummaries() {
+        return read(Manager::listCiutatSummaries);
+    }
+
+    public static CompletableFuture<List<CiutadaSummary>> listCiutadaSummaries() {
+        return read(Manager::listCiutadaSummaries);
+    }
+
+    /**
+     * Versió asíncrona de Manager.stream: el Stream no surt del fil de la
+     * tasca (té una connexió oberta fins que es tanca), per això cada entitat
+     * es passa a 'accio' dins la tasca. La connexió i el permís de
+     * concurrència es mantenen fins que s'ha recorregut tot.
+     * 
+     * @param <T> Tipus de l'entitat
+     * @param clazz Classe de l'entitat
+     * @param orderBy Propietat d'ordenació (pot ser null)
+     * @param fetchSize Files per viatge a la BBDD
+     * @param accio Què es fa amb cada entitat (s'executa en el fil de la tasca)
+     * @return Nombre d'entitats recorregudes
+     */
+    public static <T> CompletableFuture<Long> stream(Class<T> clazz, String orderBy, int fetchSize, Consumer<? super T> accio) {
+        return read(() -> {
+            long total = 0;
+            try (Stream<T> entitats = Manager.stream(clazz, orderBy, fetchSize)) {
+                Iterator<T> it = entitats.iterator();
+                while (it.hasNext()) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        throw new CancellationException("Recorregut cancel·lat");
+                    }
+                    accio.accept(it.next());
+                    total++;
+                }
+            }
+            return total;
+        });
+    }
+
+    // ═══════════════════════════════════════════════════════════════════
+    // AGREGACIONS
+    // ═══════════════════════════════════════════════════════════════════
+
+    public static CompletableFuture<Long> count(Class<?> clazz) {
+        return read(() -> Manager.count(clazz));
+    }
+
+    public static CompletableFuture<Long> count(Class<?> clazz, String whereClause, Map<String, ?> params) {
+        return read(() -> Manager.count(clazz, whereClause, params));
+    }
+
+    public static CompletableFuture<List<PaisPoblacio>> poblacioPerPais() {
+        return read(Manager::poblacioPerPais);
+    }
+
+    public static CompletableFuture<List<EdatCiutat>> edatPerCiutat() {
+        return read(Manager::edatPerCiutat);
+    }
+
+    public static CompletableFuture<SortedMap<Integer, Long>> histogramaEdats(int ampladaTram) {
+        return read(() -> Manager.histogramaEdats(ampladaTram));
+    }
+
+    public static CompletableFuture<Double> edatMediana(Long ciutatId) {
+        return read(() -> Manager.edatMediana(ciutatId));
+    }
+
+    // ═══════════════════════════════════════════════════════════════════
+    // DELETE
+    // ═══════════════════════════════════════════════════════════════════
+
+    public static <T> CompletableFuture<Void> delete(Class<T> clazz, Serializable id) {
+        return write(() -> {
+            Manager.delete(clazz, id);
+            return null;
+        });
+    }
+
+    public static <T> CompletableFuture<Integer> deleteAll(Class<T> clazz, Collection<Long> ids) {
+        return write(() -> Manager.deleteAll(clazz, ids));
+    }
+
+    public static <T> CompletableFuture<Integer> deleteWhere(Class<T> clazz, String whereClause, Map<String, ?> params) {
+        return write(() -> Manager.deleteWhere(clazz, whereClause, params));
+    }
+
+    // ═══════════════════════════════════════════════════════════════════
+    // UNITAT DE TREBALL
+    // ═══════════════════════════════════════════════════════════════════
+
+    /**
+     * Versió asíncrona de Manager.withUnitOfWork (es tracta com a escriptura).
+     * Si falla, el future es completa amb l'excepció original.
+     */
+    public static <R> CompletableFuture<R> withUnitOfWork(Function<Session, R> work) {
+        return write(() -> Manager.withUnitOfWork(work));
+    }
+
+    /**
+     * Versió asíncrona de Manager.inTransaction (es tracta com a escriptura).
+     */
+    public static CompletableFuture<Void> inTransaction(Consumer<Session> work) {
+        return write(() -> {
+            Manager.inTransaction(work);
+            return null;
+        });
+    }
+
+    // ═══════════════════════════════════════════════════════════════════
+    // EXECUCIÓ
+    // ═══════════════════════════════════════════════════════════════════
+
+    private static <R> CompletableFuture<R> read(Callable<R> tasca) {
+        return submit(false, tasca);
+    }
+
+    private static <R> CompletableFuture<R> write(Callable<R> tasca) {
+        return submit(true, tasca);
+    }
+
+    /**
+     * Executa una tasca en un fil virtual respectant els límits de concurrència.
+     * 
+     * El CompletableFuture retornat controla la tasca: si es cancel·la o
+     * expira (withTimeout), s'interromp el fil virtual que l'executa. Si
+     * aquest fil esperava l'escriptor únic, l'operació encuada es descarta:
+     * el fil escriptor consulta directament aquest future (SingleWriter.CRIDADOR),
+     * sense dependre de quan el fil virtual reaccioni a la interrupció.
+     * Si un shutdown simultani ja ha aturat l'executor, el future es
+     * completa amb RejectedExecutionException.
+     */
+    private static <R> CompletableFuture<R> submit(boolean escriptura, Callable<R> tasca) {
+        Estat actual = estatActiu();
+        CompletableFuture<R> result = new CompletableFuture<>();
+        boolean encuada = escriptura && Manager.isSingleWriterEnabled();
+        Semaphore torn = (escriptura && !encuada) ? actual.escriptor() : null;
+        Semaphore concurrencia = encuada ? null : actual.permisos();
+        
+        Future<?> execucio;
+        try {
+            execucio = actual.executor().submit(() -> {
+                // Cancel·lat o expirat abans de començar: no fem res
+                if (result.isDone()) return;
+                boolean tornAgafat = false;
+                boolean permisAgafat = false;
+                try {
+                    // Primer el torn d'escriptura: un escriptor en espera no ocupa cap connexió
+                    if (torn != null) {
+                        torn.acquire();
+                        tornAgafat = true;
+                    }
+                    if (concurrencia != null) {
+                        concurrencia.acquire();
+                        permisAgafat = true;
+                    }
+                
+                    if (!result.isDone()) {
+                        // Les escriptures que posi a la cua es descarten si aquest future es cancel·la
+                        SingleWriter.CRIDADOR.set(result);
+                        result.complete(tasca.call());
+                    }
+                } catch (InterruptedException e) {
+                    result.cancel(false);
+                } catch (Throwable t) {
+                    result.completeExceptionally(t);
+                } finally {
+                    SingleWriter.CRIDADOR.remove();
+                    if (permisAgafat) concurrencia.release();
+                    if (tornAgafat) torn.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+            return result;
+        }
+        
+        // Cancel·lació o timeout del future → interrompre la tasca
+        result.whenComplete((valor, error) -> {
+            if (result.isCancelled() || error instanceof TimeoutException) {
+                execucio.cancel(true);
+            }
+        });
+        return result;
+    }
+}
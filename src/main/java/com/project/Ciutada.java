@@ -8,6 +8,7 @@ public class Ciutada implements Serializable {
     private static final long serialVersionUID = 1L;
     
     private Long ciutadaId;
+    private Long versio;
     private String nom;
     private String cognom;
     private Integer edat;
@@ -28,6 +29,10 @@ public class Ciutada implements Serializable {
     public Long getCiutadaId() { return ciutadaId; }
     public void setCiutadaId(Long ciutadaId) { this.ciutadaId = ciutadaId; }
     
+    // Versió (bloqueig optimista): la gestiona Hibernate, no s'ha de modificar
+    public Long getVersio() { return versio; }
+    public void setVersio(Long versio) { this.versio = versio; }
+    
     public String getNom() { return nom; }
     public void setNom(String nom) { this.nom = nom; }
     
@@ -0,0 +1,17 @@
+package com.project;
+
+/**
+ * Resum d'un ciutadà per a llistats (projecció DTO).
+ * 
+ * Com CiutatSummary, es construeix directament des de la consulta.
+ * Inclou el nom de la ciutat (null si no en té) amb un LEFT JOIN,
+ * sense carregar l'entitat Ciutat.
+ * 
+ * @param id ID del ciutadà
+ * @param nom Nom del ciutadà
+ * @param cognom Cognom del ciutadà
+ * @param edat Edat del ciutadà
+ * @param ciutat Nom de la ciutat on viu, o null
+ */
+public record CiutadaSummary(Long id, String nom, String cognom, Integer edat, String ciutat) {
+}
@@ -7,10 +7,13 @@ import java.util.Set;
 import java.util.UUID;
 import java.util.stream.Collectors;
 
+import org.hibernate.Hibernate;
+
 public class Ciutat implements Serializable {
     private static final long serialVersionUID = 1L;
     
     private Long ciutatId;
+    private Long versio;
     private String nom;
     private String pais;
     private Integer poblacio;
@@ -31,6 +34,10 @@ public class Ciutat implements Serializable {
     public Long getCiutatId() { return ciutatId; }
     public void setCiutatId(Long ciutatId) { this.ciutatId = ciutatId; }
     
+    // Versió (bloqueig optimista): la gestiona Hibernate, no s'ha de modificar
+    public Long getVersio() { return versio; }
+    public void setVersio(Long versio) { this.versio = versio; }
+    
     public String getNom() { return nom; }
     public void setNom(String nom) { this.nom = nom; }
     
@@ -61,10 +68,13 @@ public class Ciutat implements Serializable {
     }
     
     // Mètode toString (igual que la versió JPA)
+    // Si la col·lecció lazy no s'ha carregat, no la toca (evita LazyInitializationException)
     @Override
     public String toString() {
         String llistaCiutadans = "Buit";
-        if (ciutadans != null && !ciutadans.isEmpty()) {
+        if (!Hibernate.isInitialized(ciutadans)) {
+            llistaCiutadans = "No carregats";
+        } else if (ciutadans != null && !ciutadans.isEmpty()) {
             llistaCiutadans = ciutadans.stream()
                 .map(c -> c.getNom() + " " + c.getCognom())
                 .collect(Collectors.joining(" | "));
@@ -0,0 +1,19 @@
+package com.project;
+
+/**
+ * Resum d'una ciutat per a llistats (projecció DTO).
+ * 
+ * No és una entitat: Hibernate el construeix directament des de les
+ * columnes de la consulta amb una expressió constructora HQL
+ * (SELECT new com.project.CiutatSummary(...)), sense context de
+ * persistència, snapshots ni col·lecció de ciutadans.
+ * El nombre de ciutadans el calcula la BBDD amb COUNT.
+ * 
+ * @param id ID de la ciutat
+ * @param nom Nom de la ciutat
+ * @param pais País on es troba
+ * @param poblacio Nombre d'habitants
+ * @param numCiutadans Ciutadans assignats a la ciutat
+ */
+public record CiutatSummary(Long id, String nom, String pais, Integer poblacio, Long numCiutadans) {
+}
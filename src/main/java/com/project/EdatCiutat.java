@@ -0,0 +1,18 @@
+package com.project;
+
+/**
+ * Estadístiques d'edat dels ciutadans d'una ciutat
+ * (resultat de Manager.edatPerCiutat).
+ * 
+ * Calculat per la BBDD amb GROUP BY ciutat: només viatja una fila per ciutat.
+ * Els ciutadans sense edat no compten a la mitjana, mínim ni màxim.
+ * 
+ * @param ciutatId ID de la ciutat
+ * @param ciutat Nom de la ciutat
+ * @param numCiutadans Nombre de ciutadans de la ciutat
+ * @param edatMitjana Edat mitjana
+ * @param edatMinima Edat mínima
+ * @param edatMaxima Edat màxima
+ */
+public record EdatCiutat(Long ciutatId, String ciutat, Long numCiutadans, Double edatMitjana, Integer edatMinima, Integer edatMaxima) {
+}
@@ -0,0 +1,479 @@
+package com.project;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Importador en streaming de dades del cens (CSV i XML).
+ * 
+ * OBJECTIU:
+ * Carregar fitxers molt més grans que la memòria disponible.
+ * Cap fitxer es llegeix sencer: es processa fila a fila i s'escriu
+ * a la BBDD en lots (una transacció per lot).
+ * 
+ * FORMATS ACCEPTATS:
+ * - CSV de ciutats:    nom,pais,poblacio
+ * - CSV de ciutadans:  nom,cognom,edat,ciutat,pais
+ * - XML (StAX), amb ciutats i ciutadans barrejats:
+ *     <cens>
+ *       <ciutat nom="Kyoto" pais="Japó" poblacio="5200461"/>
+ *       <ciutada nom="Akira" cognom="Akiko" edat="62" ciutat="Kyoto" pais="Japó"/>
+ *     </cens>
+ * Els CSV poden tenir capçalera (primera línia amb exactament els noms de
+ * les columnes, sense distingir majúscules) i camps entre cometes dobles.
+ * 
+ * CLAU NATURAL DE LA CIUTAT:
+ * Cada ciutadà indica la seva ciutat per (nom, pais). L'importador resol
+ * l'ID de la ciutat i assigna ciutat_id directament a l'INSERT, sense
+ * necessitat de cridar després Manager.updateCiutat().
+ * Les ciutats resoltes es guarden en una cache LRU de mida fixa.
+ * 
+ * ESCRIPTURA:
+ * Els lots s'escriuen amb Manager.addCiutatsBatch / addCiutadansBatch,
+ * de manera que passen pel mateix camí que la resta d'escriptures:
+ * escriptor únic, sharding i mètriques del Manager.
+ * 
+ * MEMÒRIA ACOTADA:
+ * - Lectura línia a línia (BufferedReader) o esdeveniment a esdeveniment (StAX)
+ * - Com a màxim 'batchSize' files pendents; cada lot és una transacció
+ * - Cache de ciutats limitada a CACHE_CIUTATS entrades
+ * - Comptadors de tipus long (suporta desenes de milions de files)
+ * 
+ * ERRORS:
+ * - Una fila invàlida es rebutja i es compta, però no atura la importació
+ * - Si falla un lot, es fa rollback només d'aquest lot i es continua
+ */
+public class ImportadorCens {
+
+    /** Nombre màxim de ciutats recordades a la cache de claus naturals */
+    private static final int CACHE_CIUTATS = 10_000;
+
+    /** Nombre màxim de files rebutjades que es mostren per consola */
+    private static final int MAX_ERRORS_MOSTRATS = 20;
+
+    /** Capçaleres dels CSV (la de ciutadans pot acabar a edat, sense ciutat ni pais) */
+    private static final List<String> COLUMNES_CIUTATS = List.of("nom", "pais", "poblacio");
+    private static final List<String> COLUMNES_CIUTADANS = List.of("nom", "cognom", "edat", "ciutat", "pais");
+
+    private final int batchSize;
+    private final Consumer<Progres> onLot;
+    private volatile Progres progres = new Progres();
+
+    /** Cache LRU: clau natural (nom + pais) → ID de la ciutat */
+    private final Map<String, Long> cacheCiutats = new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > CACHE_CIUTATS;
+        }
+    };
+
+    /**
+     * Importador amb la mida de lot per defecte i sense notificacions.
+     */
+    public ImportadorCens() {
+        this(Manager.DEFAULT_BATCH_SIZE, p -> {});
+    }
+
+    /**
+     * @param batchSize Files per lot (i per transacció)
+     * @param onLot Es crida després de confirmar cada lot, amb el progrés actual
+     */
+    public ImportadorCens(int batchSize, Consumer<Progres> onLot) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize ha de ser positiu: " + batchSize);
+        }
+        this.batchSize = batchSize;
+        this.onLot = onLot;
+    }
+
+    /**
+     * Progrés de la importació en curs (o de l'última).
+     * Es pot consultar des d'un altre fil mentre s'importa.
+     */
+    public Progres getProgres() {
+        return progres;
+    }
+
+    // ═══════════════════════════════════════════════════════════════════
+    // IMPORTACIÓ CSV
+    // ═══════════════════════════════════════════════════════════════════
+
+    /**
+     * Importa ciutats d'un CSV amb columnes nom,pais,poblacio.
+     * 
+     * @param fitxer Ruta al fitxer CSV (UTF-8)
+     * @return Progrés final de la importació
+     * @throws IOException Si hi ha error llegint el fitxer
+     */
+    public Progres importCiutatsCsv(Path fitxer) throws IOException {
+        return importCsv(fitxer, COLUMNES_CIUTATS, (camps, escriptor) -> {
+            if (camps.size() < 3) throw new IllegalArgumentException("Calen 3 columnes");
+            escriptor.escriu(crearCiutat(camps.get(0), camps.get(1), camps.get(2)));
+        });
+    }
+
+    /**
+     * Importa ciutadans d'un CSV amb columnes nom,cognom,edat,ciutat,pais.
+     * Les columnes ciutat i pais poden ser buides (ciutadà sense ciutat).
+     * 
+     * @param fitxer Ruta al fitxer CSV (UTF-8)
+     * @return Progrés final de la importació
+     * @throws IOException Si hi ha error llegint el fitxer
+     */
+    public Progres importCiutadansCsv(Path fitxer) throws IOException {
+        return importCsv(fitxer, COLUMNES_CIUTADANS, (camps, escriptor) -> {
+            if (camps.size() < 3) throw new IllegalArgumentException("Calen almenys 3 columnes");
+            String ciutat = camps.size() > 3 ? camps.get(3) : null;
+            String pais = camps.size() > 4 ? camps.get(4) : null;
+            escriptor.escriu(crearCiutada(escriptor, camps.get(0), camps.get(1), camps.get(2), ciutat, pais));
+        });
+    }
+
+    private Progres importCsv(Path fitxer, List<String> columnes, Processador processador) throws IOException {
+        progres = new Progres();
+        try (BufferedReader reader = Files.newBufferedReader(fitxer, StandardCharsets.UTF_8);
+             Escriptor escriptor = new Escriptor()) {
+            String linia;
+            boolean primera = true;
+            while ((linia = reader.readLine()) != null) {
+                if (linia.isBlank()) continue;
+                List<String> camps = splitCsv(linia);
+                if (primera) {
+                    primera = false;
+                    // Capçalera opcional
+                    if (esCapcalera(camps, columnes)) continue;
+                }
+                progres.llegides.incrementAndGet();
+                try {
+                    processador.processa(camps, escriptor);
+                } catch (IllegalArgumentException e) {
+                    rebutja(linia, e);
+                }
+            }
+        }
+        return progres;
+    }
+
+    /**
+     * Una línia és la capçalera si els seus camps són exactament els noms
+     * de les primeres columnes (almenys 3), sense distingir majúscules.
+     * Una fila de dades com "Nomi,Sato,40" no ho és.
+     */
+    static boolean esCapcalera(List<String> camps, List<String> columnes) {
+        if (camps.size() < 3 || camps.size() > columnes.size()) return false;
+        for (int i = 0; i < camps.size(); i++) {
+            if (!camps.get(i).strip().toLowerCase(Locale.ROOT).equals(columnes.get(i))) return false;
+        }
+        return true;
+    }
+
+    // ═══════════════════════════════════════════════════════════════════
+    // IMPORTACIÓ XML (StAX)
+    // ═══════════════════════════════════════════════════════════════════
+
+    /**
+     * Importa un XML amb elements <ciutat> i <ciutada> (veure format a dalt).
+     * 
+     * S'utilitza StAX (XMLStreamReader): el document no es carrega mai sencer
+     * a memòria, només es llegeix l'element actual.
+     * Les ciutats han d'aparèixer abans que els seus ciutadans o existir ja a la BBDD.
+     * 
+     * @param fitxer Ruta al fitxer XML
+     * @return Progrés final de la importació
+     * @throws IOException Si hi ha error llegint el fitxer
+     * @throws XMLStreamException Si l'XML no està ben format
+     */
+    public Progres importXml(Path fitxer) throws IOException, XMLStreamException {
+        progres = new Progres();
+        XMLInputFactory xmlFactory = XMLInputFactory.newInstance();
+        // Seguretat: sense DTD ni entitats externes (XXE)
+        xmlFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        xmlFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+
+        try (InputStream in = Files.newInputStream(fitxer);
+             Escriptor escriptor = new Escriptor()) {
+            XMLStreamReader reader = xmlFactory.createXMLStreamReader(in, StandardCharsets.UTF_8.name());
+            try {
+                while (reader.hasNext()) {
+                    if (reader.next() != XMLStreamConstants.START_ELEMENT) continue;
+
+                    String element = reader.getLocalName();
+                    if (!element.equals("ciutat") && !element.equals("ciutada")) continue;
+
+                    progres.llegides.incrementAndGet();
+                    try {
+                        if (element.equals("ciutat")) {
+                            escriptor.escriu(crearCiutat(
+                                reader.getAttributeValue(null, "nom"),
+                                reader.getAttributeValue(null, "pais"),
+                                reader.getAttributeValue(null, "poblacio")));
+                        } else {
+                            escriptor.escriu(crearCiutada(escriptor,
+                                reader.getAttributeValue(null, "nom"),
+                                reader.getAttributeValue(null, "cognom"),
+                                reader.getAttributeValue(null, "edat"),
+                                reader.getAttributeValue(null, "ciutat"),
+                                reader.getAttributeValue(null, "pais")));
+                        }
+                    } catch (IllegalArgumentException e) {
+                        rebutja("<" + element + "> línia " + reader.getLocation().getLineNumber(), e);
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        return progres;
+    }
+
+    // ═══════════════════════════════════════════════════════════════════
+    // VALIDACIÓ I CONSTRUCCIÓ D'ENTITATS
+    // ═══════════════════════════════════════════════════════════════════
+
+    private Ciutat crearCiutat(String nom, String pais, String poblacio) {
+        return new Ciutat(obligatori(nom, "nom"), buitANull(pais), enter(poblacio, "poblacio", 0, Integer.MAX_VALUE));
+    }
+
+    private Ciutada crearCiutada(Escriptor escriptor, String nom, String cognom, String edat, String ciutat, String pais) {
+        Ciutada ciutada = new Ciutada(obligatori(nom, "nom"), buitANull(cognom), enter(edat, "edat", 0, 150));
+        String nomCiutat = buitANull(ciutat);
+        if (nomCiutat != null) {
+            String clau = clauNatural(nomCiutat, buitANull(pais));
+            // Ciutat del mateix lot, encara sense escriure: rebrà l'ID abans que el ciutadà
+            Ciutat pendent = escriptor.ciutatsPendents.get(clau);
+            if (pendent != null) {
+                ciutada.setCiutat(pendent);
+                return ciutada;
+            }
+            Long ciutatId = resolCiutat(nomCiutat, buitANull(pais));
+            if (ciutatId == null) {
+                throw new IllegalArgumentException("Ciutat desconeguda: " + nomCiutat + " (" + pais + ")");
+            }
+            // Només cal l'ID per escriure ciutat_id (Manager.addCiutadansBatch en fa una referència)
+            Ciutat referencia = new Ciutat();
+            referencia.setCiutatId(ciutatId);
+            ciutada.setCiutat(referencia);
+        }
+        return ciutada;
+    }
+
+    /**
+     * Resol l'ID d'una ciutat per la seva clau natural (nom, pais).
+     * Primer consulta la cache i, si no hi és, la BBDD.
+     */
+    private Long resolCiutat(String nom, String pais) {
+        String clau = clauNatural(nom, pais);
+        Long id = cacheCiutats.get(clau);
+        if (id != null) return id;
+
+        id = Manager.findCiutatId(nom, pais);
+        if (id != null) cacheCiutats.put(clau, id);
+        return id;
+    }
+
+    private static String clauNatural(String nom, String pais) {
+        return nom + '\u0000' + (pais == null ? "" : pais);
+    }
+
+    private static String obligatori(String valor, String camp) {
+        String net = buitANull(valor);
+        if (net == null) throw new IllegalArgumentException("Camp obligatori buit: " + camp);
+        return net;
+    }
+
+    private static String buitANull(String valor) {
+        if (valor == null) return null;
+        String net = valor.strip();
+        return net.isEmpty() ? null : net;
+    }
+
+    private static Integer enter(String valor, String camp, int min, int max) {
+        String net = buitANull(valor);
+        if (net == null) return null;
+        try {
+            int n = Integer.parseInt(net);
+            if (n < min || n > max) {
+                throw new IllegalArgumentException(camp + " fora de rang: " + n);
+            }
+            return n;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(camp + " no és un enter: " + net);
+        }
+    }
+
+    private void rebutja(String origen, IllegalArgumentException e) {
+        long n = progres.rebutjades.incrementAndGet();
+        if (n <= MAX_ERRORS_MOSTRATS) {
+            System.err.println("Fila rebutjada (" + e.getMessage() + "): " + origen);
+        } else if (n == MAX_ERRORS_MOSTRATS + 1) {
+            System.err.println("... (més files rebutjades, només es comptabilitzen)");
+        }
+    }
+
+    /**
+     * Separa una línia CSV en camps.
+     * Admet camps entre cometes dobles amb comes internes i cometes escapades ("").
+     */
+    static List<String> splitCsv(String linia) {
+        List<String> camps = new ArrayList<>();
+        StringBuilder actual = new StringBuilder();
+        boolean entreCometes = false;
+        for (int i = 0; i < linia.length(); i++) {
+            char c = linia.charAt(i);
+            if (entreCometes) {
+                if (c == '"' && i + 1 < linia.length() && linia.charAt(i + 1) == '"') {
+                    actual.append('"');
+                    i++;
+                } else if (c == '"') {
+                    entreCometes = false;
+                } else {
+                    actual.append(c);
+                }
+            } else if (c == '"') {
+                entreCometes = true;
+            } else if (c == ',') {
+                camps.add(actual.toString());
+                actual.setLength(0);
+            } else {
+                actual.append(c);
+            }
+        }
+        camps.add(actual.toString());
+        return camps;
+    }
+
+    // ═══════════════════════════════════════════════════════════════════
+    // ESCRIPTURA PER LOTS
+    // ═══════════════════════════════════════════════════════════════════
+
+    @FunctionalInterface
+    private interface Processador {
+        void processa(List<String> camps, Escriptor escriptor);
+    }
+
+    /**
+     * Escriu entitats en lots a través del Manager: una transacció per lot.
+     * 
+     * Cada 'batchSize' entitats, primer les ciutats del lot
+     * (Manager.addCiutatsBatch) i després els ciutadans
+     * (Manager.addCiutadansBatch): així els ciutadans d'una ciutat nova del
+     * mateix lot ja en tenen l'ID. Si un lot falla, es compta i es continua
+     * amb la resta del fitxer.
+     */
+    private final class Escriptor implements AutoCloseable {
+        private final List<Ciutat> ciutats = new ArrayList<>();
+        private final List<Ciutada> ciutadans = new ArrayList<>();
+        /** Ciutats del lot actual per clau natural, encara sense ID */
+        private final Map<String, Ciutat> ciutatsPendents = new HashMap<>();
+
+        void escriu(Object entitat) {
+            if (entitat instanceof Ciutat ciutat) {
+                ciutats.add(ciutat);
+                ciutatsPendents.put(clauNatural(ciutat.getNom(), ciutat.getPais()), ciutat);
+            } else {
+                ciutadans.add((Ciutada) entitat);
+            }
+            if (ciutats.size() + ciutadans.size() >= batchSize) {
+                confirmaLot();
+            }
+        }
+
+        private void confirmaLot() {
+            int pendents = ciutats.size() + ciutadans.size();
+            if (pendents == 0) return;
+            int escrites = 0;
+            if (!ciutats.isEmpty()) {
+                Set<Long> ids = new HashSet<>(Manager.addCiutatsBatch(ciutats, batchSize));
+                escrites += ids.size();
+                // Només les ciutats confirmades passen a la cache
+                Set<Ciutat> desfetes = new HashSet<>();
+                for (Ciutat ciutat : ciutats) {
+                    if (ids.contains(ciutat.getCiutatId())) {
+                        cacheCiutats.put(clauNatural(ciutat.getNom(), ciutat.getPais()), ciutat.getCiutatId());
+                    } else {
+                        desfetes.add(ciutat);
+                    }
+                }
+                // Els ciutadans d'una ciutat que no s'ha escrit també es perden
+                ciutadans.removeIf(ciutada -> desfetes.contains(ciutada.getCiutat()));
+            }
+            if (!ciutadans.isEmpty()) {
+                escrites += Manager.addCiutadansBatch(ciutadans, batchSize).size();
+            }
+            if (escrites < pendents) {
+                System.err.println("Error escrivint lot de " + pendents + " files: "
+                    + (pendents - escrites) + " no s'han pogut escriure");
+            }
+            progres.escrites.addAndGet(escrites);
+            progres.fallides.addAndGet(pendents - escrites);
+            ciutats.clear();
+            ciutadans.clear();
+            ciutatsPendents.clear();
+            onLot.accept(progres);
+        }
+
+        @Override
+        public void close() {
+            confirmaLot();
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════════════════
+    // PROGRÉS
+    // ═══════════════════════════════════════════════════════════════════
+
+    /**
+     * Comptadors d'una importació.
+     * Són atòmics perquè es puguin llegir des d'un altre fil (monitorització).
+     */
+    public static final class Progres {
+        private final long inici = System.nanoTime();
+        private final AtomicLong llegides = new AtomicLong();
+        private final AtomicLong escrites = new AtomicLong();
+        private final AtomicLong rebutjades = new AtomicLong();
+        private final AtomicLong fallides = new AtomicLong();
+
+        /** Files llegides del fitxer (vàlides o no) */
+        public long getLlegides() { return llegides.get(); }
+
+        /** Files confirmades a la BBDD */
+        public long getEscrites() { return escrites.get(); }
+
+        /** Files descartades per validació */
+        public long getRebutjades() { return rebutjades.get(); }
+
+        /** Files perdudes per lots que han fallat en escriure */
+        public long getFallides() { return fallides.get(); }
+
+        /** Files escrites per segon des de l'inici de la importació */
+        public double getFilesPerSegon() {
+            double segons = (System.nanoTime() - inici) / 1_000_000_000.0;
+            return segons > 0 ? escrites.get() / segons : 0.0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Llegides=%d, Escrites=%d, Rebutjades=%d, Fallides=%d (%.0f files/s)",
+                getLlegides(), getEscrites(), getRebutjades(), getFallides(), getFilesPerSegon());
+        }
+    }
+}
@@ -33,8 +33,8 @@ public class Main {
 
         // READ - Mostrem tots els elements creats
         System.out.println("Punt 1: Després de la creació inicial d'elements");
-        System.out.println(Manager.collectionToString(Ciutat.class, Manager.listCollection(Ciutat.class, "")));
-        System.out.println(Manager.collectionToString(Ciutada.class, Manager.listCollection(Ciutada.class, "")));
+        System.out.println(Manager.collectionToString(CiutatSummary.class, Manager.listCiutatSummaries()));
+        System.out.println(Manager.collectionToString(CiutadaSummary.class, Manager.listCiutadaSummaries()));
 
         // Creem un set de ciutadans per la primera ciutat
         Set<Ciutada> ciutadansCity1 = new HashSet<Ciutada>();
@@ -42,34 +42,36 @@ public class Main {
         ciutadansCity1.add(refCiutada2);
         ciutadansCity1.add(refCiutada3);
 
-        // UPDATE - Actualitzem la primera ciutat amb els seus ciutadans
-        Manager.updateCiutat(refCiutat1.getCiutatId(), refCiutat1.getNom(), refCiutat1.getPais(), refCiutat1.getPoblacio(), ciutadansCity1);
-
         // Creem un set de ciutadans per la segona ciutat
         Set<Ciutada> ciutadansCity2 = new HashSet<Ciutada>();
         ciutadansCity2.add(refCiutada4);
         ciutadansCity2.add(refCiutada5);
 
-        // UPDATE - Actualitzem la segona ciutat amb els seus ciutadans
-        Manager.updateCiutat(refCiutat2.getCiutatId(), refCiutat2.getNom(), refCiutat2.getPais(), refCiutat2.getPoblacio(), ciutadansCity2);
+        // UPDATE - Actualitzem les dues ciutats amb els seus ciutadans
+        // en una sola transacció (Unit of Work)
+        Manager.inTransaction(session -> {
+            Manager.updateCiutat(session, refCiutat1.getCiutatId(), refCiutat1.getNom(), refCiutat1.getPais(), refCiutat1.getPoblacio(), ciutadansCity1);
+            Manager.updateCiutat(session, refCiutat2.getCiutatId(), refCiutat2.getNom(), refCiutat2.getPais(), refCiutat2.getPoblacio(), ciutadansCity2);
+        });
 
         // READ - Mostrem l'estat després d'assignar ciutadans a les ciutats
         System.out.println("Punt 2: Després d'actualitzar ciutats");
-        System.out.println(Manager.collectionToString(Ciutat.class, Manager.listCollection(Ciutat.class, "")));
-        System.out.println(Manager.collectionToString(Ciutada.class, Manager.listCollection(Ciutada.class, "")));
-
-        // UPDATE - Actualitzem els noms de les ciutats
-        Manager.updateCiutat(refCiutat1.getCiutatId(), "Vancouver Updated", refCiutat1.getPais(), refCiutat1.getPoblacio(), ciutadansCity1);
-        Manager.updateCiutat(refCiutat2.getCiutatId(), "Växjö Updated", refCiutat2.getPais(), refCiutat2.getPoblacio(), ciutadansCity2);
-
-        // UPDATE - Actualitzem els noms dels ciutadans
-        Manager.updateCiutada(refCiutada1.getCiutadaId(), "Tony Updated", refCiutada1.getCognom(), refCiutada1.getEdat());
-        Manager.updateCiutada(refCiutada4.getCiutadaId(), "Ven Updated", refCiutada4.getCognom(), refCiutada4.getEdat());
+        System.out.println(Manager.collectionToString(CiutatSummary.class, Manager.listCiutatSummaries()));
+        System.out.println(Manager.collectionToString(CiutadaSummary.class, Manager.listCiutadaSummaries()));
+
+        // UPDATE - Actualitzem els noms de les ciutats i dels ciutadans
+        // en una sola transacció (Unit of Work)
+        Manager.inTransaction(session -> {
+            Manager.updateCiutat(session, refCiutat1.getCiutatId(), "Vancouver Updated", refCiutat1.getPais(), refCiutat1.getPoblacio(), ciutadansCity1);
+            Manager.updateCiutat(session, refCiutat2.getCiutatId(), "Växjö Updated", refCiutat2.getPais(), refCiutat2.getPoblacio(), ciutadansCity2);
+            Manager.updateCiutada(session, refCiutada1.getCiutadaId(), "Tony Updated", refCiutada1.getCognom(), refCiutada1.getEdat());
+            Manager.updateCiutada(session, refCiutada4.getCiutadaId(), "Ven Updated", refCiutada4.getCognom(), refCiutada4.getEdat());
+        });
 
         // READ - Mostrem l'estat després d'actualitzar els noms
         System.out.println("Punt 3: Després d'actualització de noms");
-        System.out.println(Manager.collectionToString(Ciutat.class, Manager.listCollection(Ciutat.class, "")));
-        System.out.println(Manager.collectionToString(Ciutada.class, Manager.listCollection(Ciutada.class, "")));
+        System.out.println(Manager.collectionToString(CiutatSummary.class, Manager.listCiutatSummaries()));
+        System.out.println(Manager.collectionToString(CiutadaSummary.class, Manager.listCiutadaSummaries()));
 
         // DELETE - Esborrem la tercera ciutat i el sisè ciutadà
         Manager.delete(Ciutat.class, refCiutat3.getCiutatId());
@@ -77,8 +79,8 @@ public class Main {
 
         // READ - Mostrem l'estat després d'esborrar elements
         System.out.println("Punt 4: després d'esborrat");
-        System.out.println(Manager.collectionToString(Ciutat.class, Manager.listCollection(Ciutat.class, "")));
-        System.out.println(Manager.collectionToString(Ciutada.class, Manager.listCollection(Ciutada.class, "")));
+        System.out.println(Manager.collectionToString(CiutatSummary.class, Manager.listCiutatSummaries()));
+        System.out.println(Manager.collectionToString(CiutadaSummary.class, Manager.listCiutadaSummaries()));
 
         // READ - Exemple de com recuperar i mostrar els ciutadans d'una ciutat específica
         System.out.println("Punt 5: Recuperació de ciutadans d'una ciutat específica");
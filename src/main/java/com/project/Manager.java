@@ -1,17 +1,60 @@
 package com.project;
 
 import java.io.Serializable;
+import java.lang.reflect.RecordComponent;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Properties;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+import org.hibernate.FlushMode;
+import org.hibernate.Hibernate;
 import org.hibernate.HibernateException;
+import org.hibernate.LockMode;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
+import org.hibernate.StaleStateException;
+import org.hibernate.StatelessSession;
 import org.hibernate.Transaction;
 import org.hibernate.cfg.Configuration;
+import org.hibernate.dialect.lock.OptimisticEntityLockException;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.query.CommonQueryContract;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
+
+import jakarta.persistence.PersistenceException;
+
+import com.project.utils.SQLiteProfile;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
 
 /**
  * Classe MANAGER: Patró DAO (Data Access Object)
@@ -25,6 +68,8 @@ import org.hibernate.cfg.Configuration;
  * PATRONS IMPLEMENTATS:
  * - DAO Pattern: Separa la lògica d'accés a dades de la lògica de negoci
  * - Session-per-request: Cada operació obre/tanca la seva sessió
+ * - Unit of Work: inTransaction/withUnitOfWork agrupen diverses operacions
+ *   (sobrecàrregues amb Session) en una sola sessió i un sol commit
  * - Try-with-resources: Gestió automàtica de recursos (sessions)
  * 
  * CONCEPTES CLAU HIBERNATE:
@@ -37,8 +82,11 @@ import org.hibernate.cfg.Configuration;
  * amb mapatges XML (.hbm.xml) en lloc d'anotacions JPA.
  * 
  * FETCH STRATEGY:
- * Totes les relacions usen lazy="false" per simplicitat.
- * Això elimina qualsevol problema de LazyInitializationException.
+ * La col·lecció Ciutat.ciutadans és LAZY (amb batch-size="50").
+ * Els mètodes que prometen ciutadans (getCiutatWithCiutadans,
+ * findAllCiutatsWithCiutadans) els carreguen explícitament abans de tancar
+ * la sessió, amb una o dues sentències en total (sense problema N+1).
+ * La resta de lectures no paguen la càrrega dels ciutadans.
  */
 public class Manager {
     
@@ -57,6 +105,66 @@ public class Manager {
      */
     private static SessionFactory factory;
 
+    /**
+     * Buffer write-behind de updateCiutada, o null si el mode està desactivat.
+     */
+    private static volatile WriteBehindBuffer writeBehind;
+
+    /**
+     * Fil escriptor únic, o null si cada fil escriu amb la seva connexió.
+     */
+    private static volatile SingleWriter singleWriter;
+
+    /** Persistència repartida en diversos fitxers (null = una sola BBDD) */
+    private static volatile ShardedManager sharded;
+
+    /**
+     * Mida per defecte dels lots d'inserció massiva.
+     * Coincideix amb hibernate.jdbc.batch_size de hibernate.cfg.xml.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 50;
+
+    /**
+     * Files que el driver JDBC porta de la BBDD a cada viatge quan es
+     * recorre un resultat amb stream().
+     */
+    public static final int DEFAULT_FETCH_SIZE = 500;
+
+    /**
+     * Nombre màxim d'IDs per sentència "... WHERE id IN (...)".
+     * Per sota del límit de paràmetres de SQLite (999 en versions antigues).
+     */
+    public static final int IN_CHUNK_SIZE = 500;
+
+    /**
+     * Propietat de sistema que selecciona el fitxer de configuració.
+     * Per defecte hibernate.cfg.xml (SQLite); per MySQL:
+     * -Dhibernate.config=hibernate-mysql.cfg.xml
+     */
+    public static final String CONFIG_PROPERTY = "hibernate.config";
+
+    /**
+     * Regió de la cache de consultes per als resultats de les agregacions
+     * (definida a ehcache.xml). Només s'usa amb hibernate.cache.use_query_cache=true.
+     */
+    public static final String AGGREGACIONS_REGION = "aggregacions";
+
+    /**
+     * Reintents (a més del primer intent) d'una escriptura que falla per
+     * bloqueig optimista. Es pot canviar amb setOptimisticRetries.
+     */
+    public static final int DEFAULT_OPTIMISTIC_RETRIES = 3;
+
+    /**
+     * Operacions màximes per transacció en mode escriptor únic.
+     */
+    public static final int DEFAULT_WRITE_GROUP = 100;
+
+    private static volatile int optimisticRetries = DEFAULT_OPTIMISTIC_RETRIES;
+
+    /** Reintents fets per conflictes de versió (mètrica) */
+    private static final LongAdder reintentsOptimistes = new LongAdder();
+
     // ═══════════════════════════════════════════════════════════════════
     // MÈTODES DE CONFIGURACIÓ I INICIALITZACIÓ
     // ═══════════════════════════════════════════════════════════════════
@@ -73,19 +181,37 @@ public class Manager {
      * - Versió JPA: Llegeix hibernate.properties i usa anotacions @Entity
      * - Versió XML: Llegeix hibernate.cfg.xml i usa fitxers .hbm.xml
      * 
+     * SELECCIÓ DE CONFIGURACIÓ:
+     * - -Dhibernate.config=<fitxer> tria un altre fitxer del classpath
+     * - Qualsevol -Dhibernate.xxx=valor sobreescriu la propietat del fitxer
+     *   (per exemple -Dhibernate.hikari.maximumPoolSize=20)
+     * 
      * @throws ExceptionInInitializerError Si hi ha error en la configuració
      */
     public static void createSessionFactory() {
+        createSessionFactory(System.getProperty(CONFIG_PROPERTY, "hibernate.cfg.xml"), new Properties());
+    }
+
+    /**
+     * Crea la SessionFactory a partir d'un fitxer de configuració concret
+     * i d'un conjunt de propietats que tenen prioritat sobre el fitxer.
+     * 
+     * Ordre de prioritat (de menys a més):
+     * 1. Fitxer de configuració (cfgResource)
+     * 2. Propietats de sistema hibernate.*
+     * 3. 'overrides'
+     * 
+     * @param cfgResource Fitxer de configuració al classpath
+     * @param overrides Propietats que sobreescriuen la configuració (pot ser buit)
+     * @throws ExceptionInInitializerError Si hi ha error en la configuració
+     */
+    public static void createSessionFactory(String cfgResource, Properties overrides) {
         try {
-            // Configuration: Llegeix hibernate.cfg.xml del classpath
-            // Aquest fitxer conté la connexió, dialecte i mapatges .hbm.xml
-            Configuration configuration = new Configuration();
+            factory = buildSessionFactory(cfgResource, overrides, -1);
             
-            // configure(): Busca hibernate.cfg.xml al classpath i el carrega
-            configuration.configure("hibernate.cfg.xml");
-            
-            // buildSessionFactory(): Crea la SessionFactory amb la configuració carregada
-            factory = configuration.buildSessionFactory();
+            // Mètriques per operació visibles per JMX (com.project:type=ManagerMetrics)
+            ManagerMetrics.registerMBean();
+            ManagerMetrics.registerGauge("manager_optimistic_lock_retries_total", reintentsOptimistes::sum);
             
         } catch (Throwable ex) {
             // Si quelcom falla, imprimim l'error i llancem ExceptionInInitializerError
@@ -94,6 +220,171 @@ public class Manager {
         }
     }
 
+    /**
+     * Activa el SHARDING amb 'numShards' fitxers SQLite, repartits per país,
+     * a partir de la configuració per defecte (vegeu createSessionFactory()).
+     * 
+     * @param numShards Nombre de fitxers
+     */
+    public static void createShardedSessionFactories(int numShards) {
+        createShardedSessionFactories(System.getProperty(CONFIG_PROPERTY, "hibernate.cfg.xml"),
+            new Properties(), numShards, Ciutat::getPais);
+    }
+
+    /**
+     * Activa el SHARDING: les dades es reparteixen en 'numShards' fitxers
+     * SQLite, cadascun amb la seva SessionFactory i el seu pool.
+     * 
+     * El fitxer de cada shard es deriva de la URL de la configuració:
+     * ./data/database.db → ./data/database-0.db, ./data/database-1.db...
+     * 
+     * Les ciutats es reparteixen per 'clauShard' i cada ciutadà va al shard
+     * de la seva ciutat. Els mètodes del Manager sense Session continuen
+     * funcionant igual: els que afecten una entitat van al seu shard i els
+     * llistats i les agregacions consulten tots els shards i en fusionen el
+     * resultat. Les unitats de treball van al shard d'una clau
+     * (inTransaction(clauShard, work)) o, sense clau, al shard per defecte;
+     * vegeu ShardedManager.
+     * 
+     * Substitueix la SessionFactory única, si n'hi havia. Es tanca amb close().
+     * 
+     * @param cfgResource Fitxer de configuració al classpath
+     * @param overrides Propietats que sobreescriuen la configuració (pot ser buit)
+     * @param numShards Nombre de fitxers
+     * @param clauShard Clau de repartiment d'una ciutat (per exemple Ciutat::getPais)
+     * @throws ExceptionInInitializerError Si hi ha error en la configuració
+     */
+    public static synchronized void createShardedSessionFactories(String cfgResource, Properties overrides,
+                                                                  int numShards, Function<Ciutat, String> clauShard) {
+        if (numShards <= 0) {
+            throw new IllegalArgumentException("numShards ha de ser positiu: " + numShards);
+        }
+        close();
+        List<SessionFactory> shards = new ArrayList<>(numShards);
+        try {
+            for (int shard = 0; shard < numShards; shard++) {
+                shards.add(buildSessionFactory(cfgResource, overrides, shard));
+            }
+            sharded = new ShardedManager(shards, clauShard);
+            factory = null;
+            
+            ManagerMetrics.registerMBean();
+            ManagerMetrics.registerGauge("manager_optimistic_lock_retries_total", reintentsOptimistes::sum);
+            
+        } catch (Throwable ex) {
+            shards.forEach(SessionFactory::close);
+            System.err.println("Error creant les SessionFactory dels shards: " + ex);
+            throw new ExceptionInInitializerError(ex);
+        }
+    }
+
+    /**
+     * @return true si les dades estan repartides en diversos fitxers
+     */
+    public static boolean isSharded() {
+        return sharded != null;
+    }
+
+    /**
+     * SessionFactory de la qual es llegeix la configuració (pool, URL):
+     * la única o, amb sharding, la del primer shard (tots comparteixen configuració).
+     */
+    private static SessionFactory configFactory() {
+        ShardedManager shards = sharded;
+        return shards != null ? shards.shard(0) : factory;
+    }
+
+    /**
+     * Construeix una SessionFactory amb l'ordre de prioritat de createSessionFactory.
+     * 
+     * @param shard Índex del shard (canvia el fitxer i el nom del pool), o -1 sense sharding
+     */
+    private static SessionFactory buildSessionFactory(String cfgResource, Properties overrides, int shard) {
+        // Configuration: Llegeix el fitxer de configuració del classpath
+        // Aquest fitxer conté la connexió, dialecte, pool i mapatges .hbm.xml
+        Configuration configuration = new Configuration();
+        
+        // configure(): Busca el fitxer al classpath i el carrega
+        configuration.configure(cfgResource);
+        
+        // Les propietats de sistema hibernate.* sobreescriuen el fitxer
+        for (String nom : System.getProperties().stringPropertyNames()) {
+            if (nom.startsWith("hibernate.") && !nom.equals(CONFIG_PROPERTY)) {
+                configuration.setProperty(nom, System.getProperty(nom));
+            }
+        }
+        overrides.forEach((clau, valor) -> configuration.setProperty(clau.toString(), valor.toString()));
+        
+        // Cada shard té el seu fitxer i el seu pool (amb nom propi per JMX)
+        if (shard >= 0) {
+            configuration.setProperty("hibernate.connection.url",
+                shardUrl(configuration.getProperty("hibernate.connection.url"), shard));
+            String pool = configuration.getProperty("hibernate.hikari.poolName");
+            if (pool != null) {
+                configuration.setProperty("hibernate.hikari.poolName", pool + "-shard-" + shard);
+            }
+        }
+        
+        // Perfil de PRAGMA de SQLite (WAL, synchronous...) per a cada connexió del pool
+        applySQLiteProfile(configuration);
+        
+        // buildSessionFactory(): Crea la SessionFactory amb la configuració carregada
+        return configuration.buildSessionFactory();
+    }
+
+    /**
+     * URL del fitxer d'un shard: jdbc:sqlite:./data/database.db → jdbc:sqlite:./data/database-2.db
+     */
+    private static String shardUrl(String url, int shard) {
+        if (url == null || !url.startsWith("jdbc:sqlite:") || url.contains(":memory:")) {
+            throw new IllegalArgumentException("El sharding per fitxers necessita una URL de fitxer SQLite: " + url);
+        }
+        int params = url.indexOf('?');
+        String fitxer = params < 0 ? url : url.substring(0, params);
+        String resta = params < 0 ? "" : url.substring(params);
+        return fitxer.endsWith(".db")
+            ? fitxer.substring(0, fitxer.length() - 3) + "-" + shard + ".db" + resta
+            : fitxer + "-" + shard + resta;
+    }
+
+    /**
+     * Dona accés a la SessionFactory a les classes del mateix paquet
+     * (per exemple ManagerMetrics, per a les Statistics).
+     * 
+     * @return La SessionFactory creada per createSessionFactory() (null amb sharding)
+     */
+    static SessionFactory getSessionFactory() {
+        return factory;
+    }
+
+    /**
+     * Aplica el perfil hibernate.sqlite.profile a totes les connexions.
+     * 
+     * Els PRAGMA es passen com a propietats de connexió del driver:
+     * - hibernate.hikari.dataSource.*: quan el pool és HikariCP
+     * - hibernate.connection.*: quan s'usa el pool intern de Hibernate
+     * Així el driver sqlite-jdbc els aplica a cada connexió que obre el pool.
+     * Un PRAGMA indicat explícitament (per exemple amb
+     * -Dhibernate.hikari.dataSource.journal_mode=DELETE) té prioritat sobre el perfil.
+     * No fa res si la URL no és de SQLite.
+     */
+    private static void applySQLiteProfile(Configuration configuration) {
+        String url = configuration.getProperty("hibernate.connection.url");
+        if (url == null || !url.startsWith("jdbc:sqlite:")) return;
+        
+        SQLiteProfile profile = SQLiteProfile.fromName(configuration.getProperty(SQLiteProfile.PROPERTY));
+        profile.pragmas().forEach((pragma, valor) -> {
+            setIfAbsent(configuration, "hibernate.hikari.dataSource." + pragma, valor);
+            setIfAbsent(configuration, "hibernate.connection." + pragma, valor);
+        });
+    }
+
+    private static void setIfAbsent(Configuration configuration, String nom, String valor) {
+        if (configuration.getProperty(nom) == null) {
+            configuration.setProperty(nom, valor);
+        }
+    }
+
     /**
      * Tanca la SessionFactory i allibera recursos.
      * 
@@ -103,313 +394,1966 @@ public class Manager {
      * - Neteja recursos del sistema
      */
     public static void close() {
+        ManagerMetrics.stopHttpServer();
+        // Flush durable dels canvis write-behind abans de tancar el pool
+        disableWriteBehind();
+        // Executa les escriptures que encara són a la cua de l'escriptor únic
+        disableSingleWriter();
         if (factory != null && !factory.isClosed()) {
             factory.close();
         }
+        ShardedManager shards = sharded;
+        if (shards != null) {
+            sharded = null;
+            shards.close();
+        }
     }
 
-    // ═══════════════════════════════════════════════════════════════════
-    // CRUD - CREATE (Creació d'entitats)
-    // ═══════════════════════════════════════════════════════════════════
-
     /**
-     * Crea una nova ciutat a la base de dades.
-     * 
-     * FLUX D'EXECUCIÓ:
-     * 1. Obrir sessió (try-with-resources la tanca automàticament)
-     * 2. Iniciar transacció
-     * 3. Crear objecte i persistir
-     * 4. Commit si tot OK, rollback si hi ha error
+     * Mètriques del pool de connexions HikariCP.
      * 
-     * ESTATS DE L'OBJECTE:
-     * - TRANSIENT: ciutat = new Ciutat(...) → No gestionat per Hibernate
-     * - PERSISTENT: session.persist(ciutat) → Gestionat, canvis segueix
-     * - DETACHED: return ciutat → Sessió tancada, objecte amb ID assignat
+     * Útil per detectar esperes en l'adquisició de connexions:
+     * si 'esperant' és sovint > 0, el pool és massa petit.
+     * Les mateixes dades es publiquen per JMX (registerMbeans=true).
      * 
-     * @param nom Nom de la ciutat (obligatori)
-     * @param pais País on es troba
-     * @param poblacio Nombre d'habitants
-     * @return La ciutat amb l'ID assignat per la BD, o null si hi ha error
+     * @return Resum de l'estat del pool, o un avís si no s'usa HikariCP
      */
-    public static Ciutat addCiutat(String nom, String pais, Integer poblacio) {
-        Ciutat result = null;
-        // TRY-WITH-RESOURCES: La Session es tanca automàticament al final
-        try (Session session = factory.openSession()) {
-            // TRANSACTION: Agrupa operacions. Si falla alguna, es pot fer rollback.
-            Transaction tx = session.beginTransaction();
-            try {
-                // Creem l'objecte ciutat (estat TRANSIENT)
-                result = new Ciutat(nom, pais, poblacio);
-                
-                // PERSIST: Guarda l'objecte a la BBDD i li assigna un ID
-                session.persist(result);
-                
-                // COMMIT: Confirma els canvis a la BBDD
-                tx.commit();
-            } catch (HibernateException e) {
-                // ROLLBACK: Desfà tots els canvis si hi ha error
-                if (tx != null && tx.isActive()) tx.rollback();
-                System.err.println("Error creant Ciutat: " + e.getMessage());
-                e.printStackTrace();
+    public static String poolStats() {
+        ShardedManager shards = sharded;
+        if (shards != null) {
+            List<String> perShard = new ArrayList<>(shards.numShards());
+            for (int shard = 0; shard < shards.numShards(); shard++) {
+                perShard.add(poolStats(hikariDataSource(shards.shard(shard))));
             }
+            return String.join("\n", perShard);
         }
-        return result;
+        return poolStats(hikariDataSource());
+    }
+
+    private static String poolStats(HikariDataSource ds) {
+        if (ds == null) {
+            return "[Pool de connexions no gestionat per HikariCP]";
+        }
+        HikariPoolMXBean pool = ds.getHikariPoolMXBean();
+        if (pool == null) {
+            return "[Pool " + ds.getPoolName() + " encara no inicialitzat]";
+        }
+        return String.format("Pool %s [Actives=%d, Inactives=%d, Total=%d/%d, Esperant=%d]",
+            ds.getPoolName(), pool.getActiveConnections(), pool.getIdleConnections(),
+            pool.getTotalConnections(), ds.getMaximumPoolSize(), pool.getThreadsAwaitingConnection());
     }
 
     /**
-     * Crea un nou ciutadà a la base de dades.
-     * 
-     * Funciona exactament igual que addCiutat.
-     * 
-     * @param nom Nom del ciutadà (obligatori)
-     * @param cognom Cognom del ciutadà
-     * @param edat Edat del ciutadà
-     * @return El ciutadà amb l'ID assignat per la BD, o null si hi ha error
+     * Mida màxima del pool de connexions (connexions simultànies possibles).
+     * Amb sharding, la suma dels pools de tots els shards.
+     * Si el pool no és HikariCP, usa hibernate.hikari.maximumPoolSize o 10.
      */
-    public static Ciutada addCiutada(String nom, String cognom, Integer edat) {
-        Ciutada result = null;
-        try (Session session = factory.openSession()) {
-            Transaction tx = session.beginTransaction();
-            try {
-                result = new Ciutada(nom, cognom, edat);
-                session.persist(result);
-                tx.commit();
-            } catch (HibernateException e) {
-                if (tx != null && tx.isActive()) tx.rollback();
-                System.err.println("Error creant Ciutada: " + e.getMessage());
-                e.printStackTrace();
-            }
+    static int maxPoolSize() {
+        ShardedManager shards = sharded;
+        if (shards == null) return maxPoolSize(factory);
+        int total = 0;
+        for (int shard = 0; shard < shards.numShards(); shard++) {
+            total += maxPoolSize(shards.shard(shard));
         }
-        return result;
+        return total;
     }
 
-    // ═══════════════════════════════════════════════════════════════════
-    // CRUD - UPDATE (Actualització d'entitats)
-    // ═══════════════════════════════════════════════════════════════════
+    private static int maxPoolSize(SessionFactory factory) {
+        HikariDataSource ds = hikariDataSource(factory);
+        if (ds != null) {
+            return ds.getMaximumPoolSize();
+        }
+        Object valor = factory.getProperties().get("hibernate.hikari.maximumPoolSize");
+        return valor != null ? Integer.parseInt(valor.toString()) : 10;
+    }
 
     /**
-     * Actualitza un ciutadà existent.
-     * 
-     * FUNCIONAMENT:
-     * 1. session.get() carrega el ciutadà (estat MANAGED)
-     * 2. Modificar les propietats (dirty checking automàtic)
-     * 3. session.merge() sincronitza canvis (opcional, ja està MANAGED)
-     * 4. tx.commit() executa l'UPDATE real
-     * 
-     * DIRTY CHECKING:
-     * Hibernate detecta automàticament els canvis en objectes MANAGED.
-     * No cal cridar update() o merge() explícitament, però ho fem per claredat.
-     * 
-     * @param ciutadaId ID del ciutadà a actualitzar
-     * @param nom Nou nom
-     * @param cognom Nou cognom
-     * @param edat Nova edat
+     * Indica si la SessionFactory treballa amb SQLite (un sol escriptor alhora).
      */
-    public static void updateCiutada(Long ciutadaId, String nom, String cognom, Integer edat) {
-        try (Session session = factory.openSession()) {
-            Transaction tx = session.beginTransaction();
-            try {
-                // GET: Recupera l'entitat per ID. Retorna null si no existeix.
-                Ciutada ciutada = session.get(Ciutada.class, ciutadaId);
-                
-                if (ciutada != null) {
-                    // Actualitzem les propietats (dirty checking automàtic)
-                    ciutada.setNom(nom);
-                    ciutada.setCognom(cognom);
-                    ciutada.setEdat(edat);
-                    
-                    // MERGE: Sincronitza l'estat de l'objecte amb la BBDD
-                    session.merge(ciutada);
-                }
-                
-                tx.commit();
-            } catch (HibernateException e) {
-                if (tx != null && tx.isActive()) tx.rollback();
-                e.printStackTrace();
-            }
+    static boolean isSQLite() {
+        Object url = configFactory().getProperties().get("hibernate.connection.url");
+        return url != null && url.toString().startsWith("jdbc:sqlite:");
+    }
+
+    /**
+     * Escriptors que poden treballar alhora: un per fitxer SQLite (amb
+     * sharding, un per shard), o 0 si la BBDD no és SQLite (sense límit).
+     */
+    static int sqliteWriters() {
+        if (!isSQLite()) return 0;
+        ShardedManager shards = sharded;
+        return shards == null ? 1 : shards.numShards();
+    }
+
+    /**
+     * Obté el HikariDataSource que hi ha darrere la SessionFactory, si n'hi ha.
+     */
+    static HikariDataSource hikariDataSource() {
+        return hikariDataSource(configFactory());
+    }
+
+    private static HikariDataSource hikariDataSource(SessionFactory factory) {
+        if (factory == null || factory.isClosed()) return null;
+        ConnectionProvider provider = factory.unwrap(SessionFactoryImplementor.class)
+            .getServiceRegistry().getService(ConnectionProvider.class);
+        if (provider != null && provider.isUnwrappableAs(HikariDataSource.class)) {
+            return provider.unwrap(HikariDataSource.class);
         }
+        return null;
     }
 
     /**
-     * Actualitza una ciutat existent amb els seus ciutadans.
+     * Estadístiques de Hibernate (sentències, càrregues, flushes, cache...).
+     * Només registren dades si hibernate.generate_statistics=true.
      * 
-     * GESTIÓ DE RELACIONS BIDIRECCIONALS:
-     * Aquest mètode és més complex perquè manté la coherència de la relació
-     * One-to-Many entre Ciutat i Ciutadans.
+     * Amb sharding, una vista que suma les de tots els shards
+     * (vegeu ShardedStatistics).
      * 
-     * PROCESSOS:
-     * 1. Carregar la ciutat existent
-     * 2. Actualitzar propietats bàsiques (nom, pais, poblacio)
-     * 3. Gestionar ciutadans:
-     *    a) Eliminar ciutadans que ja no estan a la nova llista
-     *    b) Afegir o actualitzar ciutadans de la nova llista
-     * 4. Fer commit dels canvis
+     * @return Objecte Statistics de la SessionFactory
+     */
+    public static Statistics getStatistics() {
+        ShardedManager shards = sharded;
+        if (shards != null) return shards.getStatistics();
+        return factory.getStatistics();
+    }
+
+    /**
+     * Estadístiques de la cache de segon nivell i de consultes.
      * 
-     * IMPORTANT - DETACHED vs MANAGED:
-     * Els objectes ciutadans que venen com a paràmetre poden estar DETACHED.
-     * Cal fer session.find() per obtenir la versió MANAGED abans d'afegir-los.
+     * Mostra hits, misses i puts globals i per regió (entitats i col·leccions).
+     * Requereix hibernate.generate_statistics=true; si no, els comptadors
+     * són sempre zero. Amb sharding, sumats de tots els shards.
      * 
-     * @param ciutatId ID de la ciutat a actualitzar
-     * @param nom Nou nom de la ciutat
-     * @param pais Nou país
-     * @param poblacio Nova població
-     * @param ciutadans Nou conjunt de ciutadans (pot ser null per eliminar tots)
+     * @return Resum de l'ús de la cache
      */
-    public static void updateCiutat(Long ciutatId, String nom, String pais, Integer poblacio, Set<Ciutada> ciutadans) {
-        try (Session session = factory.openSession()) {
-            Transaction tx = session.beginTransaction();
-            try {
-                // Carreguem la ciutat per ID
-                Ciutat ciutat = session.get(Ciutat.class, ciutatId);
-                
-                if (ciutat == null) {
-                    System.err.println("Ciutat no trobada amb id: " + ciutatId);
-                    return;
-                }
-                
-                // Actualitzem les propietats bàsiques
-                ciutat.setNom(nom);
-                ciutat.setPais(pais);
-                ciutat.setPoblacio(poblacio);
-                
-                if (ciutadans != null) {
-                    // ───────────────────────────────────────────────────────
-                    // PAS 1: Eliminar ciutadans que ja no estan a la llista
-                    // ───────────────────────────────────────────────────────
-                    
-                    // IMPORTANT: Fem una còpia per evitar ConcurrentModificationException
-                    Set<Ciutada> currentCiutadans = new HashSet<>(ciutat.getCiutadans());
-                    
-                    for (Ciutada dbCiutada : currentCiutadans) {
-                        if (!ciutadans.contains(dbCiutada)) {
-                            // Usem el mètode helper per mantenir coherència bidireccional
-                            ciutat.removeCiutada(dbCiutada);
-                        }
-                    }
-                    
-                    // ───────────────────────────────────────────────────────
-                    // PAS 2: Afegir o actualitzar ciutadans de la nova llista
-                    // ───────────────────────────────────────────────────────
-                    
-                    for (Ciutada ciutadaInput : ciutadans) {
-                        if (ciutadaInput.getCiutadaId() != null) {
-                            // Ciutadà existent: Cal obtenir la versió MANAGED
-                            Ciutada managedCiutada = session.find(Ciutada.class, ciutadaInput.getCiutadaId());
-                            
-                            if (managedCiutada != null && !ciutat.getCiutadans().contains(managedCiutada)) {
-                                // Usem el mètode helper per mantenir coherència
-                                ciutat.addCiutada(managedCiutada);
-                            }
-                        } else {
-                            // Ciutadà nou sense ID: s'afegeix i es persistirà per CASCADE
-                            ciutat.addCiutada(ciutadaInput);
-                        }
-                    }
-                } else {
-                    // Si ciutadans és null, eliminem tots els ciutadans de la ciutat
-                    new HashSet<>(ciutat.getCiutadans()).forEach(ciutat::removeCiutada);
-                }
-                
-                // Merge per sincronitzar tots els canvis
-                session.merge(ciutat);
-                tx.commit();
-                
-            } catch (HibernateException e) {
-                if (tx != null && tx.isActive()) tx.rollback();
-                e.printStackTrace();
+    public static String cacheStats() {
+        Statistics stats = getStatistics();
+        if (!stats.isStatisticsEnabled()) {
+            return "[Estadístiques desactivades: cal hibernate.generate_statistics=true]";
+        }
+        
+        StringBuilder sb = new StringBuilder();
+        sb.append(formatHitRatio("Cache L2",
+            stats.getSecondLevelCacheHitCount(), stats.getSecondLevelCacheMissCount(), stats.getSecondLevelCachePutCount()));
+        sb.append(formatHitRatio("Cache de consultes",
+            stats.getQueryCacheHitCount(), stats.getQueryCacheMissCount(), stats.getQueryCachePutCount()));
+        
+        for (String regio : stats.getSecondLevelCacheRegionNames()) {
+            CacheRegionStatistics regioStats = stats.getDomainDataRegionStatistics(regio);
+            if (regioStats != null) {
+                sb.append(formatHitRatio("  " + regio,
+                    regioStats.getHitCount(), regioStats.getMissCount(), regioStats.getPutCount()));
             }
         }
+        return sb.toString();
+    }
+
+    private static String formatHitRatio(String nom, long hits, long misses, long puts) {
+        long total = hits + misses;
+        double ratio = total == 0 ? 0.0 : 100.0 * hits / total;
+        return String.format("%s [Hits=%d, Misses=%d, Puts=%d, Encert=%.1f%%]%n", nom, hits, misses, puts, ratio);
     }
 
     // ═══════════════════════════════════════════════════════════════════
-    // CRUD - READ (Lectura d'entitats)
+    // UNITAT DE TREBALL (Unit of Work)
     // ═══════════════════════════════════════════════════════════════════
 
     /**
-     * Obté una ciutat amb els seus ciutadans.
+     * Executa diverses operacions dins d'una sola sessió i transacció.
      * 
-     * AMB EAGER LOADING (lazy="false"):
-     * Com la relació ciutadans té lazy="false" al XML, els ciutadans es carreguen
-     * automàticament quan es carrega la ciutat.
-     * No cal fer Hibernate.initialize().
+     * Cada mètode CRUD té una sobrecàrrega que rep la Session oberta, de
+     * manera que es poden combinar en un únic commit:
      * 
-     * @param ciutatId ID de la ciutat a cercar
-     * @return Ciutat amb ciutadans carregats, o null si no existeix
+     *   Manager.inTransaction(session -> {
+     *       Ciutat c = Manager.addCiutat(session, "Girona", "Espanya", 103369);
+     *       Manager.updateCiutat(session, c.getCiutatId(), ..., ciutadans);
+     *   });
+     * 
+     * A SQLite això és la diferència entre una sola sincronització del
+     * journal i una per operació.
+     * 
+     * Amb sharding s'indica el shard amb inTransaction(clauShard, work).
+     * Sense clau, 'work' s'executa al shard per defecte i només veu les
+     * dades d'aquest shard (vegeu withUnitOfWork).
+     * 
+     * @param work Operacions a executar amb la sessió oberta
+     * @throws HibernateException Si alguna operació falla (ja s'ha fet rollback)
      */
-    public static Ciutat getCiutatWithCiutadans(Long ciutatId) {
-        try (Session session = factory.openSession()) {
-            // GET: Carrega la ciutat
-            // Els ciutadans es carreguen automàticament per lazy="false"
-            return session.get(Ciutat.class, ciutatId);
-        } catch (Exception e) {
-            e.printStackTrace();
+    public static void inTransaction(Consumer<Session> work) {
+        withUnitOfWork(session -> {
+            work.accept(session);
             return null;
-        }
+        });
     }
 
     /**
-     * Llista totes les entitats d'un tipus determinat.
+     * Com inTransaction, però retornant un resultat.
+     * 
+     * FLUX D'EXECUCIÓ:
+     * 1. Obrir sessió i iniciar transacció
+     * 2. Executar 'work' amb la sessió
+     * 3. Commit si tot OK; rollback i re-llançar l'excepció si hi ha error
+     * 
+     * Les entitats retornades queden DETACHED en tancar la sessió.
+     * 
+     * A diferència dels mètodes CRUD, no es reintenta si falla per bloqueig
+     * optimista: 'work' pot tenir efectes fora de la sessió i l'ha de
+     * reintentar qui el crida (Manager.isOptimisticLockFailure ajuda a decidir-ho).
+     * 
+     * SHARDING: una transacció no pot abastar diversos fitxers. Sense clau
+     * de shard, 'work' s'executa al shard per defecte
+     * (ShardedManager.SHARD_PER_DEFECTE) i NOMÉS en veu les dades: les
+     * consultes no hi troben res dels altres shards, i les ciutats que hi
+     * crea s'hi queden encara que la seva clau sigui d'un altre shard.
+     * Per treballar amb les dades d'una clau: withUnitOfWork(clauShard, work).
+     * 
+     * @param <R> Tipus del resultat
+     * @param work Operacions a executar amb la sessió oberta
+     * @return El valor retornat per 'work'
+     * @throws RuntimeException L'error original, després de fer rollback
+     */
+    public static <R> R withUnitOfWork(Function<Session, R> work) {
+        long inici = ManagerMetrics.start();
+        boolean error = true;
+        try {
+            ShardedManager shards = sharded;
+            R result = shards != null ? shards.withUnitOfWork(work) : submitWrite(work, false);
+            error = false;
+            return result;
+        } finally {
+            ManagerMetrics.record("withUnitOfWork", inici, error);
+        }
+    }
+
+    /**
+     * inTransaction al shard d'una clau (per defecte, el país).
+     * 
+     * Amb sharding una transacció no pot abastar diversos fitxers: 'work'
+     * s'executa al shard de 'clauShard' i només ha de tocar dades d'aquest
+     * shard (les ciutats amb aquesta clau i els seus ciutadans).
+     * Sense sharding la clau s'ignora i és igual que inTransaction(work).
+     * 
+     *   Manager.inTransaction("Espanya", session -> {
+     *       Ciutat c = Manager.addCiutat(session, "Girona", "Espanya", 103369);
+     *       Manager.addCiutada(session, "Anna", "Puig", 30);
+     *   });
+     * 
+     * @param clauShard Valor de la clau de shard de les dades que es toquen
+     * @param work Operacions a executar amb la sessió oberta
+     * @throws RuntimeException L'error original, després de fer rollback
+     */
+    public static void inTransaction(String clauShard, Consumer<Session> work) {
+        withUnitOfWork(clauShard, session -> {
+            work.accept(session);
+            return null;
+        });
+    }
+
+    /**
+     * withUnitOfWork al shard d'una clau (vegeu inTransaction(String, Consumer)).
+     * 
+     * @param <R> Tipus del resultat
+     * @param clauShard Valor de la clau de shard de les dades que es toquen
+     * @param work Operacions a executar amb la sessió oberta
+     * @return El valor retornat per 'work'
+     * @throws RuntimeException L'error original, després de fer rollback
+     */
+    public static <R> R withUnitOfWork(String clauShard, Function<Session, R> work) {
+        ShardedManager shards = sharded;
+        if (shards == null) return withUnitOfWork(work);
+        long inici = ManagerMetrics.start();
+        boolean error = true;
+        try {
+            R result = shards.withUnitOfWork(clauShard, work);
+            error = false;
+            return result;
+        } finally {
+            ManagerMetrics.record("withUnitOfWork", inici, error);
+        }
+    }
+
+    /**
+     * Executa una unitat de treball, amb o sense reintents de bloqueig optimista.
+     * (L'usa també el fil escriptor únic.)
+     */
+    static <R> R runUnitOfWork(Function<Session, R> work, boolean reintentar) {
+        return reintentar ? runWithRetry(factory, work) : runUnitOfWork(factory, work);
+    }
+
+    /**
+     * Nucli de withUnitOfWork (sense mètriques pròpies): sessió, transacció,
+     * commit o rollback. La SessionFactory és un paràmetre perquè amb
+     * sharding cada shard té la seva.
+     */
+    static <R> R runUnitOfWork(SessionFactory factory, Function<Session, R> work) {
+        try (Session session = factory.openSession()) {
+            Transaction tx = session.beginTransaction();
+            try {
+                R result = work.apply(session);
+                tx.commit();
+                return result;
+            } catch (RuntimeException e) {
+                if (tx != null && tx.isActive()) tx.rollback();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Executa una operació d'escriptura en la seva pròpia transacció.
+     * 
+     * Manté el comportament clàssic dels mètodes sense Session: si hi ha
+     * error es fa rollback, es mostra per consola i es retorna 'onError'.
+     * 
+     * MÈTRIQUES: cada crida queda registrada a ManagerMetrics amb el nom
+     * 'operacio' (latència i, si falla, error).
+     */
+    private static <R> R executeWrite(String operacio, Function<Session, R> work, R onError) {
+        long inici = ManagerMetrics.start();
+        boolean error = true;
+        try {
+            R result = submitWrite(work, true);
+            error = false;
+            return result;
+        } catch (PersistenceException e) {
+            // PersistenceException inclou HibernateException i OptimisticLockException
+            System.err.println("Error a " + operacio + ": " + e.getMessage());
+            e.printStackTrace();
+            return onError;
+        } finally {
+            ManagerMetrics.record(operacio, inici, error);
+        }
+    }
+
+    /**
+     * Executa una unitat de treball reintentant-la si falla per bloqueig optimista.
+     * 
+     * BLOQUEIG OPTIMISTA:
+     * Ciutat i Ciutada tenen columna 'versio'. Si dues transaccions modifiquen
+     * la mateixa fila, la segona a fer commit falla (OptimisticLockException)
+     * en lloc de sobreescriure el canvi de la primera.
+     * 
+     * REINTENTS:
+     * - Cada intent és una sessió i transacció noves (rellegeix l'estat actual)
+     * - Com a màxim optimisticRetries reintents
+     * - Espera aleatòria (jitter) entre 0 i 10 ms × 2^intent, fins a 500 ms:
+     *   els escriptors en conflicte no tornen a xocar tots alhora
+     * - Qualsevol altre error es llança de seguida
+     */
+    static <R> R runWithRetry(SessionFactory factory, Function<Session, R> work) {
+        int intent = 0;
+        while (true) {
+            try {
+                return runUnitOfWork(factory, work);
+            } catch (RuntimeException e) {
+                if (!isOptimisticLockFailure(e) || intent >= optimisticRetries) {
+                    throw e;
+                }
+                reintentsOptimistes.increment();
+                long esperaMaxima = Math.min(500, 10L << intent);
+                intent++;
+                try {
+                    Thread.sleep(ThreadLocalRandom.current().nextLong(esperaMaxima + 1));
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Indica si un error (o alguna de les seves causes) és un conflicte de versió.
+     * 
+     * Només compten les causes de Hibernate que indiquen una versió diferent:
+     * StaleStateException (inclou StaleObjectStateException) i
+     * OptimisticEntityLockException. Hibernate també converteix esperes de
+     * bloqueig (SQLITE_BUSY, LockAcquisitionException) en excepcions JPA de
+     * bloqueig; aquestes no són conflictes de versió i no es reintenten.
+     */
+    public static boolean isOptimisticLockFailure(Throwable e) {
+        for (Throwable causa = e; causa != null; causa = causa.getCause()) {
+            if (causa instanceof StaleStateException || causa instanceof OptimisticEntityLockException) {
+                return true;
+            }
+            if (causa.getCause() == causa) break;
+        }
+        return false;
+    }
+
+    /**
+     * Canvia el nombre de reintents per conflictes de versió (0 = cap reintent).
+     * 
+     * @param reintents Reintents a més del primer intent
+     */
+    public static void setOptimisticRetries(int reintents) {
+        if (reintents < 0) {
+            throw new IllegalArgumentException("reintents no pot ser negatiu: " + reintents);
+        }
+        optimisticRetries = reintents;
+    }
+
+    // ═══════════════════════════════════════════════════════════════════
+    // ESCRIPTOR ÚNIC (SQLite)
+    // ═══════════════════════════════════════════════════════════════════
+
+    /**
+     * Activa el mode ESCRIPTOR ÚNIC amb grups de DEFAULT_WRITE_GROUP operacions.
+     */
+    public static void enableSingleWriter() {
+        enableSingleWriter(DEFAULT_WRITE_GROUP);
+    }
+
+    /**
+     * Activa el mode ESCRIPTOR ÚNIC (desactivat per defecte).
+     * 
+     * Totes les escriptures (add*, update*, delete*, inTransaction,
+     * withUnitOfWork i el flush write-behind) passen per un sol fil que
+     * agrupa les operacions pendents en transaccions (vegeu SingleWriter).
+     * Qui crida espera igualment el resultat: l'API no canvia.
+     * Les lectures continuen en paral·lel.
+     * 
+     * Pensat per a SQLite amb molts fils: elimina la competència pel
+     * bloqueig d'escriptura (esperes i SQLITE_BUSY). Amb MySQL normalment
+     * és millor deixar-lo desactivat.
+     * 
+     * ImportadorCens també hi passa: escriu amb addCiutatsBatch / addCiutadansBatch.
+     * 
+     * Amb sharding hi ha un fil escriptor per shard (cada fitxer té el seu
+     * bloqueig d'escriptura) i els shards continuen escrivint en paral·lel.
+     * 
+     * @param maxGrup Operacions màximes per transacció
+     */
+    public static synchronized void enableSingleWriter(int maxGrup) {
+        disableSingleWriter();
+        ShardedManager shards = sharded;
+        if (shards != null) {
+            shards.enableSingleWriter(maxGrup, Duration.ZERO, false);
+        } else {
+            singleWriter = new SingleWriter(factory, maxGrup);
+        }
+        ManagerMetrics.registerGauge("manager_write_queue_depth", Manager::writeQueueDepth);
+    }
+
+    /**
+     * Desactiva el mode escriptor únic, executant abans tot el que hi ha a la cua.
+     */
+    public static synchronized void disableSingleWriter() {
+        ShardedManager shards = sharded;
+        if (shards != null) {
+            shards.disableSingleWriter();
+        }
+        SingleWriter writer = singleWriter;
+        if (writer == null) return;
+        singleWriter = null;
+        writer.close();
+    }
+
+    /**
+     * Activa el GROUP COMMIT amb grups de DEFAULT_WRITE_GROUP operacions.
+     * 
+     * @param finestra Temps màxim que s'espera per omplir un grup
+     */
+    public static void enableGroupCommit(Duration finestra) {
+        enableGroupCommit(finestra, DEFAULT_WRITE_GROUP);
+    }
+
+    /**
+     * Activa el GROUP COMMIT: variant de l'escriptor únic per a moltes
+     * escriptures petites concurrents (per exemple 200 fils fent addCiutada).
+     * 
+     * - El fil escriptor espera fins a 'finestra' (p. ex. 2 ms) per reunir
+     *   més operacions abans de començar el grup: un sol commit per a totes
+     * - Cada qui crida rep el seu resultat quan aquest commit s'ha fet
+     *   (amb AsyncManager, el seu CompletableFuture es completa llavors)
+     * - Cada operació va dins el seu SAVEPOINT: si una falla, es desfà només
+     *   la seva part i qui l'ha demanada rep l'error; les altres no se
+     *   n'assabenten
+     * 
+     * Cost: cada escriptura pot esperar fins a 'finestra' més del compte.
+     * Amb pocs fils convé enableSingleWriter (sense finestra) o res.
+     * 
+     * Es desactiva amb disableSingleWriter().
+     * 
+     * @param finestra Temps màxim que s'espera per omplir un grup
+     * @param maxGrup  Operacions màximes per transacció
+     */
+    public static synchronized void enableGroupCommit(Duration finestra, int maxGrup) {
+        disableSingleWriter();
+        ShardedManager shards = sharded;
+        if (shards != null) {
+            shards.enableSingleWriter(maxGrup, finestra, true);
+        } else {
+            singleWriter = new SingleWriter(factory, maxGrup, finestra, true);
+        }
+        ManagerMetrics.registerGauge("manager_write_queue_depth", Manager::writeQueueDepth);
+    }
+
+    /**
+     * @return true si les escriptures passen pel fil escriptor únic
+     *         (amb sharding, un per shard)
+     */
+    public static boolean isSingleWriterEnabled() {
+        ShardedManager shards = sharded;
+        return singleWriter != null || (shards != null && shards.isSingleWriterEnabled());
+    }
+
+    /**
+     * @return Operacions a la cua de l'escriptor únic (de tots els shards)
+     */
+    private static int writeQueueDepth() {
+        ShardedManager shards = sharded;
+        SingleWriter writer = singleWriter;
+        return (writer == null ? 0 : writer.size()) + (shards == null ? 0 : shards.writeQueueDepth());
+    }
+
+    /**
+     * Executa una escriptura: al fil escriptor si el mode està actiu,
+     * o directament en aquest fil si no.
+     */
+    private static <R> R submitWrite(Function<Session, R> work, boolean reintentar) {
+        SingleWriter writer = singleWriter;
+        if (writer != null && !writer.isWriterThread()) {
+            CompletableFuture<R> pendent = writer.submit(work, reintentar);
+            if (pendent != null) {
+                return esperaResultat(pendent);
+            }
+        }
+        return runUnitOfWork(work, reintentar);
+    }
+
+    /**
+     * Espera el resultat d'una operació del fil escriptor i en re-llança
+     * l'error original (no embolcallat en ExecutionException).
+     * 
+     * Si el fil que espera s'interromp (per exemple un future d'AsyncManager
+     * cancel·lat o expirat), l'operació es cancel·la: si encara era a la cua,
+     * el fil escriptor la descarta sense executar-la.
+     * 
+     * @throws CancellationException Si s'ha interromput l'espera
+     */
+    static <R> R esperaResultat(CompletableFuture<R> pendent) {
+        try {
+            return pendent.get();
+        } catch (InterruptedException e) {
+            pendent.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Escriptura cancel·lada mentre esperava el fil escriptor");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException causa) throw causa;
+            if (e.getCause() instanceof Error causa) throw causa;
+            throw new CompletionException(e.getCause());
+        }
+    }
+
+    /**
+     * Variant de executeWrite per a operacions que no retornen res.
+     */
+    private static void inTransactionOrLog(String operacio, Consumer<Session> work) {
+        executeWrite(operacio, session -> {
+            work.accept(session);
+            return null;
+        }, null);
+    }
+
+    /**
+     * Executa una operació de lectura amb una sessió pròpia (sense transacció).
+     * Si hi ha error, el mostra per consola i retorna 'onError'.
+     * 
+     * SESSIÓ DE NOMÉS LECTURA:
+     * - setDefaultReadOnly(true): les entitats carregades no guarden la còpia
+     *   (snapshot) de l'estat que serveix per al dirty checking, una part
+     *   important de la memòria de cada entitat gestionada
+     * - FlushMode.MANUAL: la sessió no fa mai flush (ni abans de les consultes),
+     *   per tant no recorre el context de persistència buscant canvis
+     * Les entitats retornades queden DETACHED igualment i es poden modificar
+     * i desar després amb updateCiutat/updateCiutada com sempre.
+     */
+    private static <R> R executeRead(String operacio, Function<Session, R> work, R onError) {
+        long inici = ManagerMetrics.start();
+        boolean error = true;
+        try (Session session = openReadOnlySession()) {
+            R result = work.apply(session);
+            error = false;
+            return result;
+        } catch (Exception e) {
+            System.err.println("Error a " + operacio + ": " + e.getMessage());
+            e.printStackTrace();
+            return onError;
+        } finally {
+            ManagerMetrics.record(operacio, inici, error);
+        }
+    }
+
+    /**
+     * Obre una sessió de només lectura (sense snapshots ni flush automàtic).
+     */
+    private static Session openReadOnlySession() {
+        return openReadOnlySession(factory);
+    }
+
+    /**
+     * Sessió de només lectura sobre una SessionFactory concreta (un shard).
+     */
+    static Session openReadOnlySession(SessionFactory factory) {
+        Session session = factory.withOptions()
+            .flushMode(FlushMode.MANUAL)
+            .openSession();
+        session.setDefaultReadOnly(true);
+        return session;
+    }
+
+    // ═══════════════════════════════════════════════════════════════════
+    // CRUD - CREATE (Creació d'entitats)
+    // ═══════════════════════════════════════════════════════════════════
+
+    /**
+     * Crea una nova ciutat a la base de dades.
+     * 
+     * FLUX D'EXECUCIÓ:
+     * 1. Obrir sessió (try-with-resources la tanca automàticament)
+     * 2. Iniciar transacció
+     * 3. Crear objecte i persistir
+     * 4. Commit si tot OK, rollback si hi ha error
+     * 
+     * ESTATS DE L'OBJECTE:
+     * - TRANSIENT: ciutat = new Ciutat(...) → No gestionat per Hibernate
+     * - PERSISTENT: session.persist(ciutat) → Gestionat, canvis segueix
+     * - DETACHED: return ciutat → Sessió tancada, objecte amb ID assignat
+     * 
+     * @param nom Nom de la ciutat (obligatori)
+     * @param pais País on es troba
+     * @param poblacio Nombre d'habitants
+     * @return La ciutat amb l'ID assignat per la BD, o null si hi ha error
+     */
+    public static Ciutat addCiutat(String nom, String pais, Integer poblacio) {
+        ShardedManager shards = sharded;
+        if (shards != null) return shards.addCiutat(nom, pais, poblacio);
+        // executeWrite: obre sessió + transacció, fa commit o rollback i tanca la sessió
+        return executeWrite("addCiutat", session -> addCiutat(session, nom, pais, poblacio), null);
+    }
+
+    /**
+     * Crea una nova ciutat dins d'una sessió ja oberta (Unit of Work).
+     * No fa commit: el fa qui ha obert la transacció.
+     * 
+     * @param session Sessió oberta amb transacció activa
+     * @param nom Nom de la ciutat (obligatori)
+     * @param pais País on es troba
+     * @param poblacio Nombre d'habitants
+     * @return La ciutat en estat PERSISTENT amb l'ID assignat
+     */
+    public static Ciutat addCiutat(Session session, String nom, String pais, Integer poblacio) {
+        // Creem l'objecte ciutat (estat TRANSIENT)
+        Ciutat result = new Ciutat(nom, pais, poblacio);
+        
+        // PERSIST: Guarda l'objecte a la BBDD i li assigna un ID
+        session.persist(result);
+        return result;
+    }
+
+    /**
+     * Crea un nou ciutadà a la base de dades.
+     * 
+     * Funciona exactament igual que addCiutat.
+     * 
+     * @param nom Nom del ciutadà (obligatori)
+     * @param cognom Cognom del ciutadà
+     * @param edat Edat del ciutadà
+     * @return El ciutadà amb l'ID assignat per la BD, o null si hi ha error
+     */
+    public static Ciutada addCiutada(String nom, String cognom, Integer edat) {
+        ShardedManager shards = sharded;
+        if (shards != null) return shards.addCiutada(nom, cognom, edat);
+        return executeWrite("addCiutada", session -> addCiutada(session, nom, cognom, edat), null);
+    }
+
+    /**
+     * Crea un nou ciutadà dins d'una sessió ja oberta (Unit of Work).
+     * 
+     * @param session Sessió oberta amb transacció activa
+     * @param nom Nom del ciutadà (obligatori)
+     * @param cognom Cognom del ciutadà
+     * @param edat Edat del ciutadà
+     * @return El ciutadà en estat PERSISTENT amb l'ID assignat
+     */
+    public static Ciutada addCiutada(Session session, String nom, String cognom, Integer edat) {
+        Ciutada result = new Ciutada(nom, cognom, edat);
+        session.persist(result);
+        return result;
+    }
+
+    // ═══════════════════════════════════════════════════════════════════
+    // CREATE MASSIU (Inserció per lots)
+    // ═══════════════════════════════════════════════════════════════════
+
+    /**
+     * Insereix moltes ciutats reutilitzant una sola sessió.
+     * 
+     * DIFERÈNCIA AMB addCiutat:
+     * - addCiutat: una sessió + una transacció + un commit PER FILA
+     * - addCiutatsBatch: una sessió i un commit cada 'batchSize' files
+     * 
+     * Dins de cada lot Hibernate agrupa els INSERT en un sol batch JDBC
+     * (hibernate.jdbc.batch_size) i, després de cada commit, buida la
+     * sessió (flush + clear) perquè la memòria no creixi amb el nombre de files.
+     * 
+     * @param ciutats Ciutats noves (estat TRANSIENT) a inserir
+     * @param batchSize Nombre de files per lot i per transacció
+     * @return IDs generats, en el mateix ordre que l'entrada (només dels lots confirmats)
+     */
+    public static List<Long> addCiutatsBatch(Iterable<Ciutat> ciutats, int batchSize) {
+        ShardedManager shards = sharded;
+        if (shards != null) return shards.addCiutatsBatch(ciutats, batchSize);
+        return persistBatch(Ciutat.class, ciutats.iterator(), batchSize, Ciutat::getCiutatId);
+    }
+
+    /**
+     * Igual que addCiutatsBatch(Iterable, int) però consumint un Stream.
+     * El Stream es tanca en acabar.
+     * 
+     * @param ciutats Stream de ciutats noves
+     * @param batchSize Nombre de files per lot i per transacció
+     * @return IDs generats, en el mateix ordre que l'entrada
+     */
+    public static List<Long> addCiutatsBatch(Stream<Ciutat> ciutats, int batchSize) {
+        try (ciutats) {
+            ShardedManager shards = sharded;
+            if (shards != null) return shards.addCiutatsBatch(ciutats::iterator, batchSize);
+            return persistBatch(Ciutat.class, ciutats.iterator(), batchSize, Ciutat::getCiutatId);
+        }
+    }
+
+    /**
+     * Insereix molts ciutadans reutilitzant una sola sessió.
+     * 
+     * Si un ciutadà ja té assignada una ciutat (amb ID), la clau forana
+     * ciutat_id s'escriu directament a l'INSERT. N'hi ha prou amb una Ciutat
+     * que només porti l'ID (vegeu referenciaCiutat).
+     * 
+     * @param ciutadans Ciutadans nous (estat TRANSIENT) a inserir
+     * @param batchSize Nombre de files per lot i per transacció
+     * @return IDs generats, en el mateix ordre que l'entrada (només dels lots confirmats)
+     */
+    public static List<Long> addCiutadansBatch(Iterable<Ciutada> ciutadans, int batchSize) {
+        ShardedManager shards = sharded;
+        if (shards != null) return shards.addCiutadansBatch(ciutadans, batchSize);
+        return persistBatch(Ciutada.class, ciutadans.iterator(), batchSize, Ciutada::getCiutadaId);
+    }
+
+    /**
+     * Igual que addCiutadansBatch(Iterable, int) però consumint un Stream.
+     * El Stream es tanca en acabar.
+     * 
+     * @param ciutadans Stream de ciutadans nous
+     * @param batchSize Nombre de files per lot i per transacció
+     * @return IDs generats, en el mateix ordre que l'entrada
+     */
+    public static List<Long> addCiutadansBatch(Stream<Ciutada> ciutadans, int batchSize) {
+        try (ciutadans) {
+            ShardedManager shards = sharded;
+            if (shards != null) return shards.addCiutadansBatch(ciutadans::iterator, batchSize);
+            return persistBatch(Ciutada.class, ciutadans.iterator(), batchSize, Ciutada::getCiutadaId);
+        }
+    }
+
+    /**
+     * Nucli comú de les insercions per lots.
+     * 
+     * FLUX D'EXECUCIÓ:
+     * 1. Obrir UNA sessió i fixar la mida del batch JDBC
+     * 2. persist() de cada element (els INSERT queden pendents al batch)
+     * 3. Cada 'batchSize' elements: flush + commit + clear i nova transacció
+     * 4. Commit final de l'últim lot parcial
+     * 
+     * Si un lot falla, es fa rollback només d'aquest lot: els anteriors
+     * ja estan confirmats i els seus IDs es retornen igualment.
+     * 
+     * Les files confirmades es sumen a ManagerMetrics (recordRows amb
+     * "persistBatch(Classe)"): amb la latència de l'operació en surt el
+     * rendiment (files/s) per comparar-lo amb addCiutat / addCiutada.
+     */
+    private static <T> List<Long> persistBatch(Class<T> clazz, Iterator<? extends T> items, int batchSize, Function<T, Long> idGetter) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize ha de ser positiu: " + batchSize);
+        }
+        // Amb escriptor únic, tot el lot s'executa al fil escriptor (sense agrupar-lo)
+        SingleWriter writer = singleWriter;
+        if (writer != null && !writer.isWriterThread()) {
+            CompletableFuture<List<Long>> pendent = writer.submitExclusive(() -> persistBatch(clazz, items, batchSize, idGetter));
+            if (pendent != null) {
+                return esperaResultat(pendent);
+            }
+        }
+        List<Long> result = new ArrayList<>();
+        List<Long> lotActual = new ArrayList<>(batchSize);
+        long iniciMetrica = ManagerMetrics.start();
+        boolean error = false;
+        
+        try (Session session = factory.openSession()) {
+            // Mida del batch JDBC per a aquesta sessió (sobreescriu hibernate.jdbc.batch_size)
+            session.setJdbcBatchSize(batchSize);
+            Transaction tx = session.beginTransaction();
+            try {
+                while (items.hasNext()) {
+                    T item = items.next();
+                    referenciaCiutat(session, item);
+                    session.persist(item);
+                    lotActual.add(idGetter.apply(item));
+                    
+                    if (lotActual.size() == batchSize) {
+                        // FLUSH: envia el batch d'INSERTs; COMMIT: confirma el lot
+                        session.flush();
+                        tx.commit();
+                        // CLEAR: allibera les entitats del context de persistència
+                        session.clear();
+                        result.addAll(lotActual);
+                        lotActual.clear();
+                        tx = session.beginTransaction();
+                    }
+                }
+                tx.commit();
+                result.addAll(lotActual);
+            } catch (HibernateException e) {
+                if (tx != null && tx.isActive()) tx.rollback();
+                System.err.println("Error inserint lot de " + clazz.getSimpleName() + ": " + e.getMessage());
+                e.printStackTrace();
+                error = true;
+            }
+        }
+        String operacio = "persistBatch(" + clazz.getSimpleName() + ")";
+        ManagerMetrics.record(operacio, iniciMetrica, error);
+        ManagerMetrics.recordRows(operacio, result.size());
+        return result;
+    }
+
+    /**
+     * Un ciutadà nou pot portar una Ciutat que només té l'ID (sense versió,
+     * per exemple la que construeix ImportadorCens a partir de la clau
+     * natural). Hibernate la prendria per TRANSIENT; es substitueix per una
+     * referència de la sessió (sense SELECT), que només aporta l'ID a ciutat_id.
+     */
+    static void referenciaCiutat(Session session, Object item) {
+        if (item instanceof Ciutada ciutada) {
+            Ciutat ciutat = ciutada.getCiutat();
+            if (ciutat != null && ciutat.getCiutatId() != null && ciutat.getVersio() == null) {
+                ciutada.setCiutat(session.getReference(Ciutat.class, ciutat.getCiutatId()));
+            }
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════════════════
+    // CRUD - UPDATE (Actualització d'entitats)
+    // ═══════════════════════════════════════════════════════════════════
+
+    /**
+     * Activa el mode WRITE-BEHIND de updateCiutada (desactivat per defecte).
+     * 
+     * Amb el mode actiu, updateCiutada(ciutadaId, ...) no toca la BBDD:
+     * desa l'últim valor de cada ciutadà en memòria i retorna de seguida.
+     * Els canvis s'escriuen agrupats (vegeu WriteBehindBuffer) cada
+     * 'interval' o quan hi ha 'maxPendents' ciutadans pendents.
+     * 
+     * GARANTIES:
+     * - Manager.close(), disableWriteBehind() i flushWriteBehind() escriuen
+     *   tots els canvis pendents abans de retornar
+     * - Si el procés mor sense passar per close() (caiguda, kill -9, error
+     *   del SO) es PERDEN els canvis acceptats des de l'últim flush correcte:
+     *   com a màxim 'interval' de temps i, normalment, menys de 'maxPendents'
+     *   ciutadans (fins a 4 × maxPendents si la BBDD no dona l'abast)
+     * - Si falla la transacció d'un lot, els canvis es reintenten d'un en
+     *   un; el que encara falla es reintenta als flushos següents i, passats
+     *   WriteBehindBuffer.MAX_INTENTS, es descarta i es comptabilitza (en
+     *   tancar es mostra per consola quants canvis s'han perdut)
+     * - Un updateCiutada que coincideix amb disableWriteBehind() o close()
+     *   no es perd: s'escriu directament
+     * - Les lectures (listCollection, getCiutatWithCiutadans...) no veuen els
+     *   canvis fins que s'han escrit
+     * - Només afecta updateCiutada sense Session; no barregeu-lo amb
+     *   updateCiutada(session, ...) sobre els mateixos ciutadans, perquè un
+     *   valor del buffer escrit més tard sobreescriuria el de la transacció
+     * 
+     * La profunditat del buffer es publica com a mètrica
+     * (manager_write_behind_depth i l'atribut JMX WriteBehindDepth).
+     * 
+     * @param maxPendents Ciutadans pendents que disparen un flush
+     * @param interval Temps màxim que un canvi pot esperar en memòria
+     */
+    public static synchronized void enableWriteBehind(int maxPendents, Duration interval) {
+        if (writeBehind != null) {
+            disableWriteBehind();
+        }
+        writeBehind = new WriteBehindBuffer(maxPendents, interval);
+        ManagerMetrics.registerGauge("manager_write_behind_depth", Manager::writeBehindDepth);
+    }
+
+    /**
+     * Desactiva el mode write-behind escrivint abans tots els canvis pendents.
+     * No fa res si el mode no està actiu.
+     */
+    public static synchronized void disableWriteBehind() {
+        WriteBehindBuffer buffer = writeBehind;
+        if (buffer == null) return;
+        writeBehind = null;
+        int perduts = buffer.close();
+        if (perduts > 0) {
+            System.err.println("Write-behind: " + perduts + " canvis de ciutadans no s'han pogut escriure");
+        }
+    }
+
+    /**
+     * Escriu ara mateix els canvis write-behind pendents.
+     * 
+     * @return Ciutadans escrits (0 si el mode no està actiu)
+     */
+    public static int flushWriteBehind() {
+        WriteBehindBuffer buffer = writeBehind;
+        return buffer == null ? 0 : buffer.flush();
+    }
+
+    /**
+     * @return Ciutadans amb canvis pendents al buffer write-behind
+     */
+    public static int writeBehindDepth() {
+        WriteBehindBuffer buffer = writeBehind;
+        return buffer == null ? 0 : buffer.size();
+    }
+
+    /**
+     * Aplica un lot de canvis del buffer write-behind en UNA transacció.
+     * 
+     * multiLoad carrega tots els ciutadans amb pocs SELECT ... IN (...) i el
+     * dirty checking genera els UPDATE, que viatgen en batches JDBC.
+     * Els ciutadans esborrats mentrestant s'ignoren.
+     * 
+     * @param canvis ciutadaId → últim valor
+     * @throws RuntimeException Si la transacció falla (ja s'ha fet rollback)
+     */
+    static void applyCiutadaUpdates(Map<Long, WriteBehindBuffer.Canvi> canvis) {
+        long inici = ManagerMetrics.start();
+        boolean error = true;
+        try {
+            ShardedManager shards = sharded;
+            if (shards != null) {
+                shards.applyCiutadaUpdates(canvis);
+            } else {
+                submitWrite(session -> {
+                    applyCiutadaUpdates(session, canvis);
+                    return null;
+                }, true);
+            }
+            error = false;
+        } finally {
+            ManagerMetrics.record("writeBehindFlush", inici, error);
+        }
+    }
+
+    /**
+     * Aplica canvis write-behind dins d'una sessió ja oberta.
+     * Els ciutadans que no hi són (esborrats, o d'un altre shard) s'ignoren.
+     */
+    static void applyCiutadaUpdates(Session session, Map<Long, WriteBehindBuffer.Canvi> canvis) {
+        List<Ciutada> ciutadans = session.byMultipleIds(Ciutada.class).multiLoad(new ArrayList<>(canvis.keySet()));
+        for (Ciutada ciutada : ciutadans) {
+            if (ciutada == null) continue;
+            WriteBehindBuffer.Canvi canvi = canvis.get(ciutada.getCiutadaId());
+            ciutada.setNom(canvi.nom());
+            ciutada.setCognom(canvi.cognom());
+            ciutada.setEdat(canvi.edat());
+        }
+    }
+
+    /**
+     * Actualitza un ciutadà existent.
+     * 
+     * FUNCIONAMENT:
+     * 1. session.get() carrega el ciutadà (estat MANAGED)
+     * 2. Modificar les propietats (dirty checking automàtic)
+     * 3. session.merge() sincronitza canvis (opcional, ja està MANAGED)
+     * 4. tx.commit() executa l'UPDATE real
+     * 
+     * DIRTY CHECKING:
+     * Hibernate detecta automàticament els canvis en objectes MANAGED.
+     * No cal cridar update() o merge() explícitament, però ho fem per claredat.
+     * 
+     * WRITE-BEHIND:
+     * Si s'ha cridat enableWriteBehind, el canvi només es desa al buffer
+     * i s'escriu més tard agrupat amb altres (vegeu enableWriteBehind).
+     * 
+     * @param ciutadaId ID del ciutadà a actualitzar
+     * @param nom Nou nom
+     * @param cognom Nou cognom
+     * @param edat Nova edat
+     */
+    public static void updateCiutada(Long ciutadaId, String nom, String cognom, Integer edat) {
+        WriteBehindBuffer buffer = writeBehind;
+        if (buffer != null) {
+            buffer.put(ciutadaId, new WriteBehindBuffer.Canvi(nom, cognom, edat));
+            return;
+        }
+        ShardedManager shards = sharded;
+        if (shards != null) {
+            shards.updateCiutada(ciutadaId, nom, cognom, edat);
+            return;
+        }
+        inTransactionOrLog("updateCiutada", session -> updateCiutada(session, ciutadaId, nom, cognom, edat));
+    }
+
+    /**
+     * Actualitza un ciutadà dins d'una sessió ja oberta (Unit of Work).
+     * 
+     * @param session Sessió oberta amb transacció activa
+     * @param ciutadaId ID del ciutadà a actualitzar
+     * @param nom Nou nom
+     * @param cognom Nou cognom
+     * @param edat Nova edat
+     */
+    public static void updateCiutada(Session session, Long ciutadaId, String nom, String cognom, Integer edat) {
+        // GET: Recupera l'entitat per ID. Retorna null si no existeix.
+        Ciutada ciutada = session.get(Ciutada.class, ciutadaId);
+        
+        if (ciutada != null) {
+            // Actualitzem les propietats (dirty checking automàtic)
+            ciutada.setNom(nom);
+            ciutada.setCognom(cognom);
+            ciutada.setEdat(edat);
+            
+            // MERGE: Sincronitza l'estat de l'objecte amb la BBDD
+            session.merge(ciutada);
+        }
+    }
+
+    /**
+     * Actualitza una ciutat existent amb els seus ciutadans.
+     * 
+     * GESTIÓ DE RELACIONS BIDIRECCIONALS (SET-BASED):
+     * La relació la controla la columna ciutadans.ciutat_id (banda propietària).
+     * En lloc de carregar cada ciutadà i modificar la col·lecció en Java,
+     * es calcula la diferència d'IDs i s'aplica amb UPDATEs massius.
+     * 
+     * PROCESSOS:
+     * 1. Carregar la ciutat existent (només la fila, la col·lecció és lazy)
+     * 2. Actualitzar propietats bàsiques (nom, pais, poblacio)
+     * 3. Gestionar ciutadans:
+     *    a) Els ciutadans nous (sense ID) es persisteixen amb la ciutat assignada
+     *    b) Un SELECT dels IDs actuals de la ciutat
+     *    c) UPDATE ciutadans SET ciutat_id = NULL WHERE ciutada_id IN (...) per als que surten
+     *    d) UPDATE ciutadans SET ciutat_id = ? WHERE ciutada_id IN (...) per als que entren
+     *       (en blocs de IN_CHUNK_SIZE IDs pel límit de paràmetres)
+     * 4. Fer commit dels canvis
+     * 
+     * Els nous es persisteixen ABANS de cap UPDATE massiu: el persist pot
+     * haver de demanar un bloc d'IDs nou, i a SQLite això no pot esperar
+     * darrere del bloqueig d'escriptura que ja tindria aquesta transacció.
+     * 
+     * Els ciutadans d'entrada poden estar DETACHED: només se'n fa servir l'ID.
+     * Els IDs inexistents s'ignoren.
+     * 
+     * IMPORTANT: Dins d'una Unit of Work, les entitats Ciutada i la col·lecció
+     * ciutadans ja carregades a la mateixa sessió no reflecteixen els UPDATEs.
+     * 
+     * @param ciutatId ID de la ciutat a actualitzar
+     * @param nom Nou nom de la ciutat
+     * @param pais Nou país
+     * @param poblacio Nova població
+     * @param ciutadans Nou conjunt de ciutadans (pot ser null per eliminar tots)
+     */
+    public static void updateCiutat(Long ciutatId, String nom, String pais, Integer poblacio, Set<Ciutada> ciutadans) {
+        ShardedManager shards = sharded;
+        if (shards != null) {
+            shards.updateCiutat(ciutatId, nom, pais, poblacio, ciutadans);
+            return;
+        }
+        inTransactionOrLog("updateCiutat", session -> updateCiutat(session, ciutatId, nom, pais, poblacio, ciutadans));
+    }
+
+    /**
+     * Actualitza una ciutat i els seus ciutadans dins d'una sessió ja oberta
+     * (Unit of Work). Veure updateCiutat(Long, ...) per als detalls.
+     * 
+     * @param session Sessió oberta amb transacció activa
+     * @param ciutatId ID de la ciutat a actualitzar
+     * @param nom Nou nom de la ciutat
+     * @param pais Nou país
+     * @param poblacio Nova població
+     * @param ciutadans Nou conjunt de ciutadans (pot ser null per eliminar tots)
+     */
+    public static void updateCiutat(Session session, Long ciutatId, String nom, String pais, Integer poblacio, Set<Ciutada> ciutadans) {
+        // Carreguem la ciutat per ID (la col·lecció ciutadans és lazy i no es carrega)
+        Ciutat ciutat = session.get(Ciutat.class, ciutatId);
+        
+        if (ciutat == null) {
+            System.err.println("Ciutat no trobada amb id: " + ciutatId);
+            return;
+        }
+        
+        // BLOQUEIG OPTIMISTA: la versió de la ciutat s'incrementa sempre, encara
+        // que només canviïn els ciutadans. Així dos updateCiutat concurrents de
+        // la mateixa ciutat no es trepitgen: el segon commit falla i es reintenta.
+        // Si canvia alguna propietat, l'UPDATE del dirty checking ja puja la
+        // versió; forçar-la també la pujaria dues vegades (i un UPDATE de més)
+        boolean canvia = !Objects.equals(ciutat.getNom(), nom)
+            || !Objects.equals(ciutat.getPais(), pais)
+            || !Objects.equals(ciutat.getPoblacio(), poblacio);
+        if (!canvia) {
+            session.lock(ciutat, LockMode.OPTIMISTIC_FORCE_INCREMENT);
+        }
+        
+        // Actualitzem les propietats bàsiques (dirty checking)
+        ciutat.setNom(nom);
+        ciutat.setPais(pais);
+        ciutat.setPoblacio(poblacio);
+        
+        if (ciutadans == null) {
+            // Si ciutadans és null, desvinculem tots els ciutadans de la ciutat
+            session.createMutationQuery("UPDATE VERSIONED Ciutada e SET e.ciutat = null WHERE e.ciutat = :ciutat")
+                .setParameter("ciutat", ciutat)
+                .executeUpdate();
+            return;
+        }
+        
+        // ───────────────────────────────────────────────────────
+        // PAS 1: Ciutadans nous sense ID: INSERT amb ciutat_id ja assignat
+        // ───────────────────────────────────────────────────────
+        
+        Set<Long> desitjats = new HashSet<>();
+        for (Ciutada ciutadaInput : ciutadans) {
+            if (ciutadaInput.getCiutadaId() == null) {
+                // No usem ciutat.addCiutada(): inicialitzaria la col·lecció lazy sencera
+                ciutadaInput.setCiutat(ciutat);
+                session.persist(ciutadaInput);
+            }
+            // Després del persist els nous ja tenen ID i també són desitjats
+            desitjats.add(ciutadaInput.getCiutadaId());
+        }
+        
+        // ───────────────────────────────────────────────────────
+        // PAS 2: Diferència entre els IDs actuals i els desitjats
+        // ───────────────────────────────────────────────────────
+        
+        // Un sol SELECT que només porta IDs (cap entitat a memòria)
+        Set<Long> actuals = new HashSet<>(session
+            .createQuery("SELECT e.ciutadaId FROM Ciutada e WHERE e.ciutat = :ciutat", Long.class)
+            .setParameter("ciutat", ciutat)
+            .list());
+        
+        Set<Long> surten = new HashSet<>(actuals);
+        surten.removeAll(desitjats);
+        Set<Long> entren = new HashSet<>(desitjats);
+        entren.removeAll(actuals);
+        
+        // ───────────────────────────────────────────────────────
+        // PAS 3: Desvincular els que ja no hi són
+        // ───────────────────────────────────────────────────────
+        
+        for (List<Long> bloc : chunks(surten, IN_CHUNK_SIZE)) {
+            session.createMutationQuery("UPDATE VERSIONED Ciutada e SET e.ciutat = null WHERE e.ciutadaId IN (:ids)")
+                .setParameterList("ids", bloc)
+                .executeUpdate();
+        }
+        
+        // ───────────────────────────────────────────────────────
+        // PAS 4: Vincular els que entren (inclou moure'ls d'una altra ciutat)
+        // ───────────────────────────────────────────────────────
+        
+        for (List<Long> bloc : chunks(entren, IN_CHUNK_SIZE)) {
+            session.createMutationQuery("UPDATE VERSIONED Ciutada e SET e.ciutat = :ciutat WHERE e.ciutadaId IN (:ids)")
+                .setParameter("ciutat", ciutat)
+                .setParameterList("ids", bloc)
+                .executeUpdate();
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════════════════
+    // UPDATE MASSIU (sense carregar entitats)
+    // ═══════════════════════════════════════════════════════════════════
+
+    /**
+     * Actualitza tots els ciutadans que compleixen una condició amb UNA sola
+     * sentència UPDATE, sense carregar cap entitat a memòria.
+     * 
+     * DIFERÈNCIA AMB updateCiutada:
+     * - updateCiutada: SELECT + canvis + UPDATE per a cada ciutadà
+     * - updateCiutadansWhere: UPDATE ciutadans SET ... WHERE ... (un sol viatge)
+     * 
+     * Les expressions són HQL sobre l'àlies 'e' (el ciutadà):
+     * 
+     *   // Tothom fa un any més
+     *   Manager.updateCiutadansWhere("e.edat = e.edat + 1", null, Map.of());
+     * 
+     *   // Correcció de cognom a una ciutat
+     *   Manager.updateCiutadansWhere("e.cognom = :nou",
+     *       "e.cognom = :vell AND e.ciutat.ciutatId = :ciutat",
+     *       Map.of("nou", "Garcia", "vell", "García", "ciutat", 3L));
+     * 
+     * CACHE:
+     * Hibernate invalida automàticament les regions de cache de segon nivell
+     * de les taules afectades (Ciutada i col·lecció ciutadans) i les consultes
+     * cachejades que en depenen.
+     * 
+     * IMPORTANT: Les entitats ja carregades en una sessió oberta NO
+     * reflecteixen el canvi (l'UPDATE no passa pel context de persistència).
+     * 
+     * @param setClause Assignacions HQL (obligatori), p.ex. "e.edat = e.edat + 1"
+     * @param whereClause Condició HQL (null o buit = tots els ciutadans)
+     * @param params Paràmetres amb nom de les expressions (col·leccions per IN)
+     * @return Nombre de files actualitzades, o -1 si hi ha error
+     */
+    public static int updateCiutadansWhere(String setClause, String whereClause, Map<String, ?> params) {
+        ShardedManager shards = sharded;
+        if (shards != null) return shards.updateCiutadansWhere(setClause, whereClause, params);
+        return executeWrite("updateCiutadansWhere",
+            session -> updateCiutadansWhere(session, setClause, whereClause, params), -1);
+    }
+
+    /**
+     * Actualització massiva de ciutadans dins d'una sessió ja oberta (Unit of Work).
+     * 
+     * @param session Sessió oberta amb transacció activa
+     * @param setClause Assignacions HQL sobre l'àlies 'e'
+     * @param whereClause Condició HQL sobre l'àlies 'e' (null o buit = tots)
+     * @param params Paràmetres amb nom
+     * @return Nombre de files actualitzades
+     */
+    public static int updateCiutadansWhere(Session session, String setClause, String whereClause, Map<String, ?> params) {
+        if (setClause == null || setClause.isBlank()) {
+            throw new IllegalArgumentException("Cal indicar què s'actualitza (setClause)");
+        }
+        String hql = "UPDATE VERSIONED Ciutada e SET " + setClause + whereSuffix(whereClause);
+        
+        var query = session.createMutationQuery(hql);
+        bindParameters(query, params);
+        return query.executeUpdate();
+    }
+
+    // ═══════════════════════════════════════════════════════════════════
+    // CRUD - READ (Lectura d'entitats)
+    // ═══════════════════════════════════════════════════════════════════
+
+    /**
+     * Obté una ciutat amb els seus ciutadans.
+     * 
+     * AMB LAZY LOADING:
+     * La relació ciutadans és lazy al XML, per tant cal inicialitzar-la
+     * (Hibernate.initialize) abans de tancar la sessió.
+     * Màxim dues sentències: la ciutat i els seus ciutadans
+     * (zero si tot és a la cache de segon nivell).
+     * 
+     * @param ciutatId ID de la ciutat a cercar
+     * @return Ciutat amb ciutadans carregats, o null si no existeix
+     */
+    public static Ciutat getCiutatWithCiutadans(Long ciutatId) {
+        ShardedManager shards = sharded;
+        if (shards != null) return shards.getCiutatWithCiutadans(ciutatId);
+        return executeRead("getCiutatWithCiutadans", session -> getCiutatWithCiutadans(session, ciutatId), null);
+    }
+
+    /**
+     * Obté una ciutat amb els seus ciutadans dins d'una sessió ja oberta.
+     * La ciutat retornada està MANAGED per aquesta sessió.
+     * 
+     * @param session Sessió oberta
+     * @param ciutatId ID de la ciutat a cercar
+     * @return Ciutat amb ciutadans carregats, o null si no existeix
+     */
+    public static Ciutat getCiutatWithCiutadans(Session session, Long ciutatId) {
+        // GET: Carrega la ciutat (o la treu de la cache de segon nivell)
+        Ciutat ciutat = session.get(Ciutat.class, ciutatId);
+        
+        // INITIALIZE: Carrega la col·lecció lazy amb un sol SELECT
+        if (ciutat != null) {
+            Hibernate.initialize(ciutat.getCiutadans());
+        }
+        return ciutat;
+    }
+
+    /**
+     * Cerca l'ID d'una ciutat per la seva clau natural (nom, pais).
+     * Fa servir l'índex idx_ciutats_nom_pais; amb sharding es consulta a tots els shards.
+     * 
+     * @param nom Nom de la ciutat
+     * @param pais País (null = ciutat sense país)
+     * @return ID de la primera ciutat trobada, o null si no n'hi ha cap
+     */
+    static Long findCiutatId(String nom, String pais) {
+        ShardedManager shards = sharded;
+        if (shards != null) return shards.findCiutatId(nom, pais);
+        return executeRead("findCiutatId", session -> findCiutatId(session, nom, pais), null);
+    }
+
+    static Long findCiutatId(Session session, String nom, String pais) {
+        String hql = "SELECT c.ciutatId FROM Ciutat c WHERE c.nom = :nom AND "
+            + (pais == null ? "c.pais IS NULL" : "c.pais = :pais");
+        var query = session.createQuery(hql, Long.class)
+            .setParameter("nom", nom)
+            .setMaxResults(1);
+        if (pais != null) query.setParameter("pais", pais);
+        return query.uniqueResult();
+    }
+
+    /**
+     * Llista totes les entitats d'un tipus determinat.
      * 
      * MÈTODE GENÈRIC:
      * Funciona amb qualsevol classe Entity gràcies al paràmetre genèric <T>.
      * 
-     * HQL (Hibernate Query Language):
-     * - SQL: SELECT * FROM ciutats
-     * - HQL: FROM Ciutat
+     * HQL (Hibernate Query Language):
+     * - SQL: SELECT * FROM ciutats
+     * - HQL: FROM Ciutat
+     * 
+     * DIFERÈNCIES HQL vs SQL:
+     * - HQL usa noms de classes Java, no noms de taules
+     * - HQL usa noms de propietats Java, no noms de columnes
+     * - HQL és case-sensitive per als noms de classe
+     * 
+     * AMB LAZY LOADING:
+     * Les col·leccions (Ciutat.ciutadans) NO es carreguen: el llistat
+     * només llegeix la taula demanada. Per obtenir ciutats amb ciutadans
+     * cal usar findAllCiutatsWithCiutadans.
+     * 
+     * NOMÉS LECTURA:
+     * La consulta s'executa en una sessió read-only (vegeu executeRead):
+     * Hibernate no guarda snapshots de les entitats ni fa dirty checking.
+     * Per a taules molt grans, listCollectionStateless evita fins i tot
+     * el context de persistència.
+     * 
+     * @param <T> Tipus genèric de l'entitat
+     * @param clazz Classe de l'entitat a llistar
+     * @param orderBy Camp pel qual ordenar (opcional, pot ser null o buit)
+     * @return Col·lecció amb totes les entitats del tipus especificat
+     */
+    public static <T> Collection<T> listCollection(Class<T> clazz, String orderBy) {
+        ShardedManager shards = sharded;
+        if (shards != null) return shards.listCollection(clazz, orderBy);
+        return executeRead("listCollection", session -> listCollection(session, clazz, orderBy), Collections.emptyList());
+    }
+
+    /**
+     * Llista totes les entitats d'un tipus dins d'una sessió ja oberta.
+     * 
+     * @param <T> Tipus genèric de l'entitat
+     * @param session Sessió oberta
+     * @param clazz Classe de l'entitat a llistar
+     * @param orderBy Camp pel qual ordenar (opcional, pot ser null o buit)
+     * @return Llista amb totes les entitats del tipus especificat
+     */
+    public static <T> List<T> listCollection(Session session, Class<T> clazz, String orderBy) {
+        // Construïm la consulta HQL
+        String hql = "FROM " + clazz.getSimpleName();
+        
+        // Si s'especifica un camp d'ordenació, l'afegim
+        if (orderBy != null && !orderBy.isEmpty()) {
+            hql += " ORDER BY " + orderBy;
+        }
+        
+        // Executem la query i obtenim els resultats
+        // CACHEABLE: si hibernate.cache.use_query_cache=true, els IDs del resultat
+        // es guarden a la cache i s'invaliden quan s'escriu a la taula
+        return session.createQuery(hql, clazz)
+            .setCacheable(true)
+            .list();
+    }
+
+    /**
+     * Llista totes les entitats d'un tipus amb una StatelessSession.
+     * 
+     * DIFERÈNCIA AMB listCollection:
+     * - Sense context de persistència: cap mapa d'identitat ni snapshots,
+     *   només la llista d'objectes resultant
+     * - No usa la cache de segon nivell ni la de consultes
+     * - Les col·leccions lazy (Ciutat.ciutadans) no es poden inicialitzar
+     * 
+     * És l'opció més barata per llistar centenars de milers de files que
+     * només es mostren o s'exporten. Si no cal tenir-les totes en memòria
+     * alhora, millor stream().
+     * 
+     * @param <T> Tipus genèric de l'entitat
+     * @param clazz Classe de l'entitat a llistar
+     * @param orderBy Camp pel qual ordenar (opcional, pot ser null o buit)
+     * @return Llista amb totes les entitats (DETACHED)
+     */
+    public static <T> List<T> listCollectionStateless(Class<T> clazz, String orderBy) {
+        ShardedManager shards = sharded;
+        if (shards != null) return shards.listCollectionStateless(clazz, orderBy);
+        String hql = "FROM " + clazz.getSimpleName();
+        if (orderBy != null && !orderBy.isEmpty()) {
+            hql += " ORDER BY " + orderBy;
+        }
+        
+        long inici = ManagerMetrics.start();
+        boolean error = true;
+        try (StatelessSession session = factory.openStatelessSession()) {
+            List<T> result = session.createQuery(hql, clazz)
+                .setReadOnly(true)
+                .list();
+            error = false;
+            return result;
+        } catch (Exception e) {
+            System.err.println("Error a listCollectionStateless: " + e.getMessage());
+            e.printStackTrace();
+            return Collections.emptyList();
+        } finally {
+            ManagerMetrics.record("listCollectionStateless", inici, error);
+        }
+    }
+
+    /**
+     * Llista una pàgina d'entitats amb paginació per clau (keyset / seek).
+     * 
+     * PER QUÈ NO OFFSET?
+     * - OFFSET 100000 obliga la BBDD a llegir i descartar 100000 files
+     * - Keyset filtra per "després de l'últim element vist" i usa l'índex:
+     *     WHERE e.nom > :lastValue OR (e.nom = :lastValue AND e.id > :lastId)
+     *     ORDER BY e.nom, e.id
+     *   La pàgina N costa el mateix que la pàgina 1
+     * 
+     * RESTRICCIONS:
+     * - Ordre sempre ascendent
+     * - orderBy ha de ser una propietat simple NOT NULL (o l'ID):
+     *   amb NULLs la comparació "> :lastValue" perdria files
+     * 
+     * Amb sharding cada shard retorna la seva pàgina des del mateix cursor
+     * i es fusionen (vegeu ShardedManager.listPage): el cursor continua
+     * sent (valor, ID), perquè els IDs són únics entre shards.
+     * 
+     * ÚS:
+     *   Page.Cursor cursor = null;
+     *   do {
+     *       Page<Ciutada> page = Manager.listPage(Ciutada.class, "nom", cursor, 100);
+     *       ...page.items()...
+     *       cursor = page.next();
+     *   } while (cursor != null);
+     * 
+     * @param <T> Tipus genèric de l'entitat
+     * @param clazz Classe de l'entitat a llistar
+     * @param orderBy Propietat d'ordenació (null o buit = clau primària)
+     * @param after Cursor de la pàgina anterior (null per a la primera pàgina)
+     * @param pageSize Nombre màxim d'elements per pàgina
+     * @return Pàgina amb els elements i el cursor de la següent
+     * @throws IllegalArgumentException Si orderBy no és vàlid o no coincideix amb el cursor
+     */
+    public static <T> Page<T> listPage(Class<T> clazz, String orderBy, Page.Cursor after, int pageSize) {
+        String ordre = ordreKeyset(persister(clazz), orderBy, after, pageSize);
+        ShardedManager shards = sharded;
+        if (shards != null) return shards.listPage(clazz, ordre, after, pageSize);
+        return executeRead("listPage", session -> listPage(session, clazz, ordre, after, pageSize),
+            new Page<>(Collections.emptyList(), null));
+    }
+
+    /**
+     * Pàgina keyset dins d'una sessió ja oberta.
+     * 
+     * @param <T> Tipus genèric de l'entitat
+     * @param session Sessió oberta
+     * @param clazz Classe de l'entitat a llistar
+     * @param orderBy Propietat d'ordenació (null o buit = clau primària)
+     * @param after Cursor de la pàgina anterior (null per a la primera pàgina)
+     * @param pageSize Nombre màxim d'elements per pàgina
+     * @return Pàgina amb els elements i el cursor de la següent
+     * @throws IllegalArgumentException Si orderBy no és vàlid o no coincideix amb el cursor
+     */
+    public static <T> Page<T> listPage(Session session, Class<T> clazz, String orderBy, Page.Cursor after, int pageSize) {
+        EntityPersister persister = persister(session.getSessionFactory(), clazz);
+        String idProp = persister.getIdentifierPropertyName();
+        String ordre = ordreKeyset(persister, orderBy, after, pageSize);
+        
+        // Construïm la consulta HQL amb el filtre "després del cursor"
+        StringBuilder hql = new StringBuilder("FROM " + clazz.getSimpleName() + " e");
+        if (after != null) {
+            if (ordre.equals(idProp)) {
+                hql.append(" WHERE e.").append(idProp).append(" > :lastId");
+            } else {
+                hql.append(" WHERE e.").append(ordre).append(" > :lastValue")
+                   .append(" OR (e.").append(ordre).append(" = :lastValue AND e.").append(idProp).append(" > :lastId)");
+            }
+        }
+        hql.append(" ORDER BY ");
+        if (!ordre.equals(idProp)) {
+            hql.append("e.").append(ordre).append(", ");
+        }
+        hql.append("e.").append(idProp);
+        
+        var query = session.createQuery(hql.toString(), clazz)
+            // Demanem un element de més per saber si hi ha pàgina següent
+            .setMaxResults(pageSize + 1);
+        if (after != null) {
+            query.setParameter("lastId", after.lastId());
+            if (!ordre.equals(idProp)) {
+                query.setParameter("lastValue", after.lastValue());
+            }
+        }
+        List<T> items = query.list();
+        
+        if (items.size() <= pageSize) {
+            return new Page<>(items, null);
+        }
+        items = new ArrayList<>(items.subList(0, pageSize));
+        return new Page<>(items, cursorKeyset(persister, ordre, items.get(pageSize - 1)));
+    }
+
+    /**
+     * Valida els paràmetres de listPage.
+     * 
+     * @return Propietat d'ordenació efectiva (l'ID si orderBy és buit)
+     * @throws IllegalArgumentException Si no són vàlids
+     */
+    static String ordreKeyset(EntityPersister persister, String orderBy, Page.Cursor after, int pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("pageSize ha de ser positiu: " + pageSize);
+        }
+        String idProp = persister.getIdentifierPropertyName();
+        String ordre = (orderBy == null || orderBy.isBlank()) ? idProp : orderBy.strip();
+        
+        if (!ordre.equals(idProp)) {
+            int index = Arrays.asList(persister.getPropertyNames()).indexOf(ordre);
+            if (index < 0 || persister.getPropertyNullability()[index]) {
+                throw new IllegalArgumentException("Propietat d'ordenació no vàlida per keyset (ha de ser NOT NULL): " + ordre);
+            }
+        }
+        if (after != null && !ordre.equals(after.orderBy())) {
+            throw new IllegalArgumentException("El cursor és d'una ordenació diferent: " + after.orderBy());
+        }
+        return ordre;
+    }
+
+    /**
+     * @return Cursor que apunta just després de 'last'
+     */
+    static Page.Cursor cursorKeyset(EntityPersister persister, String ordre, Object last) {
+        Object lastId = persister.getIdentifierMapping().getIdentifier(last);
+        Object lastValue = ordre.equals(persister.getIdentifierPropertyName())
+            ? lastId : persister.getPropertyValue(last, ordre);
+        return new Page.Cursor(ordre, lastValue, lastId);
+    }
+
+    /**
+     * Recorre totes les entitats d'un tipus com a Stream, amb memòria constant.
+     * 
+     * DIFERÈNCIA AMB listCollection:
+     * - listCollection materialitza TOTA la taula en una llista
+     * - stream llegeix fila a fila amb un cursor JDBC (ScrollableResults
+     *   FORWARD_ONLY) sobre una StatelessSession
+     * 
+     * STATELESS SESSION:
+     * - No té context de persistència: cap entitat queda referenciada
+     *   després de processar-la, i la memòria no creix amb la taula
+     * - No fa dirty checking ni usa la cache de segon nivell
+     * - Les entitats retornades estan DETACHED; les relacions lazy
+     *   no es poden inicialitzar
+     * 
+     * Amb sharding es recorren tots els shards alhora i, amb orderBy, les
+     * files es fusionen en ordre (vegeu ShardedManager.stream).
+     * 
+     * IMPORTANT: El Stream manté oberta una connexió del pool fins que es tanca.
+     * Cal usar-lo SEMPRE amb try-with-resources:
+     * 
+     *   try (Stream<Ciutada> ciutadans = Manager.stream(Ciutada.class, "ciutadaId", 1000)) {
+     *       ciutadans.forEach(exportador::escriu);
+     *   }
+     * 
+     * @param <T> Tipus genèric de l'entitat
+     * @param clazz Classe de l'entitat a recórrer
+     * @param orderBy Camp pel qual ordenar (opcional, pot ser null o buit)
+     * @param fetchSize Files per viatge a la BBDD (a MySQL cal useCursorFetch=true)
+     * @return Stream seqüencial que allibera la sessió i el cursor en tancar-lo
+     */
+    public static <T> Stream<T> stream(Class<T> clazz, String orderBy, int fetchSize) {
+        ShardedManager shards = sharded;
+        if (shards != null) return shards.stream(clazz, orderBy, fetchSize);
+        return stream(factory, clazz, orderBy, fetchSize);
+    }
+
+    /**
+     * Nucli de stream sobre una SessionFactory concreta (amb sharding, la de cada shard).
+     */
+    static <T> Stream<T> stream(SessionFactory factory, Class<T> clazz, String orderBy, int fetchSize) {
+        String hql = "FROM " + clazz.getSimpleName();
+        if (orderBy != null && !orderBy.isEmpty()) {
+            hql += " ORDER BY " + orderBy;
+        }
+        
+        StatelessSession session = factory.openStatelessSession();
+        try {
+            ScrollableResults<T> results = session.createQuery(hql, clazz)
+                .setFetchSize(fetchSize)
+                .setReadOnly(true)
+                .scroll(ScrollMode.FORWARD_ONLY);
+            
+            // Adaptem el cursor a un Iterator (next() avança, get() retorna la fila actual)
+            Iterator<T> iterator = new Iterator<>() {
+                private boolean avancat;
+                private boolean hiHaFila;
+                
+                @Override
+                public boolean hasNext() {
+                    if (!avancat) {
+                        hiHaFila = results.next();
+                        avancat = true;
+                    }
+                    return hiHaFila;
+                }
+                
+                @Override
+                public T next() {
+                    if (!hasNext()) throw new NoSuchElementException();
+                    avancat = false;
+                    return results.get();
+                }
+            };
+            
+            return StreamSupport
+                .stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(() -> {
+                    try {
+                        results.close();
+                    } finally {
+                        session.close();
+                    }
+                });
+        } catch (RuntimeException e) {
+            session.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Recorre totes les entitats d'un tipus sense ordre i amb DEFAULT_FETCH_SIZE.
+     * 
+     * @param <T> Tipus genèric de l'entitat
+     * @param clazz Classe de l'entitat a recórrer
+     * @return Stream que cal tancar (try-with-resources)
+     */
+    public static <T> Stream<T> stream(Class<T> clazz) {
+        return stream(clazz, null, DEFAULT_FETCH_SIZE);
+    }
+
+    /**
+     * Llista totes les ciutats.
+     * 
+     * SENSE N+1:
+     * Abans (lazy="false" + FROM Ciutat) es feia 1 SELECT de ciutats
+     * i 1 SELECT de ciutadans PER CADA ciutat.
+     * Ara un JOIN FETCH porta ciutats i ciutadans en UNA sola sentència.
+     * 
+     * @return Llista de totes les ciutats amb ciutadans carregats
+     */
+    public static List<Ciutat> findAllCiutatsWithCiutadans() {
+        ShardedManager shards = sharded;
+        if (shards != null) return shards.findAllCiutatsWithCiutadans();
+        return executeRead("findAllCiutatsWithCiutadans", session -> findAllCiutatsWithCiutadans(session), Collections.emptyList());
+    }
+
+    /**
+     * Llista totes les ciutats dins d'una sessió ja oberta.
+     * 
+     * @param session Sessió oberta
+     * @return Llista de totes les ciutats amb ciutadans carregats
+     */
+    public static List<Ciutat> findAllCiutatsWithCiutadans(Session session) {
+        // JOIN FETCH: carrega la col·lecció ciutadans dins del mateix SELECT
+        // LEFT: inclou també les ciutats sense ciutadans
+        // DISTINCT: una sola instància per ciutat (el JOIN repeteix files)
+        String hql = "SELECT DISTINCT c FROM Ciutat c LEFT JOIN FETCH c.ciutadans";
+        return session.createQuery(hql, Ciutat.class)
+            .setCacheable(true)
+            .list();
+    }
+
+    // ═══════════════════════════════════════════════════════════════════
+    // PROJECCIONS (DTO per a llistats)
+    // ═══════════════════════════════════════════════════════════════════
+
+    /**
+     * Llista el resum de totes les ciutats amb el nombre de ciutadans.
+     * 
+     * PROJECCIÓ DTO vs ENTITATS:
+     * - findAllCiutatsWithCiutadans porta cada ciutat i TOTS els seus
+     *   ciutadans com a entitats (una fila per ciutadà)
+     * - Aquí la BBDD retorna una fila per ciutat amb només les columnes
+     *   necessàries i el recompte ja fet:
+     *     SELECT c.ciutat_id, c.nom, c.pais, c.poblacio, COUNT(ct.ciutada_id)
+     *     FROM ciutats c LEFT JOIN ciutadans ct ON ... GROUP BY ...
+     * - Els records no són entitats: zero snapshots i zero proxies
      * 
-     * DIFERÈNCIES HQL vs SQL:
-     * - HQL usa noms de classes Java, no noms de taules
-     * - HQL usa noms de propietats Java, no noms de columnes
-     * - HQL és case-sensitive per als noms de classe
+     * @return Resums ordenats per nom de ciutat
+     */
+    public static List<CiutatSummary> listCiutatSummaries() {
+        ShardedManager shards = sharded;
+        if (shards != null) return shards.listCiutatSummaries();
+        return executeRead("listCiutatSummaries", session -> listCiutatSummaries(session), Collections.emptyList());
+    }
+
+    /**
+     * Llista el resum de totes les ciutats dins d'una sessió ja oberta.
      * 
-     * AMB EAGER LOADING (lazy="false"):
-     * Les relacions es carreguen automàticament.
-     * No cal fer Hibernate.initialize().
+     * @param session Sessió oberta
+     * @return Resums ordenats per nom de ciutat
+     */
+    public static List<CiutatSummary> listCiutatSummaries(Session session) {
+        // SELECT new: Hibernate crida el constructor del record per cada fila
+        String hql = "SELECT new com.project.CiutatSummary(c.ciutatId, c.nom, c.pais, c.poblacio, COUNT(ct)) "
+                   + "FROM Ciutat c LEFT JOIN c.ciutadans ct "
+                   + "GROUP BY c.ciutatId, c.nom, c.pais, c.poblacio "
+                   + "ORDER BY c.nom, c.ciutatId";
+        return session.createQuery(hql, CiutatSummary.class)
+            .setCacheable(true)
+            .list();
+    }
+
+    /**
+     * Llista el resum de tots els ciutadans amb el nom de la seva ciutat.
      * 
-     * @param <T> Tipus genèric de l'entitat
-     * @param clazz Classe de l'entitat a llistar
-     * @param orderBy Camp pel qual ordenar (opcional, pot ser null o buit)
-     * @return Col·lecció amb totes les entitats del tipus especificat
+     * Una sola sentència amb LEFT JOIN: no es carrega cap entitat Ciutat
+     * ni Ciutada.
+     * 
+     * @return Resums ordenats per cognom i nom
      */
-    public static <T> Collection<T> listCollection(Class<T> clazz, String orderBy) {
-        Collection<T> result = Collections.emptyList();
-        try (Session session = factory.openSession()) {
-            // Construïm la consulta HQL
-            String hql = "FROM " + clazz.getSimpleName();
-            
-            // Si s'especifica un camp d'ordenació, l'afegim
-            if (orderBy != null && !orderBy.isEmpty()) {
-                hql += " ORDER BY " + orderBy;
-            }
-            
-            // Executem la query i obtenim els resultats
-            // AMB EAGER: Les relacions es carreguen automàticament
-            result = session.createQuery(hql, clazz).list();
-            
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-        return result;
+    public static List<CiutadaSummary> listCiutadaSummaries() {
+        ShardedManager shards = sharded;
+        if (shards != null) return shards.listCiutadaSummaries();
+        return executeRead("listCiutadaSummaries", session -> listCiutadaSummaries(session), Collections.emptyList());
     }
 
     /**
-     * Llista totes les ciutats.
+     * Llista el resum de tots els ciutadans dins d'una sessió ja oberta.
      * 
-     * AMB EAGER LOADING (lazy="false"):
-     * Els ciutadans es carreguen automàticament.
-     * No cal fer Hibernate.initialize().
+     * @param session Sessió oberta
+     * @return Resums ordenats per cognom i nom
+     */
+    public static List<CiutadaSummary> listCiutadaSummaries(Session session) {
+        String hql = "SELECT new com.project.CiutadaSummary(e.ciutadaId, e.nom, e.cognom, e.edat, c.nom) "
+                   + "FROM Ciutada e LEFT JOIN e.ciutat c "
+                   + "ORDER BY e.cognom, e.nom, e.ciutadaId";
+        return session.createQuery(hql, CiutadaSummary.class)
+            .setCacheable(true)
+            .list();
+    }
+
+    // ═══════════════════════════════════════════════════════════════════
+    // AGREGACIONS (calculades a la BBDD)
+    // ═══════════════════════════════════════════════════════════════════
+    //
+    // En lloc de carregar totes les entitats amb listCollection i recórrer-les
+    // en Java, la BBDD fa el GROUP BY i retorna una fila per grup.
+    //
+    // CACHE:
+    // Les consultes són cacheables a la regió AGGREGACIONS_REGION. Hibernate
+    // guarda també la taula de la qual depèn cada resultat i, quan qualsevol
+    // escriptura (persist, merge, remove o UPDATE/DELETE massiu) toca
+    // ciutats o ciutadans, la regió default-update-timestamps-region en
+    // registra l'hora i els resultats anteriors deixen de ser vàlids.
+
+    /**
+     * Compta les entitats d'un tipus (SELECT COUNT).
      * 
-     * @return Llista de totes les ciutats amb ciutadans carregats
+     * @param clazz Classe de l'entitat
+     * @return Nombre de files, o -1 si hi ha error
      */
-    public static List<Ciutat> findAllCiutatsWithCiutadans() {
-        try (Session session = factory.openSession()) {
-            // Consulta simple: EAGER loading carrega tot automàticament
-            String hql = "FROM Ciutat";
-            return session.createQuery(hql, Ciutat.class).list();
-        } catch (Exception e) {
-            e.printStackTrace();
-            return Collections.emptyList();
+    public static long count(Class<?> clazz) {
+        return count(clazz, null, Map.of());
+    }
+
+    /**
+     * Compta les entitats d'un tipus que compleixen una condició HQL sobre l'àlies 'e':
+     * 
+     *   Manager.count(Ciutada.class, "e.edat >= :min", Map.of("min", 18));
+     * 
+     * @param clazz Classe de l'entitat
+     * @param whereClause Condició HQL (opcional, pot ser null o buida)
+     * @param params Paràmetres amb nom de la condició
+     * @return Nombre de files, o -1 si hi ha error
+     */
+    public static long count(Class<?> clazz, String whereClause, Map<String, ?> params) {
+        ShardedManager shards = sharded;
+        if (shards != null) return shards.count(clazz, whereClause, params);
+        return executeRead("count", session -> count(session, clazz, whereClause, params), -1L);
+    }
+
+    /**
+     * Recompte dins d'una sessió ja oberta.
+     * 
+     * @param session Sessió oberta
+     * @param clazz Classe de l'entitat
+     * @param whereClause Condició HQL (opcional, pot ser null o buida)
+     * @param params Paràmetres amb nom de la condició
+     * @return Nombre de files
+     */
+    public static long count(Session session, Class<?> clazz, String whereClause, Map<String, ?> params) {
+        var query = session.createQuery("SELECT COUNT(e) FROM " + clazz.getSimpleName() + " e" + whereSuffix(whereClause), Long.class)
+            .setCacheable(true)
+            .setCacheRegion(AGGREGACIONS_REGION);
+        bindParameters(query, params);
+        return query.getSingleResult();
+    }
+
+    /**
+     * Població total i nombre de ciutats per país.
+     * 
+     *   SELECT pais, COUNT(*), SUM(poblacio) FROM ciutats GROUP BY pais
+     * 
+     * @return Una fila per país, ordenades de més a menys població
+     */
+    public static List<PaisPoblacio> poblacioPerPais() {
+        ShardedManager shards = sharded;
+        if (shards != null) return shards.poblacioPerPais();
+        return executeRead("poblacioPerPais", session -> poblacioPerPais(session), Collections.emptyList());
+    }
+
+    /**
+     * Població per país dins d'una sessió ja oberta.
+     * 
+     * @param session Sessió oberta
+     * @return Una fila per país, ordenades de més a menys població
+     */
+    public static List<PaisPoblacio> poblacioPerPais(Session session) {
+        // COALESCE: un país amb totes les poblacions a NULL suma 0 (no NULL)
+        String hql = "SELECT new com.project.PaisPoblacio(c.pais, COUNT(c), COALESCE(SUM(c.poblacio), 0L)) "
+                   + "FROM Ciutat c GROUP BY c.pais "
+                   + "ORDER BY COALESCE(SUM(c.poblacio), 0L) DESC, c.pais";
+        return session.createQuery(hql, PaisPoblacio.class)
+            .setCacheable(true)
+            .setCacheRegion(AGGREGACIONS_REGION)
+            .list();
+    }
+
+    /**
+     * Edat mitjana, mínima i màxima dels ciutadans de cada ciutat.
+     * 
+     * Els ciutadans sense ciutat no hi surten (INNER JOIN).
+     * 
+     * @return Una fila per ciutat amb ciutadans, ordenades per nom de ciutat
+     */
+    public static List<EdatCiutat> edatPerCiutat() {
+        ShardedManager shards = sharded;
+        if (shards != null) return shards.edatPerCiutat();
+        return executeRead("edatPerCiutat", session -> edatPerCiutat(session), Collections.emptyList());
+    }
+
+    /**
+     * Edat per ciutat dins d'una sessió ja oberta.
+     * 
+     * @param session Sessió oberta
+     * @return Una fila per ciutat amb ciutadans, ordenades per nom de ciutat
+     */
+    public static List<EdatCiutat> edatPerCiutat(Session session) {
+        String hql = "SELECT new com.project.EdatCiutat(c.ciutatId, c.nom, COUNT(e), AVG(e.edat), MIN(e.edat), MAX(e.edat)) "
+                   + "FROM Ciutada e JOIN e.ciutat c "
+                   + "GROUP BY c.ciutatId, c.nom "
+                   + "ORDER BY c.nom, c.ciutatId";
+        return session.createQuery(hql, EdatCiutat.class)
+            .setCacheable(true)
+            .setCacheRegion(AGGREGACIONS_REGION)
+            .list();
+    }
+
+    /**
+     * Histograma d'edats de tots els ciutadans, en trams d'amplada fixa.
+     * 
+     * Cada ciutadà cau al tram que comença a edat - (edat MOD amplada):
+     * amb amplada 10, l'edat 37 compta al tram 30 (30-39).
+     * Els ciutadans sense edat no hi compten.
+     * 
+     * @param ampladaTram Anys per tram (1 = una barra per edat)
+     * @return Inici de cada tram → nombre de ciutadans (només trams no buits, ordenats)
+     */
+    public static SortedMap<Integer, Long> histogramaEdats(int ampladaTram) {
+        ShardedManager shards = sharded;
+        if (shards != null) return shards.histogramaEdats(ampladaTram);
+        return executeRead("histogramaEdats", session -> histogramaEdats(session, ampladaTram), new TreeMap<>());
+    }
+
+    /**
+     * Histograma d'edats dins d'una sessió ja oberta.
+     * 
+     * @param session Sessió oberta
+     * @param ampladaTram Anys per tram (1 = una barra per edat)
+     * @return Inici de cada tram → nombre de ciutadans
+     */
+    public static SortedMap<Integer, Long> histogramaEdats(Session session, int ampladaTram) {
+        return histogramaEdats(session, ampladaTram, null);
+    }
+
+    /**
+     * Mediana d'edat dels ciutadans d'una ciutat.
+     * 
+     * La mediana no té funció agregada portable (SQLite i MySQL no en tenen),
+     * però com que les edats són enteres n'hi ha prou amb l'histograma
+     * d'amplada 1: com a molt una fila per edat diferent, i la mediana exacta
+     * es troba acumulant els recomptes.
+     * 
+     * @param ciutatId ID de la ciutat
+     * @return Mediana d'edat, o null si la ciutat no té ciutadans amb edat
+     */
+    public static Double edatMediana(Long ciutatId) {
+        ShardedManager shards = sharded;
+        if (shards != null) return shards.edatMediana(ciutatId);
+        return executeRead("edatMediana", session -> edatMediana(session, ciutatId), null);
+    }
+
+    /**
+     * Mediana d'edat d'una ciutat dins d'una sessió ja oberta.
+     * 
+     * @param session Sessió oberta
+     * @param ciutatId ID de la ciutat
+     * @return Mediana d'edat, o null si la ciutat no té ciutadans amb edat
+     */
+    public static Double edatMediana(Session session, Long ciutatId) {
+        return medianaDeHistograma(histogramaEdats(session, 1, ciutatId));
+    }
+
+    /**
+     * Mediana exacta a partir d'un histograma d'amplada 1 (edat → recompte).
+     * (L'usa també el sharding per combinar els histogrames dels shards.)
+     */
+    static Double medianaDeHistograma(SortedMap<Integer, Long> perEdat) {
+        long total = perEdat.values().stream().mapToLong(Long::longValue).sum();
+        if (total == 0) {
+            return null;
         }
+        
+        // Posicions (0-based) dels dos elements centrals (iguals si total és senar)
+        long baixa = (total - 1) / 2;
+        long alta = total / 2;
+        Integer edatBaixa = null;
+        long acumulat = 0;
+        for (Map.Entry<Integer, Long> entrada : perEdat.entrySet()) {
+            acumulat += entrada.getValue();
+            if (edatBaixa == null && acumulat > baixa) {
+                edatBaixa = entrada.getKey();
+            }
+            if (acumulat > alta) {
+                return (edatBaixa + entrada.getKey()) / 2.0;
+            }
+        }
+        return edatBaixa.doubleValue();
+    }
+
+    /**
+     * Nucli comú dels histogrames: GROUP BY per tram, opcionalment d'una sola ciutat.
+     */
+    private static SortedMap<Integer, Long> histogramaEdats(Session session, int ampladaTram, Long ciutatId) {
+        if (ampladaTram <= 0) {
+            throw new IllegalArgumentException("ampladaTram ha de ser positiu: " + ampladaTram);
+        }
+        // L'amplada va inscrita a la consulta (és un int validat): així l'expressió
+        // del SELECT i la del GROUP BY són idèntiques per a la BBDD
+        String tram = ampladaTram == 1 ? "e.edat" : "e.edat - MOD(e.edat, " + ampladaTram + ")";
+        String hql = "SELECT " + tram + ", COUNT(e) FROM Ciutada e "
+                   + "WHERE e.edat IS NOT NULL"
+                   + (ciutatId != null ? " AND e.ciutat.ciutatId = :ciutatId" : "")
+                   + " GROUP BY " + tram;
+        var query = session.createQuery(hql, Object[].class)
+            .setCacheable(true)
+            .setCacheRegion(AGGREGACIONS_REGION);
+        if (ciutatId != null) {
+            query.setParameter("ciutatId", ciutatId);
+        }
+        
+        SortedMap<Integer, Long> result = new TreeMap<>();
+        for (Object[] fila : query.list()) {
+            result.put(((Number) fila[0]).intValue(), ((Number) fila[1]).longValue());
+        }
+        return result;
     }
 
     // ═══════════════════════════════════════════════════════════════════
@@ -436,31 +2380,223 @@ public class Manager {
      * @param id ID de l'entitat a esborrar
      */
     public static <T> void delete(Class<T> clazz, Serializable id) {
-        try (Session session = factory.openSession()) {
-            Transaction tx = session.beginTransaction();
-            try {
-                // GET: Carrega l'entitat per ID
-                T obj = session.get(clazz, id);
-                
-                if (obj != null) {
-                    // REMOVE: Elimina l'entitat de la BBDD
-                    session.remove(obj);
-                    System.out.println("Eliminat objecte " + clazz.getSimpleName() + " amb id " + id);
-                }
-                
-                // COMMIT: Executa el DELETE real
-                tx.commit();
-            } catch (HibernateException e) {
-                if (tx != null && tx.isActive()) tx.rollback();
-                e.printStackTrace();
+        ShardedManager shards = sharded;
+        if (shards != null) {
+            shards.delete(clazz, ((Number) id).longValue());
+            return;
+        }
+        // El COMMIT de inTransactionOrLog executa el DELETE real
+        inTransactionOrLog("delete", session -> delete(session, clazz, id));
+    }
+
+    /**
+     * Esborra una entitat per ID dins d'una sessió ja oberta (Unit of Work).
+     * 
+     * @param <T> Tipus genèric de l'entitat
+     * @param session Sessió oberta amb transacció activa
+     * @param clazz Classe de l'entitat a esborrar
+     * @param id ID de l'entitat a esborrar
+     */
+    public static <T> void delete(Session session, Class<T> clazz, Serializable id) {
+        // GET: Carrega l'entitat per ID
+        T obj = session.get(clazz, id);
+        
+        if (obj != null) {
+            // REMOVE: Elimina l'entitat de la BBDD
+            session.remove(obj);
+            System.out.println("Eliminat objecte " + clazz.getSimpleName() + " amb id " + id);
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════════════════
+    // DELETE MASSIU (sense carregar entitats)
+    // ═══════════════════════════════════════════════════════════════════
+
+    /**
+     * Esborra moltes entitats per ID sense carregar-les.
+     * 
+     * DIFERÈNCIA AMB delete:
+     * - delete: SELECT + DELETE (i una línia per consola) per a cada ID
+     * - deleteAll: DELETE ... WHERE id IN (...) en blocs de IN_CHUNK_SIZE IDs,
+     *   tot dins d'una sola transacció
+     * 
+     * CASCADE:
+     * Els DELETE massius NO apliquen el cascade="all" del mapatge.
+     * Per això, en esborrar ciutats, primer s'esborren els seus ciutadans
+     * amb un DELETE per ciutat_id (sense carregar-los) i després les ciutats.
+     * 
+     * @param <T> Tipus genèric de l'entitat
+     * @param clazz Classe de l'entitat a esborrar
+     * @param ids IDs a esborrar (els inexistents s'ignoren)
+     * @return Nombre d'entitats de 'clazz' esborrades, o -1 si hi ha error
+     */
+    public static <T> int deleteAll(Class<T> clazz, Collection<Long> ids) {
+        ShardedManager shards = sharded;
+        if (shards != null) return shards.deleteAll(clazz, ids);
+        return executeWrite("deleteAll", session -> deleteAll(session, clazz, ids), -1);
+    }
+
+    /**
+     * Esborrat massiu per ID dins d'una sessió ja oberta (Unit of Work).
+     * 
+     * @param <T> Tipus genèric de l'entitat
+     * @param session Sessió oberta amb transacció activa
+     * @param clazz Classe de l'entitat a esborrar
+     * @param ids IDs a esborrar
+     * @return Nombre d'entitats de 'clazz' esborrades
+     */
+    public static <T> int deleteAll(Session session, Class<T> clazz, Collection<Long> ids) {
+        String idProp = persister(session.getSessionFactory(), clazz).getIdentifierPropertyName();
+        String hql = "DELETE FROM " + clazz.getSimpleName() + " e WHERE e." + idProp + " IN (:ids)";
+        
+        int total = 0;
+        int fills = 0;
+        for (List<Long> bloc : chunks(ids, IN_CHUNK_SIZE)) {
+            if (clazz == Ciutat.class) {
+                // Cascade manual: primer els ciutadans (clau forana), després les ciutats
+                fills += session.createMutationQuery("DELETE FROM Ciutada x WHERE x.ciutat.ciutatId IN (:ids)")
+                    .setParameterList("ids", bloc)
+                    .executeUpdate();
             }
+            total += session.createMutationQuery(hql)
+                .setParameterList("ids", bloc)
+                .executeUpdate();
+        }
+        reportDelete(clazz, total, fills);
+        return total;
+    }
+
+    /**
+     * Esborra totes les entitats que compleixen una condició HQL, amb una
+     * sentència DELETE i sense carregar-les.
+     * 
+     * La condició s'escriu sobre l'àlies 'e':
+     * 
+     *   Manager.deleteWhere(Ciutada.class, "e.edat < :min", Map.of("min", 18));
+     *   Manager.deleteWhere(Ciutat.class, "e.pais = :pais", Map.of("pais", "Japó"));
+     * 
+     * Per seguretat la condició és obligatòria (per esborrar-ho tot: "1 = 1").
+     * Igual que deleteAll, en esborrar ciutats s'esborren abans els seus ciutadans.
+     * 
+     * @param <T> Tipus genèric de l'entitat
+     * @param clazz Classe de l'entitat a esborrar
+     * @param whereClause Condició HQL sobre l'àlies 'e' (obligatòria)
+     * @param params Paràmetres amb nom de la condició
+     * @return Nombre d'entitats de 'clazz' esborrades, o -1 si hi ha error
+     */
+    public static <T> int deleteWhere(Class<T> clazz, String whereClause, Map<String, ?> params) {
+        ShardedManager shards = sharded;
+        if (shards != null) return shards.deleteWhere(clazz, whereClause, params);
+        return executeWrite("deleteWhere", session -> deleteWhere(session, clazz, whereClause, params), -1);
+    }
+
+    /**
+     * Esborrat massiu per condició dins d'una sessió ja oberta (Unit of Work).
+     * 
+     * @param <T> Tipus genèric de l'entitat
+     * @param session Sessió oberta amb transacció activa
+     * @param clazz Classe de l'entitat a esborrar
+     * @param whereClause Condició HQL sobre l'àlies 'e' (obligatòria)
+     * @param params Paràmetres amb nom de la condició
+     * @return Nombre d'entitats de 'clazz' esborrades
+     */
+    public static <T> int deleteWhere(Session session, Class<T> clazz, String whereClause, Map<String, ?> params) {
+        if (whereClause == null || whereClause.isBlank()) {
+            throw new IllegalArgumentException("deleteWhere necessita una condició (per esborrar-ho tot: \"1 = 1\")");
         }
+        
+        int fills = 0;
+        if (clazz == Ciutat.class) {
+            // Cascade manual amb subconsulta: els ciutadans de les ciutats que s'esborraran
+            var cascade = session.createMutationQuery(
+                "DELETE FROM Ciutada x WHERE x.ciutat.ciutatId IN (SELECT e.ciutatId FROM Ciutat e" + whereSuffix(whereClause) + ")");
+            bindParameters(cascade, params);
+            fills = cascade.executeUpdate();
+        }
+        
+        var query = session.createMutationQuery("DELETE FROM " + clazz.getSimpleName() + " e" + whereSuffix(whereClause));
+        bindParameters(query, params);
+        int total = query.executeUpdate();
+        
+        reportDelete(clazz, total, fills);
+        return total;
+    }
+
+    /**
+     * Suma les files esborrades a ManagerMetrics ("delete(Ciutat)",
+     * "delete(Ciutada)"); els ciutadans esborrats en cascada compten com
+     * a Ciutada.
+     */
+    private static void reportDelete(Class<?> clazz, int total, int fills) {
+        ManagerMetrics.recordRows("delete(" + clazz.getSimpleName() + ")", total);
+        ManagerMetrics.recordRows("delete(Ciutada)", fills);
     }
 
     // ═══════════════════════════════════════════════════════════════════
     // UTILITATS
     // ═══════════════════════════════════════════════════════════════════
 
+    /**
+     * Divideix una col·lecció en blocs de com a màxim 'mida' elements.
+     */
+    static <E> List<List<E>> chunks(Collection<E> elements, int mida) {
+        List<List<E>> blocs = new ArrayList<>();
+        List<E> actual = new ArrayList<>(mida);
+        for (E element : elements) {
+            actual.add(element);
+            if (actual.size() == mida) {
+                blocs.add(actual);
+                actual = new ArrayList<>(mida);
+            }
+        }
+        if (!actual.isEmpty()) {
+            blocs.add(actual);
+        }
+        return blocs;
+    }
+
+    /**
+     * Construeix " WHERE <condició>" o cadena buida si no hi ha condició.
+     */
+    private static String whereSuffix(String whereClause) {
+        return (whereClause == null || whereClause.isBlank()) ? "" : " WHERE " + whereClause;
+    }
+
+    /**
+     * Assigna paràmetres amb nom a una consulta HQL.
+     * Les col·leccions s'assignen com a llista (per a expressions IN).
+     */
+    private static void bindParameters(CommonQueryContract query, Map<String, ?> params) {
+        if (params == null) return;
+        params.forEach((nom, valor) -> {
+            if (valor instanceof Collection<?> llista) {
+                query.setParameterList(nom, llista);
+            } else {
+                query.setParameter(nom, valor);
+            }
+        });
+    }
+
+    /**
+     * Metadades de Hibernate (EntityPersister) d'una classe mapejada:
+     * nom de l'ID, propietats, nullabilitat, accés als valors...
+     * 
+     * Amb sharding es llegeixen del primer shard (tots tenen els mateixos mapatges).
+     */
+    static EntityPersister persister(Class<?> clazz) {
+        return persister(configFactory(), clazz);
+    }
+
+    /**
+     * Metadades d'una classe a una SessionFactory concreta (per exemple
+     * session.getSessionFactory(), la del shard de la sessió).
+     */
+    static EntityPersister persister(SessionFactory factory, Class<?> clazz) {
+        return factory.unwrap(SessionFactoryImplementor.class)
+            .getMappingMetamodel()
+            .getEntityDescriptor(clazz);
+    }
+
     /**
      * Converteix una col·lecció a String per mostrar-la.
      * 
@@ -482,4 +2618,94 @@ public class Manager {
         }
         return sb.toString();
     }
+
+    /**
+     * Converteix una col·lecció de records (projeccions DTO) a una taula de text.
+     * 
+     * Les columnes són els components del record (per reflexió), amb
+     * l'amplada del valor més llarg de cada columna:
+     * 
+     *   id | nom       | pais   | poblacio | numCiutadans
+     *   1  | Vancouver | Canada | 98661    | 3
+     * 
+     * Rep una List (i no una Collection) perquè la signatura no coincideixi,
+     * un cop esborrats els genèrics, amb collectionToString(Class, Collection).
+     * 
+     * @param clazz Classe del record
+     * @param collection Llista a convertir
+     * @return Taula amb capçalera i una línia per element, o missatge si està buida
+     */
+    public static String collectionToString(Class<? extends Record> clazz, List<? extends Record> collection) {
+        if (collection == null || collection.isEmpty()) {
+            return "[Cap " + clazz.getSimpleName() + " trobat]";
+        }
+        
+        RecordComponent[] columnes = clazz.getRecordComponents();
+        List<String[]> files = new ArrayList<>(collection.size() + 1);
+        int[] amplades = new int[columnes.length];
+        
+        String[] capcalera = new String[columnes.length];
+        for (int i = 0; i < columnes.length; i++) {
+            capcalera[i] = columnes[i].getName();
+        }
+        files.add(capcalera);
+        
+        for (Record element : collection) {
+            String[] fila = new String[columnes.length];
+            for (int i = 0; i < columnes.length; i++) {
+                try {
+                    fila[i] = String.valueOf(columnes[i].getAccessor().invoke(element));
+                } catch (ReflectiveOperationException e) {
+                    fila[i] = "?";
+                }
+            }
+            files.add(fila);
+        }
+        
+        for (String[] fila : files) {
+            for (int i = 0; i < fila.length; i++) {
+                amplades[i] = Math.max(amplades[i], fila[i].length());
+            }
+        }
+        
+        StringBuilder sb = new StringBuilder();
+        for (String[] fila : files) {
+            for (int i = 0; i < fila.length; i++) {
+                if (i > 0) sb.append(" | ");
+                sb.append(String.format("%-" + amplades[i] + "s", fila[i]));
+            }
+            sb.append("\n");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Converteix totes les entitats d'un tipus a String, llegint-les pàgina
+     * a pàgina amb listPage en lloc de carregar tota la taula de cop.
+     * 
+     * Només hi ha una pàgina d'entitats a memòria alhora (el text resultant
+     * sí que conté totes les files).
+     * 
+     * @param <T> Tipus genèric de l'entitat
+     * @param clazz Classe de l'entitat a mostrar
+     * @param orderBy Propietat d'ordenació (null o buit = clau primària)
+     * @param pageSize Elements per pàgina
+     * @return String amb tots els elements (un per línia) o missatge si no n'hi ha
+     */
+    public static <T> String collectionToString(Class<T> clazz, String orderBy, int pageSize) {
+        StringBuilder sb = new StringBuilder();
+        Page.Cursor cursor = null;
+        do {
+            Page<T> page = listPage(clazz, orderBy, cursor, pageSize);
+            for (T obj : page.items()) {
+                sb.append(obj.toString()).append("\n");
+            }
+            cursor = page.next();
+        } while (cursor != null);
+        
+        if (sb.length() == 0) {
+            return "[Cap " + clazz.getSimpleName() + " trobat]";
+        }
+        return sb.toString();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,377 @@
+package com.project;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Mètriques de latència i throughput de cada operació del Manager.
+ * 
+ * QUÈ ES MESURA (per operació: addCiutat, listCollection...):
+ * - Nombre de crides i nombre d'errors
+ * - Histograma de latència → p50, p99 i màxim
+ * - Files escrites per les operacions massives (lots, esborrats): el
+ *   throughput en files/s és rate() d'aquest comptador
+ * A més s'exposen les Statistics de Hibernate (sentències, flushes,
+ * càrregues d'entitats, cache L2) si hibernate.generate_statistics=true.
+ * 
+ * COST BAIX (pensat per deixar-ho sempre actiu):
+ * - Dues crides a System.nanoTime() per operació
+ * - Comptadors LongAdder / AtomicLongArray: sense locks ni memòria nova
+ *   per crida, i poca contenció entre fils
+ * - Histograma logarítmic de mida fixa: 8 trams per cada potència de 2,
+ *   error màxim del 12,5% en els percentils, sigui quina sigui la latència
+ * 
+ * ON ES CONSULTEN:
+ * - JMX: com.project:type=ManagerMetrics (jconsole, VisualVM...)
+ * - HTTP: startHttpServer(port) → GET /metrics en format text de Prometheus
+ * - Codi: ManagerMetrics.report()
+ */
+public final class ManagerMetrics {
+
+    /** Nom JMX del MBean de mètriques */
+    public static final String OBJECT_NAME = "com.project:type=ManagerMetrics";
+
+    /** Subtrams lineals per cada potència de 2 de l'histograma */
+    private static final int SUBTRAMS = 8;
+    private static final int BITS_SUBTRAM = 3;
+    private static final int NUM_TRAMS = (64 - BITS_SUBTRAM) * SUBTRAMS;
+
+    private static final Map<String, OperationStats> operacions = new ConcurrentHashMap<>();
+    private static final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    private static final Map<String, LongAdder> files = new ConcurrentHashMap<>();
+    private static volatile boolean enabled = true;
+    private static HttpServer httpServer;
+
+    private ManagerMetrics() {}
+
+    // ═══════════════════════════════════════════════════════════════════
+    // REGISTRE DE MESURES
+    // ═══════════════════════════════════════════════════════════════════
+
+    /**
+     * Activa o desactiva la recollida de mètriques (activada per defecte).
+     */
+    public static void setEnabled(boolean actiu) {
+        enabled = actiu;
+    }
+
+    /**
+     * @return Instant d'inici per passar a record(), o 0 si les mètriques estan desactivades
+     */
+    static long start() {
+        return enabled ? System.nanoTime() : 0L;
+    }
+
+    /**
+     * Registra una operació acabada.
+     * 
+     * @param operacio Nom de l'operació
+     * @param inici Valor retornat per start()
+     * @param error true si l'operació ha fallat
+     */
+    static void record(String operacio, long inici, boolean error) {
+        if (inici == 0L) return;
+        long durada = System.nanoTime() - inici;
+        operacions.computeIfAbsent(operacio, nom -> new OperationStats()).record(durada, error);
+    }
+
+    /**
+     * Suma files afectades per una operació massiva.
+     * 
+     * @param operacio Nom de l'operació, p. ex. "persistBatch(Ciutada)"
+     * @param n Files inserides, actualitzades o esborrades
+     */
+    static void recordRows(String operacio, long n) {
+        if (!enabled || n <= 0) return;
+        files.computeIfAbsent(operacio, nom -> new LongAdder()).add(n);
+    }
+
+    /**
+     * Registra un valor instantani (gauge) que s'inclou a report(),
+     * per exemple la profunditat del buffer write-behind.
+     * 
+     * @param nom Nom de la mètrica en format Prometheus
+     * @param valor Funció que en retorna el valor actual
+     */
+    public static void registerGauge(String nom, LongSupplier valor) {
+        gauges.put(nom, valor);
+    }
+
+    /**
+     * Esborra totes les mesures acumulades.
+     */
+    public static void reset() {
+        operacions.clear();
+        files.clear();
+    }
+
+    // ═══════════════════════════════════════════════════════════════════
+    // CONSULTA
+    // ═══════════════════════════════════════════════════════════════════
+
+    /**
+     * @param operacio Nom de l'operació (vegeu recordRows)
+     * @return Files acumulades per l'operació des de l'últim reset()
+     */
+    public static long rows(String operacio) {
+        LongAdder n = files.get(operacio);
+        return n == null ? 0 : n.sum();
+    }
+
+    /**
+     * Resum de totes les operacions, en format text de Prometheus.
+     * 
+     *   manager_operation_calls_total{op="addCiutat"} 12
+     *   manager_operation_latency_seconds{op="addCiutat",quantile="0.99"} 0.0031
+     * 
+     * @return Text amb una mètrica per línia
+     */
+    public static String report() {
+        StringBuilder sb = new StringBuilder();
+        Map<String, OperationStats> ordenades = new TreeMap<>(operacions);
+        
+        sb.append("# TYPE manager_operation_calls_total counter\n");
+        ordenades.forEach((op, stats) -> linia(sb, "manager_operation_calls_total", op, null, stats.crides.sum()));
+        sb.append("# TYPE manager_operation_errors_total counter\n");
+        ordenades.forEach((op, stats) -> linia(sb, "manager_operation_errors_total", op, null, stats.errors.sum()));
+        sb.append("# TYPE manager_operation_latency_seconds summary\n");
+        ordenades.forEach((op, stats) -> {
+            linia(sb, "manager_operation_latency_seconds", op, "0.5", stats.percentil(0.50) / 1e9);
+            linia(sb, "manager_operation_latency_seconds", op, "0.99", stats.percentil(0.99) / 1e9);
+        });
+        sb.append("# TYPE manager_operation_latency_max_seconds gauge\n");
+        ordenades.forEach((op, stats) -> linia(sb, "manager_operation_latency_max_seconds", op, null, stats.max.get() / 1e9));
+        sb.append("# TYPE manager_operation_rows_total counter\n");
+        new TreeMap<>(files).forEach((op, n) -> linia(sb, "manager_operation_rows_total", op, null, n.sum()));
+        new TreeMap<>(gauges).forEach((nom, valor) -> {
+            sb.append("# TYPE ").append(nom).append(" gauge\n");
+            linia(sb, nom, null, null, valor.getAsLong());
+        });
+        
+        Statistics hibernate = hibernateStatistics();
+        if (hibernate != null && hibernate.isStatisticsEnabled()) {
+            linia(sb, "hibernate_statements_total", null, null, hibernate.getPrepareStatementCount());
+            linia(sb, "hibernate_flushes_total", null, null, hibernate.getFlushCount());
+            linia(sb, "hibernate_transactions_total", null, null, hibernate.getTransactionCount());
+            linia(sb, "hibernate_entity_loads_total", null, null, hibernate.getEntityLoadCount());
+            linia(sb, "hibernate_entity_fetches_total", null, null, hibernate.getEntityFetchCount());
+            linia(sb, "hibernate_collection_loads_total", null, null, hibernate.getCollectionLoadCount());
+            linia(sb, "hibernate_query_executions_total", null, null, hibernate.getQueryExecutionCount());
+            linia(sb, "hibernate_second_level_cache_hits_total", null, null, hibernate.getSecondLevelCacheHitCount());
+            linia(sb, "hibernate_second_level_cache_misses_total", null, null, hibernate.getSecondLevelCacheMissCount());
+            linia(sb, "hibernate_query_cache_hits_total", null, null, hibernate.getQueryCacheHitCount());
+            linia(sb, "hibernate_query_cache_misses_total", null, null, hibernate.getQueryCacheMissCount());
+        }
+        return sb.toString();
+    }
+
+    private static void linia(StringBuilder sb, String nom, String op, String quantil, double valor) {
+        sb.append(nom);
+        if (op != null) {
+            sb.append("{op=\"").append(op).append('"');
+            if (quantil != null) sb.append(",quantile=\"").append(quantil).append('"');
+            sb.append('}');
+        }
+        if (valor == Math.rint(valor) && Math.abs(valor) < 1e15) {
+            sb.append(' ').append((long) valor).append('\n');
+        } else {
+            sb.append(' ').append(String.format(Locale.ROOT, "%.6f", valor)).append('\n');
+        }
+    }
+
+    /**
+     * @return Statistics de la SessionFactory (amb sharding, sumades de tots
+     *         els shards), o null si no n'hi ha cap d'oberta
+     */
+    private static Statistics hibernateStatistics() {
+        if (Manager.isSharded()) {
+            return Manager.getStatistics();
+        }
+        SessionFactory factory = Manager.getSessionFactory();
+        return (factory == null || factory.isClosed()) ? null : factory.getStatistics();
+    }
+
+    // ═══════════════════════════════════════════════════════════════════
+    // EXPOSICIÓ: JMX I HTTP
+    // ═══════════════════════════════════════════════════════════════════
+
+    /**
+     * Registra el MBean com.project:type=ManagerMetrics (si no ho està ja).
+     */
+    public static synchronized void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName nom = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(nom)) {
+                server.registerMBean(new MBean(), nom);
+            }
+        } catch (JMException e) {
+            System.err.println("Error registrant el MBean de mètriques: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Inicia un servidor HTTP que respon GET /metrics amb report().
+     * Pensat per a un recol·lector tipus Prometheus (model pull).
+     * 
+     * @param port Port on escoltar (0 = un port lliure qualsevol)
+     * @return Port on escolta el servidor
+     * @throws IOException Si no es pot obrir el port
+     */
+    public static synchronized int startHttpServer(int port) throws IOException {
+        if (httpServer != null) {
+            return httpServer.getAddress().getPort();
+        }
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/metrics", exchange -> {
+            byte[] cos = report().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, cos.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(cos);
+            }
+        });
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.start();
+        httpServer = server;
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Atura el servidor HTTP de mètriques, si està en marxa.
+     */
+    public static synchronized void stopHttpServer() {
+        if (httpServer != null) {
+            httpServer.stop(0);
+            httpServer = null;
+        }
+    }
+
+    /**
+     * Interfície JMX (MXBean: només tipus simples, visibles des de jconsole).
+     */
+    public interface ManagerMetricsMXBean {
+        String[] getOperations();
+        long getCount(String operacio);
+        long getErrors(String operacio);
+        double getP50Millis(String operacio);
+        double getP99Millis(String operacio);
+        double getMaxMillis(String operacio);
+        long getRows(String operacio);
+        long getHibernateStatementCount();
+        long getHibernateFlushCount();
+        long getHibernateEntityLoadCount();
+        long getHibernateSecondLevelCacheHitCount();
+        long getWriteBehindDepth();
+        String getReport();
+        void reset();
+    }
+
+    private static final class MBean implements ManagerMetricsMXBean {
+        @Override public String[] getOperations() { return new TreeMap<>(operacions).keySet().toArray(String[]::new); }
+        @Override public long getCount(String op) { return stats(op).crides.sum(); }
+        @Override public long getErrors(String op) { return stats(op).errors.sum(); }
+        @Override public double getP50Millis(String op) { return stats(op).percentil(0.50) / 1e6; }
+        @Override public double getP99Millis(String op) { return stats(op).percentil(0.99) / 1e6; }
+        @Override public double getMaxMillis(String op) { return stats(op).max.get() / 1e6; }
+        @Override public long getRows(String op) { return rows(op); }
+        @Override public long getHibernateStatementCount() { Statistics s = hibernateStatistics(); return s == null ? 0 : s.getPrepareStatementCount(); }
+        @Override public long getHibernateFlushCount() { Statistics s = hibernateStatistics(); return s == null ? 0 : s.getFlushCount(); }
+        @Override public long getHibernateEntityLoadCount() { Statistics s = hibernateStatistics(); return s == null ? 0 : s.getEntityLoadCount(); }
+        @Override public long getHibernateSecondLevelCacheHitCount() { Statistics s = hibernateStatistics(); return s == null ? 0 : s.getSecondLevelCacheHitCount(); }
+        @Override public long getWriteBehindDepth() { return Manager.writeBehindDepth(); }
+        @Override public String getReport() { return report(); }
+        @Override public void reset() { ManagerMetrics.reset(); }
+
+        private static OperationStats stats(String op) {
+            return operacions.getOrDefault(op, OperationStats.BUIDA);
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════════════════
+    // HISTOGRAMA
+    // ═══════════════════════════════════════════════════════════════════
+
+    /**
+     * Comptadors i histograma d'una operació.
+     * 
+     * Tram d'una durada v (en ns): els valors 0..7 tenen tram propi; per a
+     * la resta, la potència de 2 (bit més alt) i els 3 bits següents
+     * trien un dels 8 subtrams. Així cada tram cobreix com a molt un 12,5%
+     * del seu valor.
+     */
+    private static final class OperationStats {
+        static final OperationStats BUIDA = new OperationStats();
+
+        final LongAdder crides = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final AtomicLong max = new AtomicLong();
+        final AtomicLongArray trams = new AtomicLongArray(NUM_TRAMS);
+
+        void record(long durada, boolean error) {
+            crides.increment();
+            if (error) errors.increment();
+            trams.incrementAndGet(tram(Math.max(0, durada)));
+            max.accumulateAndGet(durada, Math::max);
+        }
+
+        /**
+         * Percentil aproximat (límit superior del tram), en nanosegons.
+         */
+        long percentil(double p) {
+            long[] comptes = new long[NUM_TRAMS];
+            long total = 0;
+            for (int i = 0; i < NUM_TRAMS; i++) {
+                comptes[i] = trams.get(i);
+                total += comptes[i];
+            }
+            if (total == 0) return 0;
+            
+            long objectiu = (long) Math.ceil(p * total);
+            long acumulat = 0;
+            for (int i = 0; i < NUM_TRAMS; i++) {
+                acumulat += comptes[i];
+                if (acumulat >= objectiu) {
+                    return Math.min(limitSuperior(i), max.get());
+                }
+            }
+            return max.get();
+        }
+
+        static int tram(long v) {
+            if (v < SUBTRAMS) return (int) v;
+            int bitAlt = 63 - Long.numberOfLeadingZeros(v);
+            int sub = (int) ((v >>> (bitAlt - BITS_SUBTRAM)) & (SUBTRAMS - 1));
+            return (bitAlt - BITS_SUBTRAM + 1) * SUBTRAMS + sub;
+        }
+
+        static long limitSuperior(int tram) {
+            if (tram < SUBTRAMS) return tram;
+            int bitAlt = tram / SUBTRAMS + BITS_SUBTRAM - 1;
+            int sub = tram % SUBTRAMS;
+            long amplada = 1L << (bitAlt - BITS_SUBTRAM);
+            return ((SUBTRAMS + sub) * amplada) + amplada - 1;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.project;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Pàgina de resultats de Manager.listPage (paginació per clau / keyset).
+ * 
+ * A diferència de la paginació per OFFSET, la pàgina següent no es demana
+ * pel seu número sinó a partir de l'últim element vist (el cursor).
+ * Així la consulta de la pàgina N costa el mateix que la de la pàgina 1:
+ * la BBDD salta directament a la posició amb l'índex, sense recórrer
+ * les files anteriors.
+ * 
+ * @param <T> Tipus dels elements
+ * @param items Elements d'aquesta pàgina (com a màxim pageSize)
+ * @param next Cursor per demanar la pàgina següent, o null si és l'última
+ */
+public record Page<T>(List<T> items, Cursor next) {
+
+    /**
+     * @return true si hi ha més pàgines després d'aquesta
+     */
+    public boolean hasNext() {
+        return next != null;
+    }
+
+    /**
+     * Token de continuació: posició de l'últim element d'una pàgina.
+     * 
+     * @param orderBy Propietat per la qual s'ordena (ha de ser la mateixa a cada pàgina)
+     * @param lastValue Valor de 'orderBy' de l'últim element
+     * @param lastId ID de l'últim element (desempata valors repetits)
+     */
+    public record Cursor(String orderBy, Object lastValue, Object lastId) implements Serializable {
+        private static final long serialVersionUID = 1L;
+    }
+}
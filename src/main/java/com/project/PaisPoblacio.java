@@ -0,0 +1,13 @@
+package com.project;
+
+/**
+ * Població agregada d'un país (resultat de Manager.poblacioPerPais).
+ * 
+ * Calculat per la BBDD amb GROUP BY pais: només viatja una fila per país.
+ * 
+ * @param pais País
+ * @param numCiutats Nombre de ciutats del país
+ * @param poblacioTotal Suma de la població de les seves ciutats
+ */
+public record PaisPoblacio(String pais, Long numCiutats, Long poblacioTotal) {
+}
@@ -0,0 +1,1192 @@
+package com.project;
+
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.stat.Statistics;
+
+/**
+ * Persistència REPARTIDA (sharding) en diversos fitxers SQLite.
+ *
+ * Un sol fitxer és alhora un límit de mida i un sol bloqueig d'escriptura
+ * per a tota l'aplicació. Amb N shards, cada fitxer té la seva
+ * SessionFactory (i el seu pool) i les escriptures a shards diferents
+ * van en paral·lel. El Manager hi delega quan el sharding està actiu
+ * (Manager.createShardedSessionFactories): l'API pública no canvia.
+ *
+ * ENCAMINAMENT:
+ * - Ciutat: per la clau de shard (per defecte el país), hash(clau) mod N.
+ *   Totes les ciutats d'un mateix país són al mateix fitxer
+ * - Ciutada amb ciutat: al shard de la seva ciutat (la relació, els JOIN
+ *   i les agregacions per ciutat queden dins d'un sol fitxer)
+ * - Ciutada sense ciutat: repartits per torns. Quan updateCiutat l'assigna
+ *   a una ciutat d'un altre shard, es MOU (amb el mateix ID) al shard de la ciutat
+ * - Si updateCiutat canvia la clau d'una ciutat a un valor d'un altre shard,
+ *   la ciutat es MOU (amb el mateix ID i amb els seus ciutadans) al nou shard
+ *
+ * IDs GLOBALS:
+ * Cada shard k reserva IDs a partir de k << ID_BITS (la fila de
+ * id_generators s'inicialitza en obrir el shard). Els IDs no es repeteixen
+ * entre shards i el shard d'una ciutat es dedueix del seu ID, excepte les
+ * ciutats mogudes: ciutatsMogudes en guarda el shard actual (es carrega en
+ * obrir els shards amb una consulta per shard). Un ciutadà mogut també
+ * conserva l'ID, per això es busca primer al shard que indica l'ID i, si
+ * no hi és, a la resta.
+ *
+ * CONSULTES:
+ * - Per ID: un sol shard
+ * - listCollection, projeccions i agregacions: es llancen a tots els shards
+ *   en paral·lel (fils virtuals) i els resultats es fusionen: els recomptes
+ *   i els histogrames se sumen, poblacioPerPais es combina per país i les
+ *   llistes es tornen a ordenar en memòria
+ * - listPage i stream: cada shard recorre la seva part en ordre i es
+ *   fusionen (keyset / fusió k-way), amb la mateixa memòria que sense sharding
+ * - getStatistics i cacheStats: sumades de tots els shards (ShardedStatistics)
+ *
+ * ESCRIPTURES:
+ * - Escriptor únic i group commit: un fil escriptor per shard
+ * - Write-behind: el flush aplica cada lot a tots els shards (cada
+ *   ciutadà només és a un)
+ * - Unitats de treball (inTransaction, withUnitOfWork): una transacció no
+ *   pot abastar diversos fitxers, per això amb sharding s'executen al
+ *   shard d'una clau (inTransaction(clauShard, work)). Sense clau
+ *   s'executen al shard per defecte (SHARD_PER_DEFECTE): només hi veuen
+ *   les dades d'aquest shard, i les ciutats que hi creen s'hi queden
+ *   encara que la seva clau correspongui a un altre
+ * - Les escriptures que toquen diversos shards (updateCiutadansWhere,
+ *   deleteWhere, deleteAll) fan una transacció per shard: no són atòmiques
+ *   entre shards. Moure ciutats i ciutadans (updateCiutat) sí que es
+ *   compensa si falla
+ * ImportadorCens escriu amb les insercions per lots del Manager, de manera
+ * que també queda repartit.
+ */
+final class ShardedManager {
+
+    /** Bits baixos de l'ID dins de cada shard (2^40 IDs per shard) */
+    static final int ID_BITS = 40;
+
+    /** Shard de les unitats de treball sense clau de shard */
+    static final int SHARD_PER_DEFECTE = 0;
+
+    /** Segments de id_generators (segment_value dels .hbm.xml) */
+    private static final String[] SEGMENTS = {"ciutats", "ciutadans"};
+
+    private final List<SessionFactory> shards;
+    private final Function<Ciutat, String> clau;
+    private final AtomicInteger torn = new AtomicInteger();
+    /** Shard actual de les ciutats que no són al shard del seu ID (mogudes per updateCiutat) */
+    private final Map<Long, Integer> ciutatsMogudes = new ConcurrentHashMap<>();
+    private final ExecutorService fanOut = Executors.newVirtualThreadPerTaskExecutor();
+    /** Escriptor únic de cada shard, en ordre (null si el mode no està actiu) */
+    private volatile List<SingleWriter> escriptors;
+
+    /**
+     * @param shards SessionFactory de cada shard, en ordre (l'índex forma part dels IDs)
+     * @param clau   Clau de shard d'una ciutat (per exemple Ciutat::getPais)
+     */
+    ShardedManager(List<SessionFactory> shards, Function<Ciutat, String> clau) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("Cal com a mínim un shard");
+        }
+        this.shards = List.copyOf(shards);
+        this.clau = clau;
+        for (int shard = 1; shard < this.shards.size(); shard++) {
+            inicialitzaIds(shard);
+        }
+        for (int shard = 0; shard < this.shards.size(); shard++) {
+            carregaCiutatsMogudes(shard);
+        }
+    }
+
+    int numShards() {
+        return shards.size();
+    }
+
+    SessionFactory shard(int shard) {
+        return shards.get(shard);
+    }
+
+    void close() {
+        disableSingleWriter();
+        fanOut.close();
+        for (SessionFactory shard : shards) {
+            if (!shard.isClosed()) {
+                shard.close();
+            }
+        }
+    }
+
+    /**
+     * @return Statistics de Hibernate sumades de tots els shards (vegeu ShardedStatistics)
+     */
+    Statistics getStatistics() {
+        List<Statistics> perShard = new ArrayList<>(shards.size());
+        shards.forEach(shard -> perShard.add(shard.getStatistics()));
+        return ShardedStatistics.of(perShard);
+    }
+
+    // ═══════════════════════════════════════════════════════════════════
+    // ENCAMINAMENT
+    // ═══════════════════════════════════════════════════════════════════
+
+    static long primerId(int shard) {
+        return (long) shard << ID_BITS;
+    }
+
+    /**
+     * Fa que el shard reservi IDs a partir de primerId(shard).
+     * Si la fila ja existeix amb un valor més alt (BBDD reoberta), no es toca.
+     */
+    private void inicialitzaIds(int shard) {
+        long base = primerId(shard);
+        Manager.runUnitOfWork(shards.get(shard), session -> {
+            for (String segment : SEGMENTS) {
+                int actualitzades = session.createNativeMutationQuery(
+                        "UPDATE id_generators SET next_val = :base WHERE sequence_name = :segment AND next_val < :base")
+                    .setParameter("base", base)
+                    .setParameter("segment", segment)
+                    .executeUpdate();
+                if (actualitzades > 0) continue;
+
+                long existeix = session.createNativeQuery(
+                        "SELECT COUNT(*) FROM id_generators WHERE sequence_name = :segment", Long.class)
+                    .setParameter("segment", segment)
+                    .getSingleResult();
+                if (existeix == 0) {
+                    session.createNativeMutationQuery(
+                            "INSERT INTO id_generators (sequence_name, next_val) VALUES (:segment, :base)")
+                        .setParameter("segment", segment)
+                        .setParameter("base", base)
+                        .executeUpdate();
+                }
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Anota les ciutats del shard amb un ID d'un altre shard (mogudes en
+     * una execució anterior). La consulta és per rang de la clau primària.
+     */
+    private void carregaCiutatsMogudes(int shard) {
+        try (Session session = Manager.openReadOnlySession(shards.get(shard))) {
+            session.createQuery("SELECT e.ciutatId FROM Ciutat e WHERE e.ciutatId < :desde OR e.ciutatId >= :fins", Long.class)
+                .setParameter("desde", primerId(shard))
+                .setParameter("fins", primerId(shard + 1))
+                .list()
+                .forEach(id -> ciutatsMogudes.put(id, shard));
+        }
+    }
+
+    int shardPerClau(String valor) {
+        return valor == null ? 0 : Math.floorMod(valor.hashCode(), shards.size());
+    }
+
+    /**
+     * @return Shard d'una ciutat: pel seu ID si ja en té, o per la clau si és nova
+     */
+    int shardDe(Ciutat ciutat) {
+        return ciutat.getCiutatId() != null ? shardDeCiutat(ciutat.getCiutatId()) : shardPerClau(clau.apply(ciutat));
+    }
+
+    /**
+     * @return Shard on és la ciutat: el del seu ID, o el nou si s'ha mogut
+     * @throws IllegalArgumentException Si l'ID no correspon a cap shard
+     */
+    int shardDeCiutat(Long ciutatId) {
+        Integer moguda = ciutatsMogudes.get(ciutatId);
+        return moguda != null ? moguda : shardPerId(ciutatId);
+    }
+
+    /**
+     * @return Shard on s'ha generat l'ID
+     * @throws IllegalArgumentException Si l'ID no correspon a cap shard
+     */
+    int shardPerId(Long id) {
+        long shard = id >>> ID_BITS;
+        if (shard >= shards.size()) {
+            throw new IllegalArgumentException("L'ID " + id + " no correspon a cap dels " + shards.size() + " shards");
+        }
+        return (int) shard;
+    }
+
+    /**
+     * @return Shard d'un ciutadà nou: el de la seva ciutat, o per torns si no en té
+     */
+    private int shardDeNou(Ciutada ciutada) {
+        return ciutada.getCiutat() != null
+            ? shardDe(ciutada.getCiutat())
+            : Math.floorMod(torn.getAndIncrement(), shards.size());
+    }
+
+    /**
+     * @return Shard on és el ciutadà (primer el del seu ID), o -1 si no existeix
+     */
+    private int localitzaCiutada(Long ciutadaId) {
+        long casa = ciutadaId >>> ID_BITS;
+        if (casa < shards.size() && existeixCiutada((int) casa, ciutadaId)) {
+            return (int) casa;
+        }
+        for (int shard = 0; shard < shards.size(); shard++) {
+            if (shard != casa && existeixCiutada(shard, ciutadaId)) {
+                return shard;
+            }
+        }
+        return -1;
+    }
+
+    private boolean existeixCiutada(int shard, Long ciutadaId) {
+        try (Session session = Manager.openReadOnlySession(shards.get(shard))) {
+            return session.createQuery("SELECT COUNT(e) FROM Ciutada e WHERE e.ciutadaId = :id", Long.class)
+                .setParameter("id", ciutadaId)
+                .getSingleResult() > 0;
+        }
+    }
+
+    /**
+     * Shard on és cada un d'uns quants ciutadans. En lloc de localitzaCiutada
+     * per a cada ID (fins a N consultes per ciutadà), cada shard rep una sola
+     * consulta WHERE ciutadaId IN (:ids) (en blocs de IN_CHUNK_SIZE) i els
+     * shards es consulten alhora (llegeixTots).
+     *
+     * @return ID → shard dels ciutadans trobats (els inexistents no hi són),
+     *         o null si la consulta ha fallat en algun shard
+     */
+    private Map<Long, Integer> localitzaCiutadans(String operacio, Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return new HashMap<>();
+        }
+        return llegeixTots(operacio, session -> {
+            List<Long> trobats = new ArrayList<>();
+            for (List<Long> bloc : Manager.chunks(ids, Manager.IN_CHUNK_SIZE)) {
+                trobats.addAll(session.createQuery("SELECT e.ciutadaId FROM Ciutada e WHERE e.ciutadaId IN (:ids)", Long.class)
+                    .setParameterList("ids", bloc)
+                    .list());
+            }
+            return trobats;
+        }, parcials -> {
+            // Els parcials arriben en l'ordre dels shards
+            Map<Long, Integer> result = new HashMap<>();
+            for (int shard = 0; shard < parcials.size(); shard++) {
+                for (Long id : parcials.get(shard)) {
+                    result.put(id, shard);
+                }
+            }
+            return result;
+        }, null);
+    }
+
+    // ═══════════════════════════════════════════════════════════════════
+    // EXECUCIÓ EN UN SHARD O EN TOTS
+    // ═══════════════════════════════════════════════════════════════════
+
+    /**
+     * Nucli de les escriptures en un shard: una transacció, pel fil
+     * escriptor del shard si el mode està actiu. Re-llança l'error.
+     *
+     * @param reintentar Reintentar si falla per bloqueig optimista
+     */
+    <R> R executa(int shard, Function<Session, R> work, boolean reintentar) {
+        List<SingleWriter> actuals = escriptors;
+        if (actuals != null) {
+            SingleWriter writer = actuals.get(shard);
+            if (!writer.isWriterThread()) {
+                CompletableFuture<R> pendent = writer.submit(work, reintentar);
+                if (pendent != null) {
+                    return Manager.esperaResultat(pendent);
+                }
+            }
+        }
+        SessionFactory factory = shards.get(shard);
+        return reintentar ? Manager.runWithRetry(factory, work) : Manager.runUnitOfWork(factory, work);
+    }
+
+    /**
+     * Escriptura en un shard (amb reintents de bloqueig optimista).
+     * Com Manager.executeWrite: si falla ho mostra i retorna 'onError'.
+     */
+    private <R> R escriu(String operacio, int shard, Function<Session, R> work, R onError) {
+        long inici = ManagerMetrics.start();
+        boolean error = true;
+        try {
+            R result = executa(shard, work, true);
+            error = false;
+            return result;
+        } catch (RuntimeException e) {
+            // No només PersistenceException: també IllegalArgumentException,
+            // UnsupportedOperationException... (com Manager.executeWrite)
+            System.err.println("Error a " + operacio + " (shard " + shard + "): " + e.getMessage());
+            e.printStackTrace();
+            return onError;
+        } finally {
+            ManagerMetrics.record(operacio, inici, error);
+        }
+    }
+
+    /**
+     * La mateixa escriptura a tots els shards, una transacció per shard.
+     *
+     * @return Suma dels resultats, o -1 si algun shard ha fallat
+     *         (els altres shards ja han fet commit)
+     */
+    private int escriuTots(String operacio, Function<Session, Integer> work) {
+        int total = 0;
+        boolean error = false;
+        for (int shard = 0; shard < shards.size(); shard++) {
+            Integer parcial = escriu(operacio, shard, work, -1);
+            if (parcial < 0) {
+                error = true;
+            } else {
+                total += parcial;
+            }
+        }
+        return error ? -1 : total;
+    }
+
+    /**
+     * Lectura en un shard amb una sessió de només lectura.
+     */
+    private <R> R llegeix(String operacio, int shard, Function<Session, R> work, R onError) {
+        long inici = ManagerMetrics.start();
+        boolean error = true;
+        try (Session session = Manager.openReadOnlySession(shards.get(shard))) {
+            R result = work.apply(session);
+            error = false;
+            return result;
+        } catch (Exception e) {
+            System.err.println("Error a " + operacio + " (shard " + shard + "): " + e.getMessage());
+            e.printStackTrace();
+            return onError;
+        } finally {
+            ManagerMetrics.record(operacio, inici, error);
+        }
+    }
+
+    /**
+     * FAN-OUT: la consulta es llança a tots els shards alhora (un fil
+     * virtual per shard) i 'fusio' combina els resultats parcials.
+     * El temps total és el del shard més lent, no la suma.
+     */
+    private <P, R> R consultaTots(String operacio, Function<SessionFactory, P> perShard,
+                                  Function<List<P>, R> fusio, R onError) {
+        long inici = ManagerMetrics.start();
+        boolean error = true;
+        try {
+            List<Future<P>> pendents = new ArrayList<>(shards.size());
+            for (SessionFactory shard : shards) {
+                pendents.add(fanOut.submit(() -> perShard.apply(shard)));
+            }
+            List<P> parcials = new ArrayList<>(shards.size());
+            for (Future<P> pendent : pendents) {
+                parcials.add(pendent.get());
+            }
+            R result = fusio.apply(parcials);
+            error = false;
+            return result;
+        } catch (ExecutionException e) {
+            System.err.println("Error a " + operacio + ": " + e.getCause().getMessage());
+            e.getCause().printStackTrace();
+            return onError;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("Error a " + operacio + ": interromput");
+            return onError;
+        } finally {
+            ManagerMetrics.record(operacio, inici, error);
+        }
+    }
+
+    /**
+     * Variant de consultaTots amb una sessió de només lectura per shard.
+     */
+    private <P, R> R llegeixTots(String operacio, Function<Session, P> work,
+                                 Function<List<P>, R> fusio, R onError) {
+        return consultaTots(operacio, shard -> {
+            try (Session session = Manager.openReadOnlySession(shard)) {
+                return work.apply(session);
+            }
+        }, fusio, onError);
+    }
+
+    private static <T> List<T> concatena(List<? extends Collection<T>> parcials) {
+        List<T> result = new ArrayList<>();
+        parcials.forEach(result::addAll);
+        return result;
+    }
+
+    // ═══════════════════════════════════════════════════════════════════
+    // UNITAT DE TREBALL, ESCRIPTOR ÚNIC I WRITE-BEHIND
+    // ═══════════════════════════════════════════════════════════════════
+
+    /**
+     * Unitat de treball al shard d'una clau (com Manager.withUnitOfWork:
+     * una transacció, sense reintents, l'error es re-llança).
+     *
+     * Una transacció no pot abastar diversos fitxers: 'work' només ha de
+     * tocar dades d'aquest shard (les ciutats amb aquesta clau i els seus
+     * ciutadans). Les entitats noves hi reben IDs del shard.
+     */
+    <R> R withUnitOfWork(String valorClau, Function<Session, R> work) {
+        return executa(shardPerClau(valorClau), work, false);
+    }
+
+    /**
+     * Unitat de treball sense clau de shard: al shard per defecte. 'work'
+     * només hi veu les dades d'aquest shard, i el que hi crea hi rep IDs
+     * (i s'hi queda) encara que la clau correspongui a un altre shard.
+     */
+    <R> R withUnitOfWork(Function<Session, R> work) {
+        return executa(SHARD_PER_DEFECTE, work, false);
+    }
+
+    /**
+     * Un escriptor únic (o group commit) PER SHARD: cada fitxer té el seu
+     * propi bloqueig d'escriptura, així que els shards continuen escrivint
+     * en paral·lel entre ells.
+     */
+    synchronized void enableSingleWriter(int maxGrup, Duration finestra, boolean ambSavepoints) {
+        disableSingleWriter();
+        List<SingleWriter> nous = new ArrayList<>(shards.size());
+        for (SessionFactory shard : shards) {
+            nous.add(new SingleWriter(shard, maxGrup, finestra, ambSavepoints));
+        }
+        escriptors = List.copyOf(nous);
+    }
+
+    /**
+     * Atura els escriptors dels shards després d'executar les seves cues.
+     */
+    synchronized void disableSingleWriter() {
+        List<SingleWriter> actuals = escriptors;
+        if (actuals == null) return;
+        escriptors = null;
+        actuals.forEach(SingleWriter::close);
+    }
+
+    boolean isSingleWriterEnabled() {
+        return escriptors != null;
+    }
+
+    /**
+     * @return Operacions a les cues de tots els escriptors
+     */
+    int writeQueueDepth() {
+        List<SingleWriter> actuals = escriptors;
+        return actuals == null ? 0 : actuals.stream().mapToInt(SingleWriter::size).sum();
+    }
+
+    /**
+     * Flush write-behind: cada ciutadà és en un sol shard, així que el lot
+     * s'aplica a tots (multiLoad ignora els IDs que no hi són), una
+     * transacció per shard. Si un shard falla es llança l'error: el buffer
+     * reintenta el lot i tornar a aplicar els mateixos valors als shards
+     * que ja havien fet commit no canvia res.
+     */
+    void applyCiutadaUpdates(Map<Long, WriteBehindBuffer.Canvi> canvis) {
+        for (int shard = 0; shard < shards.size(); shard++) {
+            executa(shard, session -> {
+                Manager.applyCiutadaUpdates(session, canvis);
+                return null;
+            }, true);
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════════════════
+    // CREATE
+    // ═══════════════════════════════════════════════════════════════════
+
+    Ciutat addCiutat(String nom, String pais, Integer poblacio) {
+        int shard = shardDe(new Ciutat(nom, pais, poblacio));
+        return escriu("addCiutat", shard, session -> Manager.addCiutat(session, nom, pais, poblacio), null);
+    }
+
+    Ciutada addCiutada(String nom, String cognom, Integer edat) {
+        int shard = Math.floorMod(torn.getAndIncrement(), shards.size());
+        return escriu("addCiutada", shard, session -> Manager.addCiutada(session, nom, cognom, edat), null);
+    }
+
+    List<Long> addCiutatsBatch(Iterable<Ciutat> ciutats, int batchSize) {
+        return persistBatch(Ciutat.class, ciutats, batchSize, Ciutat::getCiutatId, this::shardDe);
+    }
+
+    List<Long> addCiutadansBatch(Iterable<Ciutada> ciutadans, int batchSize) {
+        return persistBatch(Ciutada.class, ciutadans, batchSize, Ciutada::getCiutadaId, this::shardDeNou);
+    }
+
+    /**
+     * Insercions per lots repartides: cada shard acumula els seus elements
+     * i, quan en té 'batchSize', els insereix en una transacció pròpia.
+     * La memòria queda limitada a N × batchSize elements pendents (més
+     * un ID per element, com la llista que es retorna).
+     *
+     * Com Manager.persistBatch, un lot que falla no desfà els ja confirmats.
+     * Els IDs es retornen en l'ordre d'entrada: cada lot recorda la posició
+     * dels seus elements i els dels lots fallits no hi surten.
+     */
+    private <T> List<Long> persistBatch(Class<T> clazz, Iterable<? extends T> items, int batchSize,
+                                        Function<T, Long> idGetter, ToIntFunction<T> encaminament) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize ha de ser positiu: " + batchSize);
+        }
+        List<List<T>> pendents = new ArrayList<>(shards.size());
+        List<List<Integer>> posicions = new ArrayList<>(shards.size());
+        for (int shard = 0; shard < shards.size(); shard++) {
+            pendents.add(new ArrayList<>(batchSize));
+            posicions.add(new ArrayList<>(batchSize));
+        }
+        // Un lloc per element en ordre d'entrada; null = lot no confirmat
+        List<Long> perPosicio = new ArrayList<>();
+        String operacio = "persistBatch(" + clazz.getSimpleName() + ")";
+
+        for (T item : items) {
+            int shard = encaminament.applyAsInt(item);
+            List<T> lot = pendents.get(shard);
+            lot.add(item);
+            posicions.get(shard).add(perPosicio.size());
+            perPosicio.add(null);
+            if (lot.size() == batchSize) {
+                desaLot(operacio, shard, lot, posicions.get(shard), idGetter, perPosicio);
+            }
+        }
+        for (int shard = 0; shard < shards.size(); shard++) {
+            if (!pendents.get(shard).isEmpty()) {
+                desaLot(operacio, shard, pendents.get(shard), posicions.get(shard), idGetter, perPosicio);
+            }
+        }
+
+        List<Long> result = perPosicio.stream().filter(id -> id != null).toList();
+        ManagerMetrics.recordRows(operacio, result.size());
+        return result;
+    }
+
+    /**
+     * Insereix un lot al seu shard, n'anota els IDs a 'perPosicio' (si
+     * confirma) i el buida.
+     */
+    private <T> void desaLot(String operacio, int shard, List<T> lot, List<Integer> posicions,
+                             Function<T, Long> idGetter, List<Long> perPosicio) {
+        List<Long> ids = escriu(operacio, shard, session -> {
+            session.setJdbcBatchSize(lot.size());
+            List<Long> generats = new ArrayList<>(lot.size());
+            for (T item : lot) {
+                Manager.referenciaCiutat(session, item);
+                session.persist(item);
+                generats.add(idGetter.apply(item));
+            }
+            return generats;
+        }, Collections.emptyList());
+        for (int i = 0; i < ids.size(); i++) {
+            perPosicio.set(posicions.get(i), ids.get(i));
+        }
+        lot.clear();
+        posicions.clear();
+    }
+
+    // ═══════════════════════════════════════════════════════════════════
+    // UPDATE
+    // ═══════════════════════════════════════════════════════════════════
+
+    void updateCiutada(Long ciutadaId, String nom, String cognom, Integer edat) {
+        int shard = localitzaCiutada(ciutadaId);
+        if (shard < 0) {
+            System.err.println("Ciutada no trobada amb id: " + ciutadaId);
+            return;
+        }
+        escriu("updateCiutada", shard, session -> {
+            Manager.updateCiutada(session, ciutadaId, nom, cognom, edat);
+            return null;
+        }, null);
+    }
+
+    /**
+     * Valors d'un ciutadà que canvia de shard (les columnes de la taula).
+     */
+    private record FilaCiutada(Long id, Long versio, String nom, String cognom, Integer edat, Long ciutatId) {}
+
+    /**
+     * Valors d'una ciutat que canvia de shard (les columnes de la taula).
+     */
+    private record FilaCiutat(Long id, Long versio, String nom, String pais, Integer poblacio) {}
+
+    /**
+     * Ciutat treta del seu shard d'origen amb els ciutadans que hi tenia.
+     */
+    private record CiutatTreta(FilaCiutat ciutat, List<FilaCiutada> ciutadans) {}
+
+    /**
+     * updateCiutat en el shard de la ciutat.
+     *
+     * Els ciutadans del conjunt que són en un altre shard s'hi MOUEN primer,
+     * amb el mateix ID (es localitzen tots alhora, una consulta per shard).
+     * Si la nova clau de la ciutat correspon a un altre shard, la ciutat
+     * també es MOU, amb el mateix ID i amb tots els ciutadans que té:
+     * 1. A cada shard d'origen, en una transacció: es llegeixen i s'esborren
+     *    (primer al de la ciutat, si es mou)
+     * 2. Al shard de destí, en una sola transacció: s'insereixen (la ciutat
+     *    abans que els ciutadans) i es fa l'updateCiutat
+     * 3. Si algun pas falla, COMPENSACIÓ: els ja esborrats es tornen a
+     *    inserir al seu shard d'origen tal com eren (versió i ciutat incloses)
+     * Una fila no és mai a dos shards alhora (mentre es mou, no és a cap).
+     * Si la compensació també falla, es mostren els IDs que s'han perdut.
+     *
+     * El canvi de shard només el fa aquest mètode: Manager.updateCiutat(session, ...)
+     * dins una unitat de treball no pot sortir del shard de la seva transacció.
+     */
+    void updateCiutat(Long ciutatId, String nom, String pais, Integer poblacio, Set<Ciutada> ciutadans) {
+        int origenCiutat = shardDeCiutat(ciutatId);
+        int shard = shardPerClau(clau.apply(new Ciutat(nom, pais, poblacio)));
+        boolean mouCiutat = shard != origenCiutat;
+
+        // Ciutadans d'altres shards, agrupats pel shard on són ara
+        List<Long> ids = new ArrayList<>();
+        if (ciutadans != null) {
+            for (Ciutada ciutada : ciutadans) {
+                if (ciutada.getCiutadaId() != null) ids.add(ciutada.getCiutadaId());
+            }
+        }
+        Map<Long, Integer> on = localitzaCiutadans("updateCiutat", ids);
+        if (on == null) {
+            return;
+        }
+        Map<Integer, List<Long>> forans = new LinkedHashMap<>();
+        if (mouCiutat) {
+            // El shard de la ciutat primer: si no s'hi troba, no es toca res més
+            forans.put(origenCiutat, new ArrayList<>());
+        }
+        for (Long id : ids) {
+            Integer origen = on.get(id);
+            if (origen != null && origen != shard) {
+                forans.computeIfAbsent(origen, k -> new ArrayList<>()).add(id);
+            }
+        }
+        if (!forans.isEmpty() && !llegeix("updateCiutat", origenCiutat, session -> session.get(Ciutat.class, ciutatId) != null, false)) {
+            System.err.println("Ciutat no trobada amb id: " + ciutatId);
+            return;
+        }
+
+        // Pas 1: treure-ho dels shards d'origen
+        Map<Integer, List<FilaCiutada>> moguts = new LinkedHashMap<>();
+        FilaCiutat ciutatMoguda = null;
+        for (Map.Entry<Integer, List<Long>> origen : forans.entrySet()) {
+            if (mouCiutat && origen.getKey() == origenCiutat) {
+                CiutatTreta treta = escriu("updateCiutat", origenCiutat,
+                    session -> treuCiutat(session, ciutatId, origen.getValue()), null);
+                if (treta == null) {
+                    retorna(moguts, null, origenCiutat);
+                    return;
+                }
+                ciutatMoguda = treta.ciutat();
+                moguts.put(origenCiutat, treta.ciutadans());
+                continue;
+            }
+            List<FilaCiutada> files = escriu("updateCiutat", origen.getKey(),
+                session -> treuCiutadans(session, origen.getValue()), null);
+            if (files == null) {
+                retorna(moguts, ciutatMoguda, origenCiutat);
+                return;
+            }
+            moguts.put(origen.getKey(), files);
+        }
+
+        // Pas 2: inserir-ho al shard de destí i vincular els ciutadans
+        FilaCiutat ciutatInserida = ciutatMoguda;
+        Boolean fet = escriu("updateCiutat", shard, session -> {
+            if (ciutatInserida != null) {
+                insereix(session, ciutatInserida);
+            } else if (session.get(Ciutat.class, ciutatId) == null) {
+                System.err.println("Ciutat no trobada amb id: " + ciutatId);
+                return false;
+            }
+            for (List<FilaCiutada> files : moguts.values()) {
+                for (FilaCiutada fila : files) {
+                    // Només els que ja eren d'aquesta ciutat hi arriben vinculats
+                    insereix(session, fila, ciutatId.equals(fila.ciutatId()) ? ciutatId : null);
+                }
+            }
+            Manager.updateCiutat(session, ciutatId, nom, pais, poblacio, ciutadans);
+            return true;
+        }, false);
+
+        if (fet) {
+            if (mouCiutat) {
+                anotaCiutat(ciutatId, shard);
+            }
+        } else {
+            // Pas 3 (només si el 2 ha fallat): desfer el pas 1
+            retorna(moguts, ciutatMoguda, origenCiutat);
+        }
+    }
+
+    /**
+     * Anota el shard on ara és una ciutat (cap anotació si és el del seu ID).
+     */
+    private void anotaCiutat(Long ciutatId, int shard) {
+        if (shard == shardPerId(ciutatId)) {
+            ciutatsMogudes.remove(ciutatId);
+        } else {
+            ciutatsMogudes.put(ciutatId, shard);
+        }
+    }
+
+    /**
+     * Llegeix i esborra una ciutat, tots els seus ciutadans i els ciutadans
+     * 'altres' (del conjunt nou) dins la transacció de 'session'.
+     *
+     * @throws IllegalStateException Si la ciutat ja no hi és (es fa rollback)
+     */
+    private static CiutatTreta treuCiutat(Session session, Long ciutatId, List<Long> altres) {
+        Object[] v = session.createQuery(
+                "SELECT e.ciutatId, e.versio, e.nom, e.pais, e.poblacio FROM Ciutat e WHERE e.ciutatId = :id", Object[].class)
+            .setParameter("id", ciutatId)
+            .uniqueResult();
+        if (v == null) {
+            throw new IllegalStateException("Ciutat no trobada amb id: " + ciutatId);
+        }
+        FilaCiutat ciutat = new FilaCiutat((Long) v[0], (Long) v[1], (String) v[2], (String) v[3], (Integer) v[4]);
+
+        Set<Long> ids = new LinkedHashSet<>(session
+            .createQuery("SELECT e.ciutadaId FROM Ciutada e WHERE e.ciutat.ciutatId = :id", Long.class)
+            .setParameter("id", ciutatId)
+            .list());
+        ids.addAll(altres);
+        List<FilaCiutada> ciutadans = treuCiutadans(session, new ArrayList<>(ids));
+        session.createMutationQuery("DELETE FROM Ciutat e WHERE e.ciutatId = :id")
+            .setParameter("id", ciutatId)
+            .executeUpdate();
+        return new CiutatTreta(ciutat, ciutadans);
+    }
+
+    /**
+     * Llegeix i esborra uns ciutadans dins la transacció de 'session'.
+     */
+    private static List<FilaCiutada> treuCiutadans(Session session, List<Long> ids) {
+        List<FilaCiutada> files = new ArrayList<>(ids.size());
+        for (List<Long> bloc : Manager.chunks(ids, Manager.IN_CHUNK_SIZE)) {
+            List<Object[]> valors = session.createQuery(
+                    "SELECT e.ciutadaId, e.versio, e.nom, e.cognom, e.edat, c.ciutatId "
+                  + "FROM Ciutada e LEFT JOIN e.ciutat c WHERE e.ciutadaId IN (:ids)", Object[].class)
+                .setParameterList("ids", bloc)
+                .list();
+            for (Object[] v : valors) {
+                files.add(new FilaCiutada((Long) v[0], (Long) v[1], (String) v[2], (String) v[3], (Integer) v[4], (Long) v[5]));
+            }
+        }
+        Manager.deleteAll(session, Ciutada.class, ids);
+        return files;
+    }
+
+    /**
+     * Insereix un ciutadà amb el seu ID original (SQL natiu: persist en
+     * generaria un de nou).
+     */
+    private static void insereix(Session session, FilaCiutada fila, Long ciutatId) {
+        session.createNativeMutationQuery(
+                "INSERT INTO ciutadans (ciutada_id, versio, nom, cognom, edat, ciutat_id) "
+              + "VALUES (:id, :versio, :nom, :cognom, :edat, :ciutat)")
+            .setParameter("id", fila.id())
+            .setParameter("versio", fila.versio() != null ? fila.versio() : 0L)
+            .setParameter("nom", fila.nom())
+            .setParameter("cognom", fila.cognom())
+            .setParameter("edat", fila.edat())
+            .setParameter("ciutat", ciutatId, Long.class)
+            .executeUpdate();
+    }
+
+    /**
+     * Insereix una ciutat amb el seu ID i la seva versió originals.
+     */
+    private static void insereix(Session session, FilaCiutat fila) {
+        session.createNativeMutationQuery(
+                "INSERT INTO ciutats (ciutat_id, versio, nom, pais, poblacio) "
+              + "VALUES (:id, :versio, :nom, :pais, :poblacio)")
+            .setParameter("id", fila.id())
+            .setParameter("versio", fila.versio() != null ? fila.versio() : 0L)
+            .setParameter("nom", fila.nom())
+            .setParameter("pais", fila.pais(), String.class)
+            .setParameter("poblacio", fila.poblacio(), Integer.class)
+            .executeUpdate();
+    }
+
+    /**
+     * Compensació d'un moviment fallit: torna cada ciutadà (i la ciutat, si
+     * s'ha tret) al seu shard d'origen.
+     *
+     * @param ciutat       Ciutat treta del shard 'origenCiutat' (null si no s'ha mogut)
+     * @param origenCiutat Shard d'on s'ha tret la ciutat
+     */
+    private void retorna(Map<Integer, List<FilaCiutada>> moguts, FilaCiutat ciutat, int origenCiutat) {
+        moguts.forEach((origen, files) -> {
+            FilaCiutat ciutatDAqui = origen == origenCiutat ? ciutat : null;
+            Boolean tornats = escriu("updateCiutat", origen, session -> {
+                // La ciutat abans que els ciutadans que hi apunten
+                if (ciutatDAqui != null) insereix(session, ciutatDAqui);
+                files.forEach(fila -> insereix(session, fila, fila.ciutatId()));
+                return true;
+            }, false);
+            if (!tornats) {
+                System.err.println("Files perdudes en moure-les des del shard " + origen + ": "
+                    + (ciutatDAqui != null ? "ciutat " + ciutatDAqui.id() + ", " : "")
+                    + "ciutadans " + files.stream().map(FilaCiutada::id).toList());
+            }
+        });
+    }
+
+    int updateCiutadansWhere(String setClause, String whereClause, Map<String, ?> params) {
+        return escriuTots("updateCiutadansWhere",
+            session -> Manager.updateCiutadansWhere(session, setClause, whereClause, params));
+    }
+
+    // ═══════════════════════════════════════════════════════════════════
+    // READ
+    // ═══════════════════════════════════════════════════════════════════
+
+    Ciutat getCiutatWithCiutadans(Long ciutatId) {
+        return llegeix("getCiutatWithCiutadans", shardDeCiutat(ciutatId),
+            session -> Manager.getCiutatWithCiutadans(session, ciutatId), null);
+    }
+
+    /**
+     * La ciutat és al shard de la seva clau, però la clau pot dependre
+     * d'altres camps: es busca a tots els shards.
+     */
+    Long findCiutatId(String nom, String pais) {
+        return llegeixTots("findCiutatId", session -> Optional.ofNullable(Manager.findCiutatId(session, nom, pais)),
+            parcials -> parcials.stream().flatMap(Optional::stream).findFirst().orElse(null), null);
+    }
+
+    /**
+     * Cada shard ja retorna la seva part ordenada; la llista concatenada
+     * són N tirades ordenades, que List.sort (TimSort) fusiona en temps gairebé lineal.
+     */
+    <T> List<T> listCollection(Class<T> clazz, String orderBy) {
+        Comparator<T> ordre = comparadorPer(clazz, orderBy);
+        return llegeixTots("listCollection", session -> Manager.listCollection(session, clazz, orderBy),
+            parcials -> ordena(concatena(parcials), ordre), Collections.emptyList());
+    }
+
+    <T> List<T> listCollectionStateless(Class<T> clazz, String orderBy) {
+        Comparator<T> ordre = comparadorPer(clazz, orderBy);
+        String hql = "FROM " + clazz.getSimpleName()
+                   + (orderBy != null && !orderBy.isEmpty() ? " ORDER BY " + orderBy : "");
+        return consultaTots("listCollectionStateless", shard -> {
+            try (StatelessSession session = shard.openStatelessSession()) {
+                return session.createQuery(hql, clazz).setReadOnly(true).list();
+            }
+        }, parcials -> ordena(concatena(parcials), ordre), Collections.emptyList());
+    }
+
+    /**
+     * Pàgina keyset repartida.
+     *
+     * Cada shard aplica el mateix cursor i retorna la seva pàgina (fins a
+     * pageSize elements, ja ordenats per valor i ID). Els primers pageSize
+     * de la fusió són la pàgina global: cap element d'un shard pot quedar
+     * entre dos d'una altra pàgina seva, perquè tots filtren pel mateix
+     * cursor. Hi ha pàgina següent si sobren elements o si algun shard en té més.
+     *
+     * @param ordre Propietat d'ordenació ja validada (Manager.ordreKeyset)
+     */
+    <T> Page<T> listPage(Class<T> clazz, String ordre, Page.Cursor after, int pageSize) {
+        EntityPersister persister = Manager.persister(shards.get(0), clazz);
+        String idProp = persister.getIdentifierPropertyName();
+        Comparator<T> comparador = comparadorPer(clazz, ordre.equals(idProp) ? idProp : ordre + ", " + idProp);
+        return llegeixTots("listPage", session -> Manager.listPage(session, clazz, ordre, after, pageSize), parcials -> {
+            List<T> items = new ArrayList<>();
+            boolean mes = false;
+            for (Page<T> parcial : parcials) {
+                items.addAll(parcial.items());
+                mes |= parcial.hasNext();
+            }
+            items.sort(comparador);
+            if (items.size() > pageSize) {
+                items = new ArrayList<>(items.subList(0, pageSize));
+                mes = true;
+            }
+            Page.Cursor next = mes && !items.isEmpty()
+                ? Manager.cursorKeyset(persister, ordre, items.get(items.size() - 1))
+                : null;
+            return new Page<>(items, next);
+        }, new Page<>(Collections.emptyList(), null));
+    }
+
+    /**
+     * Stream repartit: un cursor per shard, oberts alhora.
+     *
+     * Amb orderBy es fa una FUSIÓ K-WAY: cada shard ja retorna les files
+     * ordenades i una cua de prioritat amb la fila actual de cada shard
+     * dona sempre la més petita. La memòria continua sent constant (una
+     * fila i un fetchSize per shard). Sense orderBy les files surten a
+     * mesura que arriben de cada shard.
+     *
+     * Tancar el Stream tanca els cursors i les sessions de tots els shards.
+     */
+    <T> Stream<T> stream(Class<T> clazz, String orderBy, int fetchSize) {
+        Comparator<T> ordre = comparadorPer(clazz, orderBy);
+        List<Stream<T>> parcials = new ArrayList<>(shards.size());
+        try {
+            for (SessionFactory shard : shards) {
+                parcials.add(Manager.stream(shard, clazz, orderBy, fetchSize));
+            }
+        } catch (RuntimeException e) {
+            tancaTots(parcials);
+            throw e;
+        }
+        List<Iterator<T>> cursors = new ArrayList<>(parcials.size());
+        parcials.forEach(parcial -> cursors.add(parcial.iterator()));
+        Iterator<T> fusio = new Fusio<>(cursors, ordre != null ? ordre : (a, b) -> 0);
+        return StreamSupport
+            .stream(Spliterators.spliteratorUnknownSize(fusio, Spliterator.ORDERED | Spliterator.NONNULL), false)
+            .onClose(() -> tancaTots(parcials));
+    }
+
+    private static void tancaTots(List<? extends Stream<?>> streams) {
+        RuntimeException error = null;
+        for (Stream<?> stream : streams) {
+            try {
+                stream.close();
+            } catch (RuntimeException e) {
+                if (error == null) error = e; else error.addSuppressed(e);
+            }
+        }
+        if (error != null) throw error;
+    }
+
+    /**
+     * Fusió de N iteradors ordenats en un de sol (k-way merge).
+     * La primera fila de cada shard es llegeix en el primer hasNext().
+     */
+    private static final class Fusio<T> implements Iterator<T> {
+        private record Cap<T>(T element, Iterator<T> resta) {}
+
+        private final List<Iterator<T>> cursors;
+        private final PriorityQueue<Cap<T>> caps;
+        private boolean iniciat;
+
+        Fusio(List<Iterator<T>> cursors, Comparator<? super T> ordre) {
+            this.cursors = cursors;
+            this.caps = new PriorityQueue<>(Math.max(1, cursors.size()),
+                (a, b) -> ordre.compare(a.element(), b.element()));
+        }
+
+        private void avanca(Iterator<T> cursor) {
+            if (cursor.hasNext()) {
+                caps.add(new Cap<>(cursor.next(), cursor));
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (!iniciat) {
+                iniciat = true;
+                cursors.forEach(this::avanca);
+            }
+            return !caps.isEmpty();
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            Cap<T> cap = caps.poll();
+            avanca(cap.resta());
+            return cap.element();
+        }
+    }
+
+    List<Ciutat> findAllCiutatsWithCiutadans() {
+        return llegeixTots("findAllCiutatsWithCiutadans", Manager::findAllCiutatsWithCiutadans,
+            ShardedManager::concatena, Collections.emptyList());
+    }
+
+    List<CiutatSummary> listCiutatSummaries() {
+        Comparator<CiutatSummary> ordre = Comparator
+            .comparing(CiutatSummary::nom, Comparator.nullsFirst(Comparator.<String>naturalOrder()))
+            .thenComparing(CiutatSummary::id);
+        return llegeixTots("listCiutatSummaries", Manager::listCiutatSummaries,
+            parcials -> ordena(concatena(parcials), ordre), Collections.emptyList());
+    }
+
+    List<CiutadaSummary> listCiutadaSummaries() {
+        Comparator<String> text = Comparator.nullsFirst(Comparator.naturalOrder());
+        Comparator<CiutadaSummary> ordre = Comparator
+            .comparing(CiutadaSummary::cognom, text)
+            .thenComparing(CiutadaSummary::nom, text)
+            .thenComparing(CiutadaSummary::id);
+        return llegeixTots("listCiutadaSummaries", Manager::listCiutadaSummaries,
+            parcials -> ordena(concatena(parcials), ordre), Collections.emptyList());
+    }
+
+    private static <T> List<T> ordena(List<T> llista, Comparator<? super T> ordre) {
+        if (ordre != null) {
+            llista.sort(ordre);
+        }
+        return llista;
+    }
+
+    /**
+     * Tradueix un ORDER BY HQL senzill ("e.cognom DESC, nom") a un Comparator
+     * sobre els getters de l'entitat, per ordenar la fusió dels shards.
+     * Els NULL van primer en ordre ascendent (com a SQLite i MySQL).
+     *
+     * @return Comparator, o null si no hi ha ordre
+     * @throws UnsupportedOperationException Si l'ordre no és una llista de propietats
+     */
+    static <T> Comparator<T> comparadorPer(Class<T> clazz, String orderBy) {
+        if (orderBy == null || orderBy.isBlank()) {
+            return null;
+        }
+        Comparator<T> result = null;
+        for (String terme : orderBy.split(",")) {
+            String[] parts = terme.trim().split("\\s+");
+            boolean desc = parts.length == 2 && parts[1].equalsIgnoreCase("DESC");
+            if (parts.length > 2 || (parts.length == 2 && !desc && !parts[1].equalsIgnoreCase("ASC"))) {
+                throw new UnsupportedOperationException("ORDER BY no suportat amb sharding: " + orderBy);
+            }
+            String propietat = parts[0].substring(parts[0].lastIndexOf('.') + 1);
+            Method getter;
+            try {
+                getter = clazz.getMethod("get" + Character.toUpperCase(propietat.charAt(0)) + propietat.substring(1));
+            } catch (NoSuchMethodException | StringIndexOutOfBoundsException e) {
+                throw new UnsupportedOperationException("ORDER BY no suportat amb sharding: " + orderBy, e);
+            }
+            Comparator<T> camp = Comparator.comparing(item -> valor(getter, item),
+                desc ? Comparator.nullsLast(Comparator.<Comparable<Object>>naturalOrder().reversed())
+                     : Comparator.nullsFirst(Comparator.<Comparable<Object>>naturalOrder()));
+            result = result == null ? camp : result.thenComparing(camp);
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Comparable<Object> valor(Method getter, Object item) {
+        try {
+            return (Comparable<Object>) getter.invoke(item);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════════════════
+    // AGREGACIONS (cada shard agrega la seva part i es fusiona)
+    // ═══════════════════════════════════════════════════════════════════
+
+    long count(Class<?> clazz, String whereClause, Map<String, ?> params) {
+        return llegeixTots("count", session -> Manager.count(session, clazz, whereClause, params),
+            parcials -> parcials.stream().mapToLong(Long::longValue).sum(), -1L);
+    }
+
+    /**
+     * Amb la clau per defecte (país) cada país és en un sol shard, però amb
+     * una altra clau un país pot estar repartit: es combinen les files per país.
+     */
+    List<PaisPoblacio> poblacioPerPais() {
+        return llegeixTots("poblacioPerPais", Manager::poblacioPerPais, parcials -> {
+            Map<String, PaisPoblacio> perPais = new HashMap<>();
+            for (List<PaisPoblacio> parcial : parcials) {
+                for (PaisPoblacio fila : parcial) {
+                    perPais.merge(fila.pais(), fila, (a, b) -> new PaisPoblacio(a.pais(),
+                        a.numCiutats() + b.numCiutats(), a.poblacioTotal() + b.poblacioTotal()));
+                }
+            }
+            List<PaisPoblacio> result = new ArrayList<>(perPais.values());
+            result.sort(Comparator.comparing(PaisPoblacio::poblacioTotal).reversed()
+                .thenComparing(PaisPoblacio::pais, Comparator.nullsFirst(Comparator.naturalOrder())));
+            return result;
+        }, Collections.emptyList());
+    }
+
+    /**
+     * Els ciutadans d'una ciutat són tots al seu shard: n'hi ha prou amb concatenar.
+     */
+    List<EdatCiutat> edatPerCiutat() {
+        Comparator<EdatCiutat> ordre = Comparator
+            .comparing(EdatCiutat::ciutat, Comparator.nullsFirst(Comparator.<String>naturalOrder()))
+            .thenComparing(EdatCiutat::ciutatId);
+        return llegeixTots("edatPerCiutat", Manager::edatPerCiutat,
+            parcials -> ordena(concatena(parcials), ordre), Collections.emptyList());
+    }
+
+    SortedMap<Integer, Long> histogramaEdats(int ampladaTram) {
+        return llegeixTots("histogramaEdats", session -> Manager.histogramaEdats(session, ampladaTram),
+            ShardedManager::sumaHistogrames, new TreeMap<>());
+    }
+
+    /**
+     * Mediana d'una ciutat: al seu shard. Mediana global (ciutatId null):
+     * les medianes no es poden combinar, però els histogrames d'amplada 1 sí.
+     */
+    Double edatMediana(Long ciutatId) {
+        if (ciutatId != null) {
+            return llegeix("edatMediana", shardDeCiutat(ciutatId), session -> Manager.edatMediana(session, ciutatId), null);
+        }
+        return llegeixTots("edatMediana", session -> Manager.histogramaEdats(session, 1),
+            parcials -> Manager.medianaDeHistograma(sumaHistogrames(parcials)), null);
+    }
+
+    private static SortedMap<Integer, Long> sumaHistogrames(List<SortedMap<Integer, Long>> parcials) {
+        SortedMap<Integer, Long> result = new TreeMap<>();
+        for (SortedMap<Integer, Long> parcial : parcials) {
+            parcial.forEach((tram, n) -> result.merge(tram, n, Long::sum));
+        }
+        return result;
+    }
+
+    // ═══════════════════════════════════════════════════════════════════
+    // DELETE
+    // ═══════════════════════════════════════════════════════════════════
+
+    <T> void delete(Class<T> clazz, Long id) {
+        int shard = clazz == Ciutada.class ? localitzaCiutada(id) : shardDeCiutat(id);
+        if (shard < 0) {
+            System.err.println("Ciutada no trobada amb id: " + id);
+            return;
+        }
+        escriu("delete", shard, session -> {
+            Manager.delete(session, clazz, id);
+            return null;
+        }, null);
+        if (clazz == Ciutat.class) {
+            ciutatsMogudes.remove(id);
+        }
+    }
+
+    <T> int deleteAll(Class<T> clazz, Collection<Long> ids) {
+        return escriuTots("deleteAll", session -> Manager.deleteAll(session, clazz, ids));
+    }
+
+    <T> int deleteWhere(Class<T> clazz, String whereClause, Map<String, ?> params) {
+        return escriuTots("deleteWhere", session -> Manager.deleteWhere(session, clazz, whereClause, params));
+    }
+}
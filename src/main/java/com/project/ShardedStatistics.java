@@ -0,0 +1,192 @@
+package com.project;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.hibernate.stat.Statistics;
+
+/**
+ * Statistics de Hibernate de TOTS els shards com si fossin una sola BBDD.
+ *
+ * Cada shard té la seva SessionFactory i les seves Statistics. Aquesta
+ * classe en fa una vista combinada (un Proxy de la interfície, de manera
+ * que segueix qualsevol mètode que Hibernate hi afegeixi):
+ * - Comptadors (long/int): se sumen
+ * - ...Max... / ...Min...: el màxim / mínim dels shards
+ * - ...Avg...: mitjana ponderada per getExecutionCount()
+ * - Valors no suportats (negatius, p. ex. -1 a getElementCountInMemory): -1
+ * - Noms (entitats, regions, consultes): la unió
+ * - getStart: el més antic
+ * - Text del màxim (getQueryExecutionMaxTimeQueryString...): el del shard
+ *   amb el temps màxim
+ * - Estadístiques per entitat, col·lecció, consulta o regió: una altra
+ *   vista combinada dels shards que en tenen
+ * - Mètodes void (clear, setStatisticsEnabled, logSummary): a tots els shards
+ */
+final class ShardedStatistics implements InvocationHandler {
+
+    private final List<?> parts;
+
+    private ShardedStatistics(List<?> parts) {
+        this.parts = parts;
+    }
+
+    /**
+     * @param perShard Statistics de cada shard
+     * @return Vista que combina tots els shards
+     */
+    static Statistics of(List<Statistics> perShard) {
+        return combina(Statistics.class, perShard);
+    }
+
+    private static <T> T combina(Class<T> interficie, List<?> parts) {
+        return interficie.cast(Proxy.newProxyInstance(interficie.getClassLoader(),
+            new Class<?>[] {interficie}, new ShardedStatistics(parts)));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        switch (method.getName()) {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "toString":
+                return "Statistics de " + parts.size() + " shards";
+            default:
+                break;
+        }
+
+        List<Object> valors = new ArrayList<>(parts.size());
+        for (Object part : parts) {
+            valors.add(crida(method, part, args));
+        }
+
+        Class<?> tipus = method.getReturnType();
+        String nom = method.getName();
+        if (tipus == void.class) {
+            return null;
+        }
+        if (tipus == boolean.class) {
+            return valors.stream().allMatch(Boolean.TRUE::equals);
+        }
+        if (tipus == long.class || tipus == int.class || tipus == double.class) {
+            return numero(method, valors);
+        }
+        if (tipus == String.class && nom.contains("MaxTime")) {
+            String getterTemps = nom.substring(0, nom.indexOf("MaxTime") + "MaxTime".length());
+            return textDelMaxim(method.getDeclaringClass(), getterTemps, valors);
+        }
+        if (tipus == String[].class) {
+            Set<String> unio = new LinkedHashSet<>();
+            for (Object valor : valors) {
+                if (valor != null) unio.addAll(Arrays.asList((String[]) valor));
+            }
+            return unio.toArray(new String[0]);
+        }
+        if (tipus == Instant.class) {
+            return valors.stream().filter(v -> v != null).map(Instant.class::cast)
+                .min(Instant::compareTo).orElse(null);
+        }
+        if (Map.class.isAssignableFrom(tipus)) {
+            // getSlowQueries: consulta → temps màxim
+            Map<Object, Object> unio = new LinkedHashMap<>();
+            for (Object valor : valors) {
+                if (valor == null) continue;
+                ((Map<?, ?>) valor).forEach((clau, temps) -> unio.merge(clau, temps,
+                    (a, b) -> ((Long) a) >= ((Long) b) ? a : b));
+            }
+            return unio;
+        }
+        if (tipus.isInterface()) {
+            // Estadístiques d'una entitat, regió...: les dels shards que en tenen
+            List<Object> presents = valors.stream().filter(v -> v != null).toList();
+            return presents.isEmpty() ? null : combina(tipus, presents);
+        }
+        return valors.stream().filter(v -> v != null).findFirst().orElse(null);
+    }
+
+    private static Object crida(Method method, Object part, Object[] args) throws Throwable {
+        try {
+            return method.invoke(part, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private Object numero(Method method, List<Object> valors) throws Throwable {
+        String nom = method.getName();
+        double[] xs = valors.stream().mapToDouble(v -> ((Number) v).doubleValue()).toArray();
+        double result;
+        if (Arrays.stream(xs).anyMatch(x -> x < 0)) {
+            result = -1;
+        } else if (nom.contains("Max")) {
+            result = Arrays.stream(xs).max().orElse(0);
+        } else if (nom.contains("Min")) {
+            result = Arrays.stream(xs).min().orElse(0);
+        } else if (nom.contains("Avg")) {
+            result = mitjanaPonderada(method.getDeclaringClass(), xs);
+        } else {
+            result = Arrays.stream(xs).sum();
+        }
+        Class<?> tipus = method.getReturnType();
+        if (tipus == long.class) return (long) result;
+        if (tipus == int.class) return (int) result;
+        return result;
+    }
+
+    /**
+     * Mitjana dels shards ponderada per les execucions de cadascun
+     * (si la interfície no té getExecutionCount, mitjana simple).
+     */
+    private double mitjanaPonderada(Class<?> interficie, double[] mitjanes) throws Throwable {
+        double suma = 0;
+        double pes = 0;
+        Method comptador;
+        try {
+            comptador = interficie.getMethod("getExecutionCount");
+        } catch (NoSuchMethodException e) {
+            comptador = null;
+        }
+        for (int i = 0; i < mitjanes.length; i++) {
+            double execucions = comptador == null ? 1
+                : ((Number) crida(comptador, parts.get(i), null)).doubleValue();
+            suma += mitjanes[i] * execucions;
+            pes += execucions;
+        }
+        return pes == 0 ? 0 : suma / pes;
+    }
+
+    /**
+     * @param getterTemps Getter del temps màxim (p. ex. getQueryExecutionMaxTime)
+     * @return El text del shard amb el temps màxim més alt
+     */
+    private Object textDelMaxim(Class<?> interficie, String getterTemps, List<Object> textos) throws Throwable {
+        Method temps;
+        try {
+            temps = interficie.getMethod(getterTemps);
+        } catch (NoSuchMethodException e) {
+            return textos.stream().filter(t -> t != null).findFirst().orElse(null);
+        }
+        Object result = null;
+        long maxim = Long.MIN_VALUE;
+        for (int i = 0; i < parts.size(); i++) {
+            long valor = ((Number) crida(temps, parts.get(i), null)).longValue();
+            if (textos.get(i) != null && valor > maxim) {
+                maxim = valor;
+                result = textos.get(i);
+            }
+        }
+        return result;
+    }
+}
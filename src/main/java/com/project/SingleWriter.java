@@ -0,0 +1,413 @@
+package com.project;
+
+import java.sql.Connection;
+import java.sql.Savepoint;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.hibernate.CacheMode;
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+
+/**
+ * Fil ESCRIPTOR ÚNIC per a SQLite.
+ * 
+ * SQLite només admet un escriptor alhora. Amb molts fils escrivint cadascun
+ * amb la seva connexió, competeixen pel bloqueig de la BBDD: esperes de
+ * busy_timeout i, si s'esgoten, errors SQLITE_BUSY.
+ * 
+ * MODEL:
+ * - Totes les escriptures del Manager es posen en una cua
+ * - Un sol fil ("sqlite-writer") les treu i les executa amb UNA connexió
+ * - Les que troba a la cua alhora (fins a maxGrup) s'executen en UNA sola
+ *   transacció: un sol commit i una sola sincronització del journal
+ * - Les lectures no passen per aquí: continuen en paral·lel amb les seves
+ *   connexions (amb WAL no les bloqueja l'escriptor)
+ * 
+ * ERRORS:
+ * L'error d'una operació només arriba a qui l'ha demanada, i la funció
+ * d'una operació que falla no es torna a executar:
+ * - Sense savepoints, cada operació fa flush en acabar. Si una falla, es fa
+ *   rollback del grup, el seu future es completa amb l'error i les altres
+ *   tornen a formar grup (les anteriors a la fallida s'executen de nou)
+ * - Un conflicte de versió d'una operació amb reintents segueix la política
+ *   de runWithRetry: es torna a executar sola
+ * - Si falla el COMMIT del grup no se sap de quina operació és l'error:
+ *   cada operació es repeteix sola en la seva transacció
+ * 
+ * Els resultats de cada operació es lliuren quan el commit del grup
+ * s'ha completat.
+ * 
+ * CANCEL·LACIÓ:
+ * Una operació el future de la qual s'ha cancel·lat mentre era a la cua
+ * es descarta quan el fil la treu. Si ja formava part del grup en curs,
+ * s'aplica igualment.
+ * 
+ * Quan qui espera és una tasca d'AsyncManager, l'operació guarda també el
+ * future d'aquesta tasca (CRIDADOR): si s'ha cancel·lat o ha expirat, es
+ * descarta encara que el fil de la tasca no hagi tingut temps de reaccionar
+ * a la interrupció i cancel·lar-la ell mateix.
+ * 
+ * GROUP COMMIT (Manager.enableGroupCommit):
+ * - Després de la primera operació, el fil espera fins a 'finestra' per
+ *   recollir-ne més: amb molts fils fent escriptures petites, un sol commit
+ *   en confirma desenes
+ * - Cada operació va dins el seu SAVEPOINT: si falla, només es desfà la
+ *   seva part (ROLLBACK TO SAVEPOINT), el seu future rep l'error i la resta
+ *   del grup continua
+ * 
+ * Com es munta un grup amb savepoints:
+ * 1. La sessió del grup obre la transacció real
+ * 2. Cada operació té una Session pròpia (context de persistència net)
+ *    que COMPARTEIX la connexió i la transacció de la del grup
+ *    (sessionWithOptions().connection())
+ * 3. SAVEPOINT, l'operació, flush de la seva sessió i RELEASE SAVEPOINT;
+ *    si falla, ROLLBACK TO SAVEPOINT
+ * 4. El commit de la sessió del grup confirma totes les operacions alhora
+ * 
+ * CACHE DE SEGON NIVELL:
+ * Com que les sessions de les operacions comparteixen la transacció, Hibernate
+ * fa la feina de final de transacció (cache d'entitats, timestamps de la cache
+ * de consultes) en el commit REAL del grup, no abans: cap lector no pot veure
+ * a la cache dades encara no confirmades. Les sessions de les operacions van
+ * amb CacheMode.IGNORE (només invaliden, no hi posen valors): una operació
+ * desfeta pel seu savepoint no deixa a la cache l'estat desfet encara que el
+ * grup acabi confirmant.
+ */
+final class SingleWriter {
+
+    /**
+     * Operació pendent: una funció sobre la sessió del grup, o bé una
+     * tasca EXCLUSIVA que gestiona les seves pròpies sessions (insercions
+     * per lots) i s'executa sola, fora de cap grup.
+     */
+    private static final class Operacio<R> {
+        final Function<Session, R> work;
+        final Supplier<R> exclusiva;
+        final boolean reintentar;
+        final CompletableFuture<R> resultat = new CompletableFuture<>();
+        /** Future de la tasca que l'ha posada a la cua (null si no n'hi ha) */
+        final Future<?> cridador = CRIDADOR.get();
+        R valor;
+        /** Error propi de l'operació dins el grup (null si ha anat bé) */
+        RuntimeException error;
+
+        Operacio(Function<Session, R> work, Supplier<R> exclusiva, boolean reintentar) {
+            this.work = work;
+            this.exclusiva = exclusiva;
+            this.reintentar = reintentar;
+        }
+
+        /** Cancel·lada (o expirada) abans d'executar-se: no s'ha d'aplicar */
+        boolean descartada() {
+            if (cridador != null && cridador.isDone()) {
+                resultat.cancel(false);
+            }
+            return resultat.isCancelled();
+        }
+
+        void aplica(Session session) {
+            valor = work.apply(session);
+        }
+
+        /** Lliura el resultat (o l'error propi) després del commit del grup */
+        void completa(SessionFactory factory) {
+            if (error == null) {
+                resultat.complete(valor);
+            } else if (reintentar && Manager.isOptimisticLockFailure(error)) {
+                // Conflicte de versió: es reintenta com fa runWithRetry
+                executaSola(factory);
+            } else {
+                resultat.completeExceptionally(error);
+            }
+        }
+
+        /** Execució individual, en una transacció pròpia */
+        void executaSola(SessionFactory factory) {
+            try {
+                if (exclusiva != null) {
+                    resultat.complete(exclusiva.get());
+                } else if (reintentar) {
+                    resultat.complete(Manager.runWithRetry(factory, work));
+                } else {
+                    resultat.complete(Manager.runUnitOfWork(factory, work));
+                }
+            } catch (Throwable t) {
+                resultat.completeExceptionally(t);
+            }
+        }
+    }
+
+    /**
+     * Future de la tasca asíncrona que s'executa en el fil actual
+     * (l'assigna AsyncManager). Les operacions posades a la cua des
+     * d'aquest fil el guarden per saber si encara algú les espera.
+     */
+    static final ThreadLocal<Future<?>> CRIDADOR = new ThreadLocal<>();
+
+    /** Marca de final de la cua */
+    private static final Operacio<Void> FI = new Operacio<>(null, null, false);
+
+    private final BlockingQueue<Operacio<?>> cua = new LinkedBlockingQueue<>();
+    private final SessionFactory factory;
+    private final int maxGrup;
+    private final long finestraNanos;
+    private final boolean ambSavepoints;
+    private final Thread fil;
+    private boolean aturat;
+
+    /**
+     * Escriptor únic sense finestra: agrupa només el que ja és a la cua.
+     */
+    SingleWriter(SessionFactory factory, int maxGrup) {
+        this(factory, maxGrup, Duration.ZERO, false);
+    }
+
+    /**
+     * @param factory       SessionFactory on s'escriu
+     * @param maxGrup       Operacions màximes per transacció
+     * @param finestra      Temps màxim d'espera per omplir un grup (ZERO: no s'espera)
+     * @param ambSavepoints Un savepoint per operació (group commit)
+     */
+    SingleWriter(SessionFactory factory, int maxGrup, Duration finestra, boolean ambSavepoints) {
+        if (maxGrup <= 0) {
+            throw new IllegalArgumentException("maxGrup ha de ser positiu: " + maxGrup);
+        }
+        if (finestra.isNegative()) {
+            throw new IllegalArgumentException("La finestra no pot ser negativa: " + finestra);
+        }
+        this.factory = factory;
+        this.maxGrup = maxGrup;
+        this.finestraNanos = finestra.toNanos();
+        this.ambSavepoints = ambSavepoints;
+        this.fil = new Thread(this::bucle, "sqlite-writer");
+        this.fil.setDaemon(true);
+        this.fil.start();
+    }
+
+    /**
+     * @return true si el fil actual és el fil escriptor (per evitar esperar-se a si mateix)
+     */
+    boolean isWriterThread() {
+        return Thread.currentThread() == fil;
+    }
+
+    /**
+     * @return Operacions a la cua esperant el fil escriptor
+     */
+    int size() {
+        return cua.size();
+    }
+
+    /**
+     * Posa a la cua una operació sobre la sessió compartida del grup.
+     * 
+     * @return Future del resultat, o null si l'escriptor ja està aturat
+     *         (qui crida l'ha d'executar ell mateix)
+     */
+    <R> CompletableFuture<R> submit(Function<Session, R> work, boolean reintentar) {
+        return encua(new Operacio<>(work, null, reintentar));
+    }
+
+    /**
+     * Posa a la cua una tasca exclusiva (no s'agrupa amb cap altra).
+     * 
+     * @return Future del resultat, o null si l'escriptor ja està aturat
+     */
+    <R> CompletableFuture<R> submitExclusive(Supplier<R> tasca) {
+        return encua(new Operacio<>(null, tasca, false));
+    }
+
+    private synchronized <R> CompletableFuture<R> encua(Operacio<R> operacio) {
+        if (aturat) return null;
+        cua.add(operacio);
+        return operacio.resultat;
+    }
+
+    /**
+     * Atura l'escriptor després d'executar tot el que hi ha a la cua.
+     */
+    void close() {
+        synchronized (this) {
+            if (aturat) return;
+            aturat = true;
+            cua.add(FI);
+        }
+        boolean interromput = false;
+        while (fil.isAlive()) {
+            try {
+                fil.join();
+            } catch (InterruptedException e) {
+                interromput = true;
+            }
+        }
+        if (interromput) Thread.currentThread().interrupt();
+    }
+
+    private void bucle() {
+        List<Operacio<?>> lot = new ArrayList<>(maxGrup);
+        boolean fi = false;
+        while (!fi) {
+            try {
+                lot.add(cua.take());
+            } catch (InterruptedException e) {
+                continue;
+            }
+            // Tot el que ja és a la cua entra al mateix lot
+            cua.drainTo(lot, maxGrup - 1);
+            if (finestraNanos > 0) {
+                esperaFinestra(lot);
+            }
+            fi = lot.remove(FI);
+            executaLot(lot);
+            lot.clear();
+        }
+    }
+
+    /**
+     * Continua omplint el lot fins que és ple, s'acaba la finestra o arriba
+     * la marca de final.
+     */
+    private void esperaFinestra(List<Operacio<?>> lot) {
+        long limit = System.nanoTime() + finestraNanos;
+        while (lot.size() < maxGrup && !lot.contains(FI)) {
+            long resta = limit - System.nanoTime();
+            if (resta <= 0) return;
+            Operacio<?> operacio;
+            try {
+                operacio = cua.poll(resta, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (operacio == null) return;
+            lot.add(operacio);
+            cua.drainTo(lot, maxGrup - lot.size());
+        }
+    }
+
+    /**
+     * Executa un lot respectant l'ordre d'arribada: les operacions normals
+     * consecutives formen un grup; les exclusives s'executen soles.
+     */
+    private void executaLot(List<Operacio<?>> lot) {
+        List<Operacio<?>> grup = new ArrayList<>(lot.size());
+        for (Operacio<?> operacio : lot) {
+            if (operacio.descartada()) {
+                // Qui l'esperava ja no la vol (cancel·lació o timeout): no s'executa
+                continue;
+            }
+            if (operacio.exclusiva != null) {
+                executaGrup(grup);
+                grup.clear();
+                operacio.executaSola(factory);
+            } else {
+                grup.add(operacio);
+            }
+        }
+        executaGrup(grup);
+    }
+
+    private void executaGrup(List<Operacio<?>> grup) {
+        if (grup.isEmpty()) return;
+        if (grup.size() == 1) {
+            grup.get(0).executaSola(factory);
+            return;
+        }
+        if (ambSavepoints) {
+            executaGrupAmbSavepoints(grup);
+            return;
+        }
+        int[] fallida = {-1};
+        try {
+            Manager.runUnitOfWork(factory, session -> {
+                for (int i = 0; i < grup.size(); i++) {
+                    fallida[0] = i;
+                    grup.get(i).aplica(session);
+                    // Flush per operació: un error d'escriptura també té responsable
+                    session.flush();
+                }
+                fallida[0] = -1;
+                return null;
+            });
+        } catch (RuntimeException e) {
+            if (fallida[0] < 0) {
+                // Ha fallat el commit: cada operació es repeteix sola
+                grup.forEach(operacio -> operacio.executaSola(factory));
+                return;
+            }
+            // Rollback de tot el grup: l'error és de la fallida i la resta es torna
+            // a agrupar, respectant l'ordre d'arribada
+            Operacio<?> culpable = grup.get(fallida[0]);
+            culpable.error = e;
+            executaGrup(new ArrayList<>(grup.subList(0, fallida[0])));
+            culpable.completa(factory);
+            executaGrup(new ArrayList<>(grup.subList(fallida[0] + 1, grup.size())));
+            return;
+        }
+        grup.forEach(operacio -> operacio.completa(factory));
+    }
+
+    /**
+     * Executa el grup en una transacció amb un savepoint per operació
+     * (vegeu els passos a la descripció de la classe).
+     */
+    private void executaGrupAmbSavepoints(List<Operacio<?>> grup) {
+        boolean confirmat = false;
+        try (Session sessioGrup = factory.openSession()) {
+            Transaction tx = sessioGrup.beginTransaction();
+            try {
+                for (Operacio<?> operacio : grup) {
+                    aplicaAmbSavepoint(sessioGrup, operacio);
+                }
+                tx.commit();
+                confirmat = true;
+            } catch (RuntimeException e) {
+                if (tx.isActive()) tx.rollback();
+            }
+        } catch (RuntimeException e) {
+            // Sessió del grup no s'ha pogut obrir o tancar: es decideix per 'confirmat'
+        }
+
+        if (!confirmat) {
+            // Ningú no ha rebut res encara: cada operació es repeteix sola
+            for (Operacio<?> operacio : grup) {
+                operacio.error = null;
+                operacio.executaSola(factory);
+            }
+            return;
+        }
+        grup.forEach(operacio -> operacio.completa(factory));
+    }
+
+    /**
+     * Aplica una operació dins un savepoint de la transacció del grup, amb
+     * una Session pròpia que comparteix la connexió i la transacció.
+     * Si falla, desfà el savepoint i guarda l'error a l'operació.
+     * 
+     * @throws HibernateException Si el savepoint no es pot desfer: el grup
+     *         ja no és coherent i s'ha de desfer sencer
+     */
+    private static void aplicaAmbSavepoint(Session sessioGrup, Operacio<?> operacio) {
+        Savepoint savepoint = sessioGrup.doReturningWork(Connection::setSavepoint);
+        try (Session session = sessioGrup.sessionWithOptions().connection().openSession()) {
+            // Només invalidacions: una operació desfeta no pot deixar valors a la cache
+            session.setCacheMode(CacheMode.IGNORE);
+            operacio.aplica(session);
+            session.flush();
+        } catch (RuntimeException e) {
+            operacio.error = e;
+            sessioGrup.doWork(conn -> conn.rollback(savepoint));
+        }
+        sessioGrup.doWork(conn -> conn.releaseSavepoint(savepoint));
+    }
+}
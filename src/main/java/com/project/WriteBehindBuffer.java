@@ -0,0 +1,210 @@
+package com.project;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Buffer WRITE-BEHIND per a Manager.updateCiutada.
+ * 
+ * En lloc d'obrir una sessió i fer un commit per cada crida, els canvis
+ * es guarden en memòria indexats per ciutadaId i s'escriuen més tard,
+ * agrupats, en transaccions de fins a IN_CHUNK_SIZE ciutadans.
+ * 
+ * COALESCÈNCIA:
+ * Si un mateix ciutadà s'actualitza diverses vegades abans del flush,
+ * només s'escriu l'últim valor (un sol UPDATE).
+ * 
+ * QUAN S'ESCRIU (el primer que passi):
+ * - Cada 'interval' (fil planificador propi)
+ * - Quan hi ha 'maxPendents' ciutadans pendents (flush en segon pla)
+ * - Si se n'acumulen 4 × maxPendents (el flush no dona l'abast), la
+ *   crida que arriba fa el flush ella mateixa: contrapressió
+ * - A Manager.flushWriteBehind(), disableWriteBehind() i Manager.close()
+ * 
+ * ERRORS:
+ * Si la transacció d'un tros falla, els seus ciutadans es tornen a
+ * escriure d'un en un, perquè una sola fila dolenta no arrossegui les
+ * altres. Cada fila que encara falla torna al buffer (sense trepitjar
+ * valors més nous arribats mentrestant) i es reintenta al següent flush,
+ * fins a MAX_INTENTS vegades: després es descarta i es comptabilitza
+ * (mètrica manager_operation_rows_total{operation="writeBehindDiscarded"}).
+ * 
+ * TANCAMENT:
+ * Un put que arriba durant o després de close() no es perd: ho detecta
+ * amb el flag 'tancat' i fa el flush ell mateix.
+ */
+final class WriteBehindBuffer {
+
+    /**
+     * Últim valor pendent d'escriure d'un ciutadà.
+     */
+    record Canvi(String nom, String cognom, Integer edat) {}
+
+    /** Flushos fallits que pot acumular un canvi abans de descartar-lo */
+    static final int MAX_INTENTS = 3;
+
+    private final Map<Long, Canvi> pendents = new ConcurrentHashMap<>();
+    /** Flushos fallits de cada canvi pendent (només es toca amb flushLock) */
+    private final Map<Long, Integer> intents = new HashMap<>();
+    private final int maxPendents;
+    private final ScheduledExecutorService planificador;
+    private final AtomicBoolean flushDemanat = new AtomicBoolean();
+    private final Object flushLock = new Object();
+    private volatile boolean tancat;
+    private int descartats;
+
+    WriteBehindBuffer(int maxPendents, Duration interval) {
+        if (maxPendents <= 0) {
+            throw new IllegalArgumentException("maxPendents ha de ser positiu: " + maxPendents);
+        }
+        this.maxPendents = maxPendents;
+        this.planificador = Executors.newSingleThreadScheduledExecutor(tasca -> {
+            Thread fil = new Thread(tasca, "write-behind-ciutadans");
+            fil.setDaemon(true);
+            return fil;
+        });
+        long millis = interval.toMillis();
+        planificador.scheduleWithFixedDelay(this::flushEnSegonPla, millis, millis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Afegeix (o substitueix) el canvi pendent d'un ciutadà.
+     */
+    void put(Long ciutadaId, Canvi canvi) {
+        pendents.put(ciutadaId, canvi);
+        // S'escriu el canvi ABANS de mirar el flag i close() posa el flag
+        // ABANS del seu flush: o bé aquell flush veu el canvi o bé aquí es
+        // veu el flag
+        if (tancat) {
+            flush();
+            return;
+        }
+        int mida = pendents.size();
+        if (mida >= 4 * maxPendents) {
+            flush();
+        } else if (mida >= maxPendents && flushDemanat.compareAndSet(false, true)) {
+            try {
+                planificador.execute(() -> {
+                    flushDemanat.set(false);
+                    flushEnSegonPla();
+                });
+            } catch (RejectedExecutionException e) {
+                // Planificador ja aturat (close en curs): flush síncron
+                flushDemanat.set(false);
+                flush();
+            }
+        }
+    }
+
+    /**
+     * @return Ciutadans amb canvis pendents d'escriure
+     */
+    int size() {
+        return pendents.size();
+    }
+
+    /**
+     * Escriu tots els canvis pendents, en transaccions de IN_CHUNK_SIZE.
+     * 
+     * Si un tros falla, es torna a escriure fila a fila (vegeu ERRORS a
+     * la capçalera de la classe).
+     * 
+     * @return Ciutadans escrits correctament
+     */
+    int flush() {
+        synchronized (flushLock) {
+            if (pendents.isEmpty()) return 0;
+            
+            // Traiem els canvis del buffer: els que arribin ara aniran al següent flush
+            Map<Long, Canvi> lot = new LinkedHashMap<>();
+            for (Long id : new ArrayList<>(pendents.keySet())) {
+                Canvi canvi = pendents.remove(id);
+                if (canvi != null) lot.put(id, canvi);
+            }
+            
+            int escrits = 0;
+            for (List<Long> ids : Manager.chunks(lot.keySet(), Manager.IN_CHUNK_SIZE)) {
+                Map<Long, Canvi> tros = new LinkedHashMap<>();
+                ids.forEach(id -> tros.put(id, lot.get(id)));
+                try {
+                    Manager.applyCiutadaUpdates(tros);
+                    escrits += tros.size();
+                    ids.forEach(intents::remove);
+                } catch (RuntimeException e) {
+                    System.err.println("Error escrivint " + tros.size() + " canvis de ciutadans (es reintenten d'un en un): " + e.getMessage());
+                    for (Map.Entry<Long, Canvi> fila : tros.entrySet()) {
+                        if (escriuFila(fila.getKey(), fila.getValue())) escrits++;
+                    }
+                }
+            }
+            return escrits;
+        }
+    }
+
+    /**
+     * Escriu un sol canvi en la seva pròpia transacció. Si falla, torna
+     * al buffer o, passats MAX_INTENTS flushos, es descarta.
+     * 
+     * @return true si s'ha escrit
+     */
+    private boolean escriuFila(Long id, Canvi canvi) {
+        try {
+            Manager.applyCiutadaUpdates(Map.of(id, canvi));
+            intents.remove(id);
+            return true;
+        } catch (RuntimeException e) {
+            int fallades = intents.merge(id, 1, Integer::sum);
+            if (fallades >= MAX_INTENTS) {
+                intents.remove(id);
+                descartats++;
+                ManagerMetrics.recordRows("writeBehindDiscarded", 1);
+                System.err.println("Write-behind: descartat el canvi del ciutadà " + id
+                    + " després de " + fallades + " intents: " + e.getMessage());
+            } else if (pendents.putIfAbsent(id, canvi) != null) {
+                // Ja hi ha un valor més nou: els intents tornen a començar
+                intents.remove(id);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Atura el planificador i fa l'últim flush de manera síncrona.
+     * Els put posteriors s'escriuen directament (vegeu TANCAMENT).
+     * 
+     * @return Ciutadans que han quedat sense escriure, descartats durant
+     *         la vida del buffer inclosos (0 si tot ha anat bé)
+     */
+    int close() {
+        tancat = true;
+        planificador.shutdown();
+        try {
+            planificador.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        synchronized (flushLock) {
+            return pendents.size() + descartats;
+        }
+    }
+
+    private void flushEnSegonPla() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            // Un error no pot aturar el planificador (deixaria de fer flush)
+            System.err.println("Error al flush write-behind: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.project.utils;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+import org.hibernate.FlushMode;
+import org.hibernate.stat.Statistics;
+
+import com.project.Ciutada;
+import com.project.Ciutat;
+import com.project.Manager;
+
+/*
+ * Aquest exemple mesura el cost de les
+ * estratègies de càrrega sobre una BBDD
+ * de proves (data/mesures.db), comptant
+ * les sentències SQL amb les Statistics
+ * de Hibernate.
+ *
+ * Ús: MainMesures nplus1 [numCiutats]
+ *     MainMesures readonly [numCiutadans]
+ *
+ * El mode readonly compara la memòria retinguda
+ * i el temps de CPU de llistar molts ciutadans
+ * amb sessió normal, read-only i stateless.
+ * Per a 1M de files cal un heap gran (-Xmx2g).
+ */
+public class MainMesures {
+
+    public static void main(String[] args) {
+        String mode = args.length > 0 ? args[0] : "nplus1";
+        int quantitat = args.length > 1 ? Integer.parseInt(args[1]) : -1;
+
+        String basePath = System.getProperty("user.dir") + "/data/";
+        new File(basePath).mkdirs();
+
+        // BBDD separada de database.db i estadístiques activades
+        Properties overrides = new Properties();
+        overrides.setProperty("hibernate.connection.url", "jdbc:sqlite:" + basePath + "mesures.db");
+        overrides.setProperty("hibernate.hbm2ddl.auto", "create");
+        overrides.setProperty("hibernate.generate_statistics", "true");
+        Manager.createSessionFactory("hibernate.cfg.xml", overrides);
+
+        try {
+            switch (mode) {
+                case "nplus1" -> mesuraNPlus1(quantitat > 0 ? quantitat : 10_000);
+                case "readonly" -> mesuraReadOnly(quantitat > 0 ? quantitat : 1_000_000);
+                default -> System.out.println("Mode desconegut: " + mode);
+            }
+        } finally {
+            Manager.close();
+        }
+    }
+
+    /**
+     * Compta les sentències per llistar N ciutats amb els seus ciutadans.
+     */
+    private static void mesuraNPlus1(int numCiutats) {
+        crearDades(numCiutats, 3);
+        Statistics stats = Manager.getStatistics();
+
+        System.out.println("Ciutats: " + numCiutats);
+        System.out.println("Abans (lazy=\"false\", FROM Ciutat): 1 + N = " + (1 + numCiutats) + " sentències");
+
+        // Lazy + batch-size: FROM Ciutat i recórrer les col·leccions dins la sessió
+        stats.clear();
+        Manager.inTransaction(session -> {
+            List<Ciutat> ciutats = Manager.listCollection(session, Ciutat.class, null);
+            ciutats.forEach(c -> c.getCiutadans().size());
+        });
+        System.out.println("Lazy + batch-size=50: " + stats.getPrepareStatementCount() + " sentències");
+
+        // JOIN FETCH
+        stats.clear();
+        List<Ciutat> ciutats = Manager.findAllCiutatsWithCiutadans();
+        System.out.println("findAllCiutatsWithCiutadans (JOIN FETCH): " + stats.getPrepareStatementCount()
+            + " sentències, " + ciutats.size() + " ciutats");
+    }
+
+    /**
+     * Compara el cost de llistar N ciutadans segons el tipus de sessió.
+     * 
+     * - Sessió normal: entitats MANAGED amb snapshot i dirty checking al commit
+     * - Read-only (el que fa ara listCollection): sense snapshots ni flush
+     * - Stateless (listCollectionStateless): sense context de persistència
+     * 
+     * La memòria es mesura amb la llista encara referenciada (i, en els
+     * dos primers casos, amb la sessió oberta), després d'un GC.
+     */
+    private static void mesuraReadOnly(int numCiutadans) {
+        Manager.addCiutadansBatch(IntStream.range(0, numCiutadans)
+            .mapToObj(i -> new Ciutada("Nom " + i, "Cognom " + (i % 1000), 18 + i % 70)), 1000);
+        System.out.println("Ciutadans: " + numCiutadans);
+
+        mesura("Sessió normal", () -> Manager.withUnitOfWork(session -> {
+            List<Ciutada> ciutadans = Manager.listCollection(session, Ciutada.class, null);
+            return heapUsat();
+        }));
+
+        mesura("Sessió read-only", () -> Manager.withUnitOfWork(session -> {
+            session.setDefaultReadOnly(true);
+            session.setHibernateFlushMode(FlushMode.MANUAL);
+            List<Ciutada> ciutadans = Manager.listCollection(session, Ciutada.class, null);
+            return heapUsat();
+        }));
+
+        mesura("StatelessSession", () -> {
+            List<Ciutada> ciutadans = Manager.listCollectionStateless(Ciutada.class, null);
+            long heap = heapUsat();
+            return ciutadans.isEmpty() ? 0 : heap;
+        });
+    }
+
+    /**
+     * Executa una mesura i mostra el temps de CPU del fil i el heap retingut.
+     * 
+     * @param nom Nom de la variant
+     * @param operacio Executa la llista i retorna el heap usat amb la llista viva
+     */
+    private static void mesura(String nom, Supplier<Long> operacio) {
+        long heapInicial = heapUsat();
+        var threads = ManagementFactory.getThreadMXBean();
+        long cpuInicial = threads.getCurrentThreadCpuTime();
+        long heapAmbLlista = operacio.get();
+        long cpuMs = (threads.getCurrentThreadCpuTime() - cpuInicial) / 1_000_000;
+        System.out.printf("%-18s CPU=%6d ms  heap retingut=%6d MB%n",
+            nom, cpuMs, (heapAmbLlista - heapInicial) / (1024 * 1024));
+    }
+
+    private static long heapUsat() {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void crearDades(int numCiutats, int ciutadansPerCiutat) {
+        List<Ciutat> ciutats = new ArrayList<>(numCiutats);
+        for (int i = 0; i < numCiutats; i++) {
+            Ciutat ciutat = new Ciutat("Ciutat " + i, "País " + (i % 50), 1000 + i);
+            for (int j = 0; j < ciutadansPerCiutat; j++) {
+                // CASCADE all: els ciutadans es persisteixen amb la ciutat
+                ciutat.addCiutada(new Ciutada("Nom " + i + "-" + j, "Cognom " + j, 18 + (i + j) % 70));
+            }
+            ciutats.add(ciutat);
+        }
+        Manager.addCiutatsBatch(ciutats, Manager.DEFAULT_BATCH_SIZE);
+    }
+}
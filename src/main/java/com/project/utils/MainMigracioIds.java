@@ -0,0 +1,36 @@
+package com.project.utils;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/*
+ * Aquest exemple prepara una base de dades
+ * SQLite creada amb generator="identity"
+ * perquè funcioni amb els generadors
+ * per blocs (TableGenerator + pooled-lo)
+ * i amb la columna 'versio' del bloqueig
+ * optimista.
+ */
+public class MainMigracioIds {
+
+    public static void main(String[] args) {
+        String basePath = System.getProperty("user.dir") + "/data/";
+        String filePath = args.length > 0 ? args[0] : basePath + "database.db";
+
+        try (Connection conn = UtilsSQLite.connect(filePath)) {
+
+            if (conn == null) {
+                System.out.println("No s'ha pogut establir connexió amb la base de dades.");
+                return;
+            }
+
+            UtilsSQLite.migrateIdentityToPooled(conn);
+            UtilsSQLite.addVersionColumns(conn);
+            System.out.println("Migració d'IDs completada: " + filePath);
+
+        } catch (SQLException e) {
+            System.err.println("Error migrant els IDs: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.project.utils;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/*
+ * Aquest exemple compara els plans d'execució
+ * de les consultes habituals sense índexs (NOT INDEXED)
+ * i amb els índexs declarats als .hbm.xml.
+ * Cal executar-lo després de Main (taules creades).
+ */
+public class MainQueryPlans {
+
+    // { descripció, consulta (%s = NOT INDEXED o res) }
+    private static final String[][] CONSULTES = {
+        { "Ciutadans d'una ciutat (col·lecció ciutadans)",
+          "SELECT * FROM ciutadans %s WHERE ciutat_id = 1" },
+        { "Ciutats d'un país",
+          "SELECT * FROM ciutats %s WHERE pais = 'Japó'" },
+        { "Ciutat per clau natural (nom, pais)",
+          "SELECT ciutat_id FROM ciutats %s WHERE nom = 'Kyoto' AND pais = 'Japó'" },
+        { "Ciutadans per cognom (índex covering)",
+          "SELECT nom, cognom FROM ciutadans %s WHERE cognom = 'Kubo'" },
+        { "Ciutadans per cognom i nom",
+          "SELECT * FROM ciutadans %s WHERE cognom = 'Kubo' AND nom = 'Masako'" }
+    };
+
+    public static void main(String[] args) {
+        String basePath = System.getProperty("user.dir") + "/data/";
+        String filePath = args.length > 0 ? args[0] : basePath + "database.db";
+
+        try (Connection conn = UtilsSQLite.connect(filePath)) {
+
+            if (conn == null) {
+                System.out.println("No s'ha pogut establir connexió amb la base de dades.");
+                return;
+            }
+
+            for (String[] consulta : CONSULTES) {
+                System.out.println(consulta[0]);
+                // NOT INDEXED: obliga SQLite a ignorar els índexs (situació "abans")
+                System.out.println("  Abans:  " + UtilsSQLite.explainQueryPlan(conn, String.format(consulta[1], "NOT INDEXED")));
+                System.out.println("  Ara:    " + UtilsSQLite.explainQueryPlan(conn, String.format(consulta[1], "")));
+                System.out.println("--------------------------------------------------");
+            }
+
+        } catch (SQLException e) {
+            System.err.println("Error obtenint els plans: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+}
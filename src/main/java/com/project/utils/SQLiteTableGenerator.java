@@ -0,0 +1,269 @@
+package com.project.utils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Properties;
+
+import org.hibernate.MappingException;
+import org.hibernate.community.dialect.SQLiteDialect;
+import org.hibernate.engine.config.spi.ConfigurationService;
+import org.hibernate.engine.config.spi.StandardConverters;
+import org.hibernate.engine.jdbc.env.spi.JdbcEnvironment;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.id.PersistentIdentifierGenerator;
+import org.hibernate.id.enhanced.TableGenerator;
+import org.hibernate.service.ServiceRegistry;
+import org.hibernate.type.Type;
+
+import jakarta.transaction.Status;
+import jakarta.transaction.Synchronization;
+
+/**
+ * TableGenerator (pooled-lo) que a SQLite reserva els blocs d'IDs amb la
+ * MATEIXA connexió de la sessió.
+ *
+ * PROBLEMA:
+ * El TableGenerator de Hibernate actualitza id_generators amb una altra
+ * connexió (fora de la transacció de la sessió). A SQLite només hi pot
+ * haver un escriptor: si la transacció de la sessió ja ha escrit alguna
+ * cosa i cal un bloc nou, l'altra connexió espera el bloqueig que té la
+ * pròpia sessió → busy_timeout i SQLITE_BUSY.
+ *
+ * SOLUCIÓ (només amb el dialecte SQLite; a MySQL es comporta com el
+ * TableGenerator normal):
+ * - El bloc es reserva amb UN sol UPDATE ... RETURNING sobre la connexió
+ *   de la sessió, dins la seva transacció
+ * - Els IDs es reparteixen de memòria igual que pooled-lo (blocs de
+ *   increment_size, es poden enviar en batch)
+ *
+ * ROLLBACK:
+ * Si la transacció que ha reservat el bloc fa rollback (o un ROLLBACK TO
+ * SAVEPOINT del group commit desfà la reserva), id_generators torna al
+ * valor anterior, però el bloc continua a memòria i altres sessions poden
+ * haver fet servir (i confirmat) IDs del bloc. Un altre procés
+ * (ImportadorCens, MainMigracioIds, una segona instància) podria reservar
+ * el mateix rang. Per evitar-ho:
+ * - Cada reserva feta dins una transacció hi registra una Synchronization.
+ *   En acabar la transacció (ja sense el bloqueig d'escriptura), comprova
+ *   amb la mateixa connexió si id_generators encara cobreix el bloc
+ * - Si la reserva s'ha desfet, es DESCARTA la resta del bloc i, en una
+ *   transacció curta pròpia, es torna a avançar next_val fins al límit de
+ *   tot el que aquest procés ha repartit
+ * - Cost: una consulta per bloc reservat (cada increment_size IDs)
+ * - En memòria es guarda aquest límit; cada reserva demana
+ *   next_val = MAX(next_val, límit) + increment
+ * - Si tot i així el bloc obtingut queda per sota del límit (una reserva
+ *   desfeta entre la lectura del límit i l'UPDATE), es descarta i se'n
+ *   demana un altre
+ * - La primera reserva de cada procés també parteix de MAX(id) + 1 de la
+ *   taula de l'entitat: repara una BBDD on un rollback hagués deixat
+ *   next_val per sota d'IDs ja confirmats
+ *
+ * Es declara als .hbm.xml amb els mateixos paràmetres que TableGenerator.
+ */
+public class SQLiteTableGenerator extends TableGenerator {
+
+    private static final String STORED_LAST_USED = "hibernate.id.generator.stored_last_used";
+
+    private boolean sqlite;
+    /** 1 si id_generators guarda l'últim ID usat, 0 si guarda el següent */
+    private long desplacament;
+    private String taulaEntitat;
+    private String columnaId;
+
+    /** Blocs reservats pendents de repartir: {següent, final exclusiu} */
+    private final Deque<long[]> blocs = new ArrayDeque<>();
+    /** Final del bloc més alt reservat per aquest procés (0 = cap encara) */
+    private long limit;
+
+    @Override
+    public void configure(Type type, Properties parameters, ServiceRegistry serviceRegistry) throws MappingException {
+        super.configure(type, parameters, serviceRegistry);
+        sqlite = serviceRegistry.requireService(JdbcEnvironment.class).getDialect() instanceof SQLiteDialect;
+        boolean guardaUltim = serviceRegistry.requireService(ConfigurationService.class)
+            .getSetting(STORED_LAST_USED, StandardConverters.BOOLEAN, true);
+        desplacament = guardaUltim ? 1 : 0;
+        taulaEntitat = parameters.getProperty(PersistentIdentifierGenerator.TABLE);
+        columnaId = parameters.getProperty(PersistentIdentifierGenerator.PK);
+    }
+
+    @Override
+    public Object generate(SharedSessionContractImplementor session, Object obj) {
+        if (!sqlite) {
+            return super.generate(session, obj);
+        }
+        while (true) {
+            synchronized (this) {
+                long[] bloc = blocs.peekFirst();
+                if (bloc != null) {
+                    long id = bloc[0]++;
+                    if (bloc[0] == bloc[1]) blocs.removeFirst();
+                    return id;
+                }
+            }
+            // Fora del monitor: l'UPDATE pot esperar el bloqueig d'escriptura
+            // d'una altra transacció, i aquella pot necessitar IDs mentrestant
+            long[] reservat = session.doReturningWork(this::reservaBloc);
+            if (session.isTransactionInProgress()) {
+                session.getTransactionCoordinator().getLocalSynchronizations()
+                    .registerSynchronization(new ComprovaReserva(session, reservat));
+            }
+        }
+    }
+
+    /**
+     * Comprova, en acabar la transacció que ha reservat un bloc, que la
+     * reserva s'ha confirmat a id_generators. Si s'ha desfet, descarta la
+     * resta del bloc i torna a avançar next_val fins al límit del procés.
+     *
+     * S'executa amb la connexió de la sessió (encara no s'ha retornat al
+     * pool) però ja fora de la seva transacció: el bloqueig d'escriptura
+     * de SQLite ja està alliberat i la reparació fa el seu propi commit.
+     */
+    private final class ComprovaReserva implements Synchronization {
+        private final SharedSessionContractImplementor session;
+        private final long[] bloc;
+
+        ComprovaReserva(SharedSessionContractImplementor session, long[] bloc) {
+            this.session = session;
+            this.bloc = bloc;
+        }
+
+        @Override
+        public void beforeCompletion() {
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            try {
+                Connection conn = session.getJdbcCoordinator().getLogicalConnection().getPhysicalConnection();
+                Long guardat = valorGuardat(conn);
+                boolean desfet = status != Status.STATUS_COMMITTED
+                    || guardat == null || guardat + desplacament < bloc[1];
+                if (desfet) {
+                    descarta(bloc);
+                    long minim;
+                    synchronized (SQLiteTableGenerator.this) {
+                        minim = limit;
+                    }
+                    if (guardat == null || guardat + desplacament < minim) {
+                        avancaFins(conn, minim, guardat != null);
+                    }
+                }
+                if (!conn.getAutoCommit()) {
+                    conn.commit();
+                }
+            } catch (SQLException | RuntimeException e) {
+                // Sense poder comprovar-ho, la resta del bloc no és segura
+                descarta(bloc);
+                System.err.println("No s'ha pogut comprovar la reserva d'IDs de " + getSegmentValue() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Treu de memòria el que quedi per repartir d'un bloc.
+     */
+    private synchronized void descarta(long[] bloc) {
+        blocs.remove(bloc);
+    }
+
+    /**
+     * Reserva un bloc nou a id_generators amb la connexió de la sessió
+     * i l'afegeix als pendents.
+     *
+     * @return El bloc afegit: {primer ID, final exclusiu}
+     */
+    private long[] reservaBloc(Connection conn) throws SQLException {
+        long minim;
+        synchronized (this) {
+            minim = limit;
+        }
+        if (minim == 0 && taulaEntitat != null && columnaId != null) {
+            minim = maximId(conn) + 1;
+        }
+        while (true) {
+            long inici = reserva(conn, Math.max(minim, getInitialValue()));
+            synchronized (this) {
+                if (inici >= limit) {
+                    long[] bloc = {inici, inici + getIncrementSize()};
+                    blocs.addLast(bloc);
+                    limit = bloc[1];
+                    return bloc;
+                }
+                // Un bloc desfet per rollback: se'n demana un per sobre del límit
+                minim = limit;
+            }
+        }
+    }
+
+    /**
+     * Avança next_val i retorna el primer ID del bloc reservat (que no
+     * serà mai inferior a 'minim').
+     */
+    private long reserva(Connection conn, long minim) throws SQLException {
+        String update = "UPDATE " + getTableName()
+            + " SET " + getValueColumnName() + " = MAX(" + getValueColumnName() + ", ?) + ?"
+            + " WHERE " + getSegmentColumnName() + " = ?"
+            + " RETURNING " + getValueColumnName();
+        try (PreparedStatement ps = conn.prepareStatement(update)) {
+            ps.setLong(1, minim - desplacament);
+            ps.setLong(2, getIncrementSize());
+            ps.setString(3, getSegmentValue());
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getLong(1) + desplacament - getIncrementSize();
+                }
+            }
+        }
+        // Segment encara inexistent: es crea amb el primer bloc ja reservat
+        String insert = "INSERT INTO " + getTableName()
+            + " (" + getSegmentColumnName() + ", " + getValueColumnName() + ") VALUES (?, ?)";
+        try (PreparedStatement ps = conn.prepareStatement(insert)) {
+            ps.setString(1, getSegmentValue());
+            ps.setLong(2, minim + getIncrementSize() - desplacament);
+            ps.executeUpdate();
+        }
+        return minim;
+    }
+
+    /**
+     * @return Valor de next_val del segment, o null si la fila no existeix
+     */
+    private Long valorGuardat(Connection conn) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement("SELECT " + getValueColumnName()
+                + " FROM " + getTableName() + " WHERE " + getSegmentColumnName() + " = ?")) {
+            ps.setString(1, getSegmentValue());
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : null;
+            }
+        }
+    }
+
+    /**
+     * Deixa next_val de manera que el pròxim bloc comenci a 'minim' o més amunt.
+     */
+    private void avancaFins(Connection conn, long minim, boolean existeix) throws SQLException {
+        String sql = existeix
+            ? "UPDATE " + getTableName() + " SET " + getValueColumnName() + " = MAX(" + getValueColumnName() + ", ?)"
+                + " WHERE " + getSegmentColumnName() + " = ?"
+            : "INSERT INTO " + getTableName() + " (" + getValueColumnName() + ", " + getSegmentColumnName() + ") VALUES (?, ?)";
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setLong(1, minim - desplacament);
+            ps.setString(2, getSegmentValue());
+            ps.executeUpdate();
+        }
+    }
+
+    private long maximId(Connection conn) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(
+                "SELECT COALESCE(MAX(" + columnaId + "), 0) FROM " + taulaEntitat);
+             ResultSet rs = ps.executeQuery()) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+}
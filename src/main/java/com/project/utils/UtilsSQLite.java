@@ -3,6 +3,7 @@ package com.project.utils;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
@@ -13,13 +14,25 @@ public class UtilsSQLite {
 
     /**
      * Estableix connexió amb la base de dades SQLite.
+     * Usa el perfil indicat a -Dhibernate.sqlite.profile (DEFAULT si no n'hi ha).
      * @param filePath Ruta al fitxer .db
      * @return Objecte Connection obert
      * @throws SQLException Si hi ha error de connexió
      */
     public static Connection connect(String filePath) throws SQLException {
+        return connect(filePath, SQLiteProfile.fromName(System.getProperty(SQLiteProfile.PROPERTY)));
+    }
+
+    /**
+     * Estableix connexió amb la base de dades SQLite aplicant un perfil de PRAGMA.
+     * @param filePath Ruta al fitxer .db
+     * @param profile Perfil de rendiment (WAL, synchronous, cache...)
+     * @return Objecte Connection obert
+     * @throws SQLException Si hi ha error de connexió
+     */
+    public static Connection connect(String filePath, SQLiteProfile profile) throws SQLException {
         String url = "jdbc:sqlite:" + filePath;
-        Connection conn = DriverManager.getConnection(url);
+        Connection conn = DriverManager.getConnection(url, profile.toProperties());
         
         if (conn != null) {
             DatabaseMetaData meta = conn.getMetaData();
@@ -79,4 +92,112 @@ public class UtilsSQLite {
         Statement stmt = conn.createStatement();
         return stmt.executeQuery(sql);
     }
-}
\ No newline at end of file
+
+    /**
+     * Obté el pla d'execució d'una consulta (EXPLAIN QUERY PLAN).
+     * Cada línia indica si SQLite recorre la taula (SCAN) o usa un índex (SEARCH ... USING INDEX).
+     * @param conn Connexió oberta
+     * @param sql Consulta a analitzar
+     * @return Línies del pla (columna 'detail')
+     * @throws SQLException Si la consulta no és vàlida
+     */
+    public static List<String> explainQueryPlan(Connection conn, String sql) throws SQLException {
+        List<String> pla = new ArrayList<>();
+        try (ResultSet rs = querySelect(conn, "EXPLAIN QUERY PLAN " + sql)) {
+            while (rs.next()) {
+                pla.add(rs.getString("detail"));
+            }
+        }
+        return pla;
+    }
+
+    /**
+     * Migra una base de dades creada amb generator="identity" a l'estratègia
+     * TableGenerator + pooled-lo dels mapatges actuals.
+     * 
+     * Per cada taula existent, deixa la fila corresponent de id_generators
+     * apuntant a MAX(id) + 1, de manera que els nous blocs d'IDs no
+     * col·lideixin amb els IDs ja assignats per identity.
+     * 
+     * És idempotent: només fa avançar el comptador, mai el fa retrocedir.
+     * Cal executar-la amb l'aplicació aturada i hibernate.hbm2ddl.auto
+     * diferent de 'create' (si no, Hibernate esborra les dades igualment).
+     * 
+     * @param conn Connexió oberta a la base de dades
+     * @throws SQLException Si hi ha error executant la migració
+     */
+    public static void migrateIdentityToPooled(Connection conn) throws SQLException {
+        queryUpdate(conn, "CREATE TABLE IF NOT EXISTS id_generators ("
+            + "sequence_name VARCHAR(255) NOT NULL PRIMARY KEY, next_val BIGINT)");
+
+        List<String> taules = listTables(conn);
+        String[][] segments = {
+            // segment_value, taula, columna ID
+            { "ciutats", "ciutats", "ciutat_id" },
+            { "ciutadans", "ciutadans", "ciutada_id" }
+        };
+
+        for (String[] segment : segments) {
+            if (!taules.contains(segment[1])) continue;
+
+            long seguent;
+            try (ResultSet rs = querySelect(conn,
+                    "SELECT COALESCE(MAX(" + segment[2] + "), 0) + 1 FROM " + segment[1])) {
+                rs.next();
+                seguent = rs.getLong(1);
+            }
+
+            int actualitzades;
+            try (PreparedStatement ps = conn.prepareStatement(
+                    "UPDATE id_generators SET next_val = ? WHERE sequence_name = ? AND next_val < ?")) {
+                ps.setLong(1, seguent);
+                ps.setString(2, segment[0]);
+                ps.setLong(3, seguent);
+                actualitzades = ps.executeUpdate();
+            }
+
+            if (actualitzades == 0) {
+                try (PreparedStatement ps = conn.prepareStatement(
+                        "INSERT INTO id_generators (sequence_name, next_val) "
+                        + "SELECT ?, ? WHERE NOT EXISTS (SELECT 1 FROM id_generators WHERE sequence_name = ?)")) {
+                    ps.setString(1, segment[0]);
+                    ps.setLong(2, seguent);
+                    ps.setString(3, segment[0]);
+                    ps.executeUpdate();
+                }
+            }
+            System.out.println("Segment '" + segment[0] + "' preparat: següent ID >= " + seguent);
+        }
+    }
+
+    /**
+     * Afegeix la columna 'versio' (bloqueig optimista) a les taules ciutats
+     * i ciutadans d'una base de dades creada abans de tenir <version> als
+     * mapatges. Les files existents comencen amb versió 0.
+     * 
+     * És idempotent: si la columna ja existeix no fa res.
+     * 
+     * @param conn Connexió oberta a la base de dades
+     * @throws SQLException Si hi ha error executant la migració
+     */
+    public static void addVersionColumns(Connection conn) throws SQLException {
+        List<String> taules = listTables(conn);
+        for (String taula : new String[] { "ciutats", "ciutadans" }) {
+            if (!taules.contains(taula)) continue;
+
+            boolean existeix = false;
+            try (ResultSet rs = querySelect(conn, "PRAGMA table_info(" + taula + ")")) {
+                while (rs.next()) {
+                    if ("versio".equalsIgnoreCase(rs.getString("name"))) {
+                        existeix = true;
+                    }
+                }
+            }
+
+            if (!existeix) {
+                queryUpdate(conn, "ALTER TABLE " + taula + " ADD COLUMN versio BIGINT NOT NULL DEFAULT 0");
+                System.out.println("Columna 'versio' afegida a " + taula);
+            }
+        }
+    }
+}
@@ -0,0 +1,1219 @@
+package com.project;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.hibernate.Cache;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests del Manager sobre una BBDD SQLite temporal (una per test).
+ */
+class CiutatCiutadaTest {
+
+    @TempDir
+    Path dir;
+
+    @BeforeEach
+    void obre() {
+        Manager.createSessionFactory("hibernate.cfg.xml", propietats(dir));
+    }
+
+    @AfterEach
+    void tanca() {
+        Manager.close();
+    }
+
+    /**
+     * Configuració de test: fitxer SQLite dins 'dir' i esquema nou.
+     */
+    static Properties propietats(Path dir) {
+        Properties propietats = new Properties();
+        propietats.setProperty("hibernate.connection.url", "jdbc:sqlite:" + dir.resolve("test.db"));
+        propietats.setProperty("hibernate.hbm2ddl.auto", "create");
+        return propietats;
+    }
+
+    /**
+     * Afegeix la cache de segon nivell i la de consultes a 'propietats'.
+     */
+    static Properties ambCache(Properties propietats) {
+        propietats.setProperty("hibernate.cache.use_second_level_cache", "true");
+        propietats.setProperty("hibernate.cache.use_query_cache", "true");
+        return propietats;
+    }
+
+    static List<Ciutat> ciutats(int n) {
+        List<Ciutat> ciutats = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            ciutats.add(new Ciutat("Ciutat " + i, "Pais " + (i % 3), 1000 + i));
+        }
+        return ciutats;
+    }
+
+    // ═══════════════════════════════════════════════════════════════════
+    // INSERCIONS PER LOTS
+    // ═══════════════════════════════════════════════════════════════════
+
+    @Test
+    void addCiutatsBatchRetornaElsIdsEnOrdre() {
+        List<Ciutat> ciutats = ciutats(120);
+
+        List<Long> ids = Manager.addCiutatsBatch(ciutats, 50);
+
+        assertEquals(120, ids.size());
+        assertEquals(120, new HashSet<>(ids).size());
+        for (int i = 0; i < ciutats.size(); i++) {
+            assertEquals(ciutats.get(i).getCiutatId(), ids.get(i));
+        }
+        assertEquals(120, Manager.count(Ciutat.class));
+    }
+
+    @Test
+    void unLotQueFallaNomesDesfaAquellLot() {
+        List<Ciutat> ciutats = ciutats(30);
+        // nom és NOT NULL: el segon lot (10..19) falla
+        ciutats.get(15).setNom(null);
+
+        List<Long> ids = Manager.addCiutatsBatch(ciutats, 10);
+
+        assertEquals(10, ids.size());
+        assertEquals(10, Manager.count(Ciutat.class));
+        for (Long id : ids) {
+            assertNotNull(Manager.getCiutatWithCiutadans(id));
+        }
+    }
+
+    @Test
+    void addCiutadansBatchVinculaLaCiutat() {
+        Ciutat ciutat = Manager.addCiutat("Girona", "Espanya", 103369);
+        List<Ciutada> ciutadans = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            Ciutada ciutada = new Ciutada("Nom " + i, "Cognom", 20 + i);
+            ciutada.setCiutat(ciutat);
+            ciutadans.add(ciutada);
+        }
+
+        List<Long> ids = Manager.addCiutadansBatch(ciutadans, 5);
+
+        assertEquals(7, ids.size());
+        assertEquals(7, Manager.getCiutatWithCiutadans(ciutat.getCiutatId()).getCiutadans().size());
+    }
+
+    // ═══════════════════════════════════════════════════════════════════
+    // GENERADOR D'IDS (SQLiteTableGenerator)
+    // ═══════════════════════════════════════════════════════════════════
+
+    /**
+     * Un altre procés (una segona instància, ImportadorCens...) reserva el
+     * pròxim bloc de ciutats directament a id_generators.
+     *
+     * @return Valor de next_val després de la seva reserva (el bloc acaba aquí)
+     */
+    long reservaDUnAltreProces() throws Exception {
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + dir.resolve("test.db"));
+             PreparedStatement ps = conn.prepareStatement(
+                 "UPDATE id_generators SET next_val = next_val + 50 WHERE sequence_name = 'ciutats' RETURNING next_val");
+             ResultSet rs = ps.executeQuery()) {
+            assertTrue(rs.next());
+            return rs.getLong(1);
+        }
+    }
+
+    /**
+     * Reserva un bloc dins una transacció que acaba amb error.
+     */
+    static void reservaIDesfa() {
+        assertThrows(IllegalStateException.class, () -> Manager.inTransaction(session -> {
+            ciutats(60).forEach(session::persist);
+            session.flush();
+            throw new IllegalStateException("rollback");
+        }));
+    }
+
+    @Test
+    void generadorDescartaElBlocDUnaTransaccioDesfeta() throws Exception {
+        Manager.addCiutat("Primera", "A", 1);
+        reservaIDesfa();
+
+        long finalAltreProces = reservaDUnAltreProces();
+        Ciutat segona = Manager.addCiutat("Segona", "A", 1);
+
+        // Cap ID del bloc de l'altre procés (abans: la resta del bloc desfet)
+        assertTrue(segona.getCiutatId() > finalAltreProces,
+            segona.getCiutatId() + " és dins el bloc de l'altre procés (fins a " + finalAltreProces + ")");
+    }
+
+    @Test
+    void generadorDescartaElBlocDUnSavepointDesfet() throws Exception {
+        Manager.enableGroupCommit(Duration.ofMillis(1));
+        Manager.addCiutat("Primera", "A", 1);
+        // Amb group commit el rollback és al savepoint i el grup fa commit
+        reservaIDesfa();
+        Manager.disableSingleWriter();
+
+        long finalAltreProces = reservaDUnAltreProces();
+        Ciutat segona = Manager.addCiutat("Segona", "A", 1);
+
+        assertTrue(segona.getCiutatId() > finalAltreProces,
+            segona.getCiutatId() + " és dins el bloc de l'altre procés (fins a " + finalAltreProces + ")");
+    }
+
+    @Test
+    void generadorReservaBlocsDinsUnaTransaccioQueJaEscriu() throws Exception {
+        List<Long> ids = Manager.withUnitOfWork(session -> {
+            Ciutat primera = new Ciutat("Primera", "A", 1);
+            session.persist(primera);
+            // La transacció ja té el bloqueig d'escriptura de SQLite
+            session.flush();
+            List<Ciutat> altres = ciutats(120);
+            altres.forEach(session::persist);
+            List<Long> result = new ArrayList<>(List.of(primera.getCiutatId()));
+            altres.forEach(ciutat -> result.add(ciutat.getCiutatId()));
+            return result;
+        });
+
+        assertEquals(121, Manager.count(Ciutat.class));
+        assertEquals(121, new HashSet<>(ids).size());
+        // Els blocs reservats dins la transacció s'han confirmat amb ella
+        long finalAltreProces = reservaDUnAltreProces();
+        assertTrue(finalAltreProces - 50 > ids.stream().mapToLong(Long::longValue).max().orElseThrow());
+    }
+
+    // ═══════════════════════════════════════════════════════════════════
+    // IMPORTACIÓ DEL CENS
+    // ═══════════════════════════════════════════════════════════════════
+
+    @Test
+    void importacioCsvPerLotsConfirmaCadaLotIResolLesCiutats() throws Exception {
+        Path ciutats = dir.resolve("ciutats.csv");
+        Files.writeString(ciutats, """
+            nom,pais,poblacio
+            Girona,Espanya,103369
+            Vic,Espanya,48000
+            "Kyoto, la capital",Japó,1463723
+            Porto,Portugal,231800
+            Lió,França,522000
+            """);
+        Path ciutadans = dir.resolve("ciutadans.csv");
+        Files.writeString(ciutadans, """
+            Nom,Cognom,Edat,Ciutat,Pais
+            Anna,Puig,30,Girona,Espanya
+            Akira,Sato,62,"Kyoto, la capital",Japó
+            Nomi,Sato,40
+            Joan,Vila,25,Girona,Espanya
+            """);
+        List<Long> escritesPerLot = new ArrayList<>();
+        ImportadorCens importador = new ImportadorCens(2, progres -> escritesPerLot.add(progres.getEscrites()));
+
+        ImportadorCens.Progres progresCiutats = importador.importCiutatsCsv(ciutats);
+
+        // 5 files en lots de 2: dos lots plens i l'últim parcial en tancar
+        assertEquals(List.of(2L, 4L, 5L), escritesPerLot);
+        assertEquals(5, progresCiutats.getLlegides());
+        assertEquals(5, progresCiutats.getEscrites());
+        assertEquals(0, progresCiutats.getRebutjades());
+        assertEquals(5, Manager.count(Ciutat.class));
+
+        ImportadorCens.Progres progresCiutadans = importador.importCiutadansCsv(ciutadans);
+
+        assertEquals(4, progresCiutadans.getEscrites());
+        Long gironaId = Manager.findCiutatId("Girona", "Espanya");
+        assertEquals(2, Manager.getCiutatWithCiutadans(gironaId).getCiutadans().size());
+        assertEquals(1, Manager.count(Ciutada.class, "e.ciutat IS NULL", Map.of()));
+    }
+
+    @Test
+    void unaCapcaleraQueNoCoincideixEsTractaComUnaFilaIEsRebutja() throws Exception {
+        Path ciutats = dir.resolve("ciutats.csv");
+        // Columnes en un altre ordre: no és la capçalera esperada (nom,pais,poblacio)
+        Files.writeString(ciutats, """
+            pais,nom,poblacio
+            Espanya,Girona,103369
+            """);
+
+        ImportadorCens.Progres progres = new ImportadorCens(10, p -> {}).importCiutatsCsv(ciutats);
+
+        assertEquals(2, progres.getLlegides());
+        // "poblacio" no és un enter; la fila de dades sí que entra, tal com ve
+        assertEquals(1, progres.getRebutjades());
+        assertEquals(1, progres.getEscrites());
+        assertFalse(ImportadorCens.esCapcalera(ImportadorCens.splitCsv("pais,nom,poblacio"), List.of("nom", "pais", "poblacio")));
+        assertFalse(ImportadorCens.esCapcalera(ImportadorCens.splitCsv("nom,pais,habitants"), List.of("nom", "pais", "poblacio")));
+        assertTrue(ImportadorCens.esCapcalera(ImportadorCens.splitCsv(" NOM ,Pais,poblacio"), List.of("nom", "pais", "poblacio")));
+    }
+
+    // ═══════════════════════════════════════════════════════════════════
+    // PAGINACIÓ KEYSET
+    // ═══════════════════════════════════════════════════════════════════
+
+    /**
+     * Recorre totes les pàgines i comprova que cap passa de pageSize.
+     */
+    static <T> List<T> totesLesPagines(Class<T> clazz, String orderBy, int pageSize) {
+        List<T> tots = new ArrayList<>();
+        Page.Cursor cursor = null;
+        do {
+            Page<T> page = Manager.listPage(clazz, orderBy, cursor, pageSize);
+            assertFalse(page.items().size() > pageSize);
+            tots.addAll(page.items());
+            cursor = page.next();
+        } while (cursor != null);
+        return tots;
+    }
+
+    @Test
+    void listPageAcabaJustAlFinalSenseUnaPaginaBuida() {
+        Manager.addCiutatsBatch(ciutats(20), 50);
+
+        Page<Ciutat> primera = Manager.listPage(Ciutat.class, null, null, 10);
+        Page<Ciutat> segona = Manager.listPage(Ciutat.class, null, primera.next(), 10);
+
+        assertEquals(10, primera.items().size());
+        assertNotNull(primera.next());
+        assertEquals(10, segona.items().size());
+        assertNull(segona.next());
+    }
+
+    @Test
+    void listPageNoPerdNiRepeteixValorsIgualsEntrePagines() {
+        List<Ciutada> ciutadans = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            // Només 3 noms diferents: els empats travessen les pàgines
+            ciutadans.add(new Ciutada("Nom " + (i % 3), "Cognom " + i, i));
+        }
+        Manager.addCiutadansBatch(ciutadans, 50);
+
+        List<Ciutada> tots = totesLesPagines(Ciutada.class, "nom", 4);
+
+        assertEquals(25, tots.size());
+        assertEquals(25, tots.stream().map(Ciutada::getCiutadaId).distinct().count());
+        for (int i = 1; i < tots.size(); i++) {
+            Ciutada anterior = tots.get(i - 1);
+            Ciutada actual = tots.get(i);
+            int ordre = anterior.getNom().compareTo(actual.getNom());
+            assertFalse(ordre > 0 || (ordre == 0 && anterior.getCiutadaId() > actual.getCiutadaId()));
+        }
+    }
+
+    @Test
+    void listPageRebutjaOrdresNoValids() {
+        Page<Ciutat> page = Manager.listPage(Ciutat.class, "nom", null, 10);
+        Page.Cursor cursorId = new Page.Cursor("ciutatId", 1L, 1L);
+
+        assertNull(page.next());
+        // pais admet NULL: el keyset perdria files
+        assertThrows(IllegalArgumentException.class, () -> Manager.listPage(Ciutat.class, "pais", null, 10));
+        assertThrows(IllegalArgumentException.class, () -> Manager.listPage(Ciutat.class, "nom", cursorId, 10));
+        assertThrows(IllegalArgumentException.class, () -> Manager.listPage(Ciutat.class, null, null, 0));
+    }
+
+    // ═══════════════════════════════════════════════════════════════════
+    // CÀRREGA DE COL·LECCIONS (N+1)
+    // ═══════════════════════════════════════════════════════════════════
+
+    @Test
+    void findAllCiutatsWithCiutadansNoFaNMesUConsultes() {
+        List<Ciutat> ciutats = ciutats(120);
+        Manager.addCiutatsBatch(ciutats, 50);
+        for (Ciutat ciutat : ciutats) {
+            vinculaCiutadans(ciutat, 2);
+        }
+        Statistics estadistiques = Manager.getStatistics();
+        estadistiques.setStatisticsEnabled(true);
+        estadistiques.clear();
+
+        List<Ciutat> totes = Manager.findAllCiutatsWithCiutadans();
+
+        assertTrue(estadistiques.getPrepareStatementCount() <= 2,
+            "sentències: " + estadistiques.getPrepareStatementCount());
+        assertEquals(120, totes.size());
+        // Les col·leccions ja són carregades: es poden recórrer amb la sessió tancada
+        assertTrue(totes.stream().allMatch(ciutat -> ciutat.getCiutadans().size() == 2));
+    }
+
+    @Test
+    void colleccionsLazyEsCarreguenPerLots() {
+        Manager.addCiutatsBatch(ciutats(120), 50);
+        Statistics estadistiques = Manager.getStatistics();
+        estadistiques.setStatisticsEnabled(true);
+        estadistiques.clear();
+
+        Manager.inTransaction(session -> Manager.listCollection(session, Ciutat.class, null)
+            .forEach(ciutat -> ciutat.getCiutadans().size()));
+
+        // 1 per les ciutats + una per cada lot de batch-size=50 col·leccions (no 1 + 120)
+        assertEquals(1 + 3, estadistiques.getPrepareStatementCount());
+    }
+
+    // ═══════════════════════════════════════════════════════════════════
+    // UPDATE MASSIU
+    // ═══════════════════════════════════════════════════════════════════
+
+    static Ciutada ciutada(Long ciutadaId) {
+        return Manager.withUnitOfWork(session -> session.get(Ciutada.class, ciutadaId));
+    }
+
+    @Test
+    void updateCiutadansWhereRetornaLesFilesIPujaLaVersio() {
+        List<Ciutada> ciutadans = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            ciutadans.add(new Ciutada("Nom " + i, i < 4 ? "García" : "Puig", 30));
+        }
+        List<Long> ids = Manager.addCiutadansBatch(ciutadans, 50);
+        Long versioAbans = ciutada(ids.get(0)).getVersio();
+
+        int files = Manager.updateCiutadansWhere("e.cognom = :nou", "e.cognom = :vell",
+            Map.of("nou", "Garcia", "vell", "García"));
+
+        assertEquals(4, files);
+        assertEquals(4, Manager.count(Ciutada.class, "e.cognom = :c", Map.of("c", "Garcia")));
+        Ciutada actualitzat = ciutada(ids.get(0));
+        assertEquals("Garcia", actualitzat.getCognom());
+        assertEquals(versioAbans + 1, actualitzat.getVersio());
+        // Els que no compleixen la condició no canvien de versió
+        assertEquals(versioAbans, ciutada(ids.get(9)).getVersio());
+    }
+
+    @Test
+    void updateCiutadansWhereSenseCondicioActualitzaTothom() {
+        Manager.addCiutadansBatch(List.of(new Ciutada("A", null, 20), new Ciutada("B", null, 40)), 50);
+
+        assertEquals(2, Manager.updateCiutadansWhere("e.edat = e.edat + 1", null, Map.of()));
+        assertEquals(1, Manager.count(Ciutada.class, "e.edat = :edat", Map.of("edat", 41)));
+        assertThrows(IllegalArgumentException.class, () -> Manager.updateCiutadansWhere(" ", null, Map.of()));
+    }
+
+    // ═══════════════════════════════════════════════════════════════════
+    // DELETE MASSIU
+    // ═══════════════════════════════════════════════════════════════════
+
+    @Test
+    void deleteAllTravessaElsBlocsIIgnoraElsInexistents() {
+        // Més IDs que IN_CHUNK_SIZE: calen diversos DELETE ... IN (...)
+        List<Long> ids = Manager.addCiutadansBatch(ciutadansSenseCiutat(Manager.IN_CHUNK_SIZE + 100), 200);
+        List<Long> esborrar = new ArrayList<>(ids.subList(0, Manager.IN_CHUNK_SIZE + 50));
+        esborrar.add(-1L);
+
+        int esborrats = Manager.deleteAll(Ciutada.class, esborrar);
+
+        assertEquals(Manager.IN_CHUNK_SIZE + 50, esborrats);
+        assertEquals(50, Manager.count(Ciutada.class));
+    }
+
+    @Test
+    void deleteAllDeCiutatsEsborraElsSeusCiutadans() {
+        Ciutat girona = Manager.addCiutat("Girona", "Espanya", 103369);
+        Ciutat vic = Manager.addCiutat("Vic", "Espanya", 48000);
+        vinculaCiutadans(girona, 3);
+        vinculaCiutadans(vic, 2);
+
+        int esborrades = Manager.deleteAll(Ciutat.class, List.of(girona.getCiutatId()));
+
+        assertEquals(1, esborrades);
+        assertEquals(1, Manager.count(Ciutat.class));
+        assertEquals(2, Manager.count(Ciutada.class));
+    }
+
+    @Test
+    void deleteWhereCompteNomesLesFilesQueCompleixen() {
+        Ciutat girona = Manager.addCiutat("Girona", "Espanya", 103369);
+        Manager.addCiutat("Lió", "França", 516000);
+        vinculaCiutadans(girona, 4);
+        Manager.addCiutadansBatch(List.of(new Ciutada("Menor", null, 12), new Ciutada("Adult", null, 50)), 50);
+
+        assertEquals(1, Manager.deleteWhere(Ciutada.class, "e.edat < :min", Map.of("min", 18)));
+        assertEquals(1, Manager.deleteWhere(Ciutat.class, "e.pais = :pais", Map.of("pais", "Espanya")));
+        assertEquals(1, Manager.count(Ciutat.class));
+        // Els 4 de Girona han caigut en cascada; queda l'adult sense ciutat
+        assertEquals(1, Manager.count(Ciutada.class));
+        assertThrows(IllegalArgumentException.class, () -> Manager.deleteWhere(Ciutada.class, null, Map.of()));
+    }
+
+    static List<Ciutada> ciutadansSenseCiutat(int n) {
+        List<Ciutada> ciutadans = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            ciutadans.add(new Ciutada("Nom " + i, "Cognom " + i, 18 + i % 60));
+        }
+        return ciutadans;
+    }
+
+    static List<Long> vinculaCiutadans(Ciutat ciutat, int n) {
+        List<Ciutada> ciutadans = ciutadansSenseCiutat(n);
+        ciutadans.forEach(ciutada -> ciutada.setCiutat(ciutat));
+        return Manager.addCiutadansBatch(ciutadans, 50);
+    }
+
+    // ═══════════════════════════════════════════════════════════════════
+    // CACHE DE SEGON NIVELL I AGREGACIONS
+    // ═══════════════════════════════════════════════════════════════════
+
+    @Test
+    void updateIDeleteMassiusTreuenDeLaCacheElsCiutadansAfectats() {
+        Manager.close();
+        Manager.createSessionFactory("hibernate.cfg.xml", ambCache(propietats(dir)));
+        Ciutat girona = Manager.addCiutat("Girona", "Espanya", 103369);
+        List<Long> ids = vinculaCiutadans(girona, 5);
+        // Ara els ciutadans i la col·lecció de la ciutat són a la cache
+        assertEquals(5, Manager.getCiutatWithCiutadans(girona.getCiutatId()).getCiutadans().size());
+        Cache cache = Manager.getSessionFactory().getCache();
+        assertTrue(cache.containsEntity(Ciutada.class, ids.get(0)));
+        assertTrue(cache.containsCollection(Ciutat.class.getName() + ".ciutadans", girona.getCiutatId()));
+
+        assertEquals(1, Manager.updateCiutadansWhere("e.edat = 99", "e.ciutadaId = :id", Map.of("id", ids.get(0))));
+
+        assertFalse(cache.containsEntity(Ciutada.class, ids.get(0)));
+        assertTrue(Manager.getCiutatWithCiutadans(girona.getCiutatId()).getCiutadans().stream()
+            .anyMatch(ciutada -> ciutada.getCiutadaId().equals(ids.get(0)) && ciutada.getEdat() == 99));
+
+        assertEquals(2, Manager.deleteWhere(Ciutada.class, "e.ciutadaId IN (:ids)", Map.of("ids", ids.subList(0, 2))));
+
+        assertFalse(cache.containsCollection(Ciutat.class.getName() + ".ciutadans", girona.getCiutatId()));
+        assertEquals(3, Manager.getCiutatWithCiutadans(girona.getCiutatId()).getCiutadans().size());
+    }
+
+    @Test
+    void lesAgregacionsCachejadesEsRecalculenDespresDUnaEscriptura() {
+        Manager.close();
+        Manager.createSessionFactory("hibernate.cfg.xml", ambCache(propietats(dir)));
+        Ciutat girona = Manager.addCiutat("Girona", "Espanya", 1000);
+        List<Long> ids = vinculaCiutadans(girona, 5);
+        Statistics estadistiques = Manager.getStatistics();
+        estadistiques.setStatisticsEnabled(true);
+        estadistiques.clear();
+
+        assertEquals(5, Manager.count(Ciutada.class));
+        assertEquals(5, Manager.count(Ciutada.class));
+        assertEquals(1000L, Manager.poblacioPerPais().get(0).poblacioTotal());
+        assertEquals(1000L, Manager.poblacioPerPais().get(0).poblacioTotal());
+        // La segona crida de cada agregació surt de la regió 'aggregacions'
+        assertEquals(2, estadistiques.getQueryCacheHitCount());
+        assertEquals(2, estadistiques.getQueryCacheMissCount());
+
+        // Escriptura massiva sobre ciutadans: el recompte ja no és vàlid
+        Manager.deleteWhere(Ciutada.class, "e.ciutadaId = :id", Map.of("id", ids.get(0)));
+        assertEquals(4, Manager.count(Ciutada.class));
+        // Escriptura d'entitat sobre ciutats: la població tampoc
+        Manager.updateCiutat(girona.getCiutatId(), "Girona", "Espanya", 2000, Set.of());
+        assertEquals(2000L, Manager.poblacioPerPais().get(0).poblacioTotal());
+
+        assertEquals(2, estadistiques.getQueryCacheHitCount());
+        assertEquals(4, estadistiques.getQueryCacheMissCount());
+    }
+
+    // ═══════════════════════════════════════════════════════════════════
+    // MEDIANA D'EDAT
+    // ═══════════════════════════════════════════════════════════════════
+
+    static SortedMap<Integer, Long> histograma(int... edats) {
+        SortedMap<Integer, Long> perEdat = new TreeMap<>();
+        for (int edat : edats) {
+            perEdat.merge(edat, 1L, Long::sum);
+        }
+        return perEdat;
+    }
+
+    @Test
+    void medianaDeHistogramaSenarEsLElementCentral() {
+        assertEquals(30.0, Manager.medianaDeHistograma(histograma(20, 30, 90)));
+        assertEquals(40.0, Manager.medianaDeHistograma(histograma(40)));
+        // El central cau dins d'una edat repetida
+        assertEquals(30.0, Manager.medianaDeHistograma(histograma(10, 30, 30, 30, 80)));
+    }
+
+    @Test
+    void medianaDeHistogramaParellEsLaMitjanaDelsDosCentrals() {
+        assertEquals(25.0, Manager.medianaDeHistograma(histograma(20, 30)));
+        assertEquals(35.5, Manager.medianaDeHistograma(histograma(10, 31, 40, 90)));
+        // Els dos centrals a la mateixa edat
+        assertEquals(50.0, Manager.medianaDeHistograma(histograma(10, 50, 50, 90)));
+    }
+
+    @Test
+    void medianaDeHistogramaBuitEsNull() {
+        assertNull(Manager.medianaDeHistograma(new TreeMap<>()));
+        assertNull(Manager.medianaDeHistograma(new TreeMap<>(Map.of(30, 0L))));
+    }
+
+    @Test
+    void edatMedianaDUnaCiutatNomesComptaElsSeusCiutadans() {
+        Ciutat girona = Manager.addCiutat("Girona", "Espanya", 1000);
+        Ciutat vic = Manager.addCiutat("Vic", "Espanya", 1000);
+        List<Ciutada> ciutadans = new ArrayList<>();
+        for (int edat : new int[] { 20, 30, 60, 70 }) {
+            Ciutada ciutada = new Ciutada("Nom", "Cognom", edat);
+            ciutada.setCiutat(girona);
+            ciutadans.add(ciutada);
+        }
+        Manager.addCiutadansBatch(ciutadans, 50);
+        vinculaCiutadans(vic, 3);
+
+        assertEquals(45.0, Manager.edatMediana(girona.getCiutatId()));
+        assertNull(Manager.edatMediana(Manager.addCiutat("Buida", "Espanya", 0).getCiutatId()));
+    }
+
+    // ═══════════════════════════════════════════════════════════════════
+    // UPDATE DE CIUTAT AMB CIUTADANS
+    // ═══════════════════════════════════════════════════════════════════
+
+    static Set<Long> idsCiutadans(Long ciutatId) {
+        return Manager.getCiutatWithCiutadans(ciutatId).getCiutadans().stream()
+            .map(Ciutada::getCiutadaId).collect(Collectors.toSet());
+    }
+
+    @Test
+    void updateCiutatRevinculaElsCiutadans() {
+        Ciutat girona = Manager.addCiutat("Girona", "Espanya", 103369);
+        Ciutat vic = Manager.addCiutat("Vic", "Espanya", 48000);
+        List<Long> deGirona = vinculaCiutadans(girona, 3);
+        List<Long> deVic = vinculaCiutadans(vic, 2);
+        Long versioAbans = Manager.getCiutatWithCiutadans(girona.getCiutatId()).getVersio();
+
+        // Es queden els dos primers, surt el tercer, entra un de Vic i un de nou
+        Set<Ciutada> nous = new HashSet<>();
+        nous.add(ciutada(deGirona.get(0)));
+        nous.add(ciutada(deGirona.get(1)));
+        nous.add(ciutada(deVic.get(0)));
+        Ciutada nou = new Ciutada("Nou", "Vingut", 33);
+        nous.add(nou);
+
+        Manager.updateCiutat(girona.getCiutatId(), "Girona", "Catalunya", 104000, nous);
+
+        Ciutat actualitzada = Manager.getCiutatWithCiutadans(girona.getCiutatId());
+        assertEquals("Catalunya", actualitzada.getPais());
+        assertEquals(versioAbans + 1, actualitzada.getVersio());
+        assertNotNull(nou.getCiutadaId());
+        assertEquals(Set.of(deGirona.get(0), deGirona.get(1), deVic.get(0), nou.getCiutadaId()),
+            idsCiutadans(girona.getCiutatId()));
+        assertEquals(Set.of(deVic.get(1)), idsCiutadans(vic.getCiutatId()));
+        // El que surt no s'esborra: queda sense ciutat
+        assertNull(Manager.withUnitOfWork(session -> session.get(Ciutada.class, deGirona.get(2)).getCiutat()));
+        assertEquals(6, Manager.count(Ciutada.class));
+    }
+
+    @Test
+    void updateCiutatAmbNullDesvinculaTothom() {
+        Ciutat girona = Manager.addCiutat("Girona", "Espanya", 103369);
+        vinculaCiutadans(girona, 3);
+        Long versioAbans = Manager.getCiutatWithCiutadans(girona.getCiutatId()).getVersio();
+
+        // Mateixes propietats: la versió puja igualment (només un cop)
+        Manager.updateCiutat(girona.getCiutatId(), "Girona", "Espanya", 103369, null);
+
+        assertEquals(versioAbans + 1, Manager.getCiutatWithCiutadans(girona.getCiutatId()).getVersio());
+        assertTrue(idsCiutadans(girona.getCiutatId()).isEmpty());
+        assertEquals(3, Manager.count(Ciutada.class, "e.ciutat IS NULL", Map.of()));
+    }
+
+    // ═══════════════════════════════════════════════════════════════════
+    // BLOQUEIG OPTIMISTA I REINTENTS
+    // ═══════════════════════════════════════════════════════════════════
+
+    /**
+     * Conflicte real entre dues sessions: 'obsoleta' es llegeix, una altra
+     * sessió modifica i confirma la ciutat, i en escriure 'obsoleta' la seva
+     * versió ja no és la de la fila (StaleObjectStateException).
+     *
+     * (Amb SQLite dues transaccions obertes alhora no arriben a la comprovació
+     * de versió: la segona escriptura falla abans per SQLITE_BUSY_SNAPSHOT.)
+     *
+     * @return La còpia obsoleta (DETACHED) de la ciutat
+     */
+    static Ciutat ciutatObsoleta(Ciutat ciutat) {
+        Ciutat obsoleta = Manager.getCiutatWithCiutadans(ciutat.getCiutatId());
+        Manager.updateCiutat(ciutat.getCiutatId(), ciutat.getNom(), ciutat.getPais(), 2000, null);
+        assertEquals(obsoleta.getVersio() + 1, Manager.getCiutatWithCiutadans(ciutat.getCiutatId()).getVersio());
+        return obsoleta;
+    }
+
+    @Test
+    void unConflicteDeVersioEsReintentaAmbDadesNoves() {
+        Ciutat girona = Manager.addCiutat("Girona", "Espanya", 1000);
+        Ciutat obsoleta = ciutatObsoleta(girona);
+        AtomicInteger intents = new AtomicInteger();
+
+        Manager.runUnitOfWork(session -> {
+            // El primer intent escriu la còpia obsoleta; els reintents rellegeixen
+            Ciutat ciutat = intents.incrementAndGet() == 1 ? obsoleta : session.get(Ciutat.class, girona.getCiutatId());
+            ciutat.setNom("Girona Nova");
+            return session.merge(ciutat);
+        }, true);
+
+        assertEquals(2, intents.get());
+        Ciutat despres = Manager.getCiutatWithCiutadans(girona.getCiutatId());
+        assertEquals("Girona Nova", despres.getNom());
+        // El canvi de l'altra sessió no s'ha perdut i la versió ha pujat una vegada per escriptura
+        assertEquals(2000, despres.getPoblacio());
+        assertEquals(obsoleta.getVersio() + 2, despres.getVersio());
+    }
+
+    @Test
+    void sensReintentsLEscripturaObsoletaEsRebutja() {
+        Ciutat girona = Manager.addCiutat("Girona", "Espanya", 1000);
+        Ciutat obsoleta = ciutatObsoleta(girona);
+        obsoleta.setNom("Trepitjada");
+
+        // withUnitOfWork no reintenta mai: l'error arriba a qui l'ha cridat
+        RuntimeException error = assertThrows(RuntimeException.class,
+            () -> Manager.withUnitOfWork(session -> session.merge(obsoleta)));
+
+        assertTrue(Manager.isOptimisticLockFailure(error));
+        assertEquals("Girona", Manager.getCiutatWithCiutadans(girona.getCiutatId()).getNom());
+    }
+
+    @Test
+    void elsReintentsDeConflicteSonLimitats() {
+        Ciutat girona = Manager.addCiutat("Girona", "Espanya", 1000);
+        Ciutat obsoleta = ciutatObsoleta(girona);
+        AtomicInteger intents = new AtomicInteger();
+        Manager.setOptimisticRetries(2);
+        try {
+            // Sempre la còpia obsoleta: cap intent pot funcionar
+            RuntimeException error = assertThrows(RuntimeException.class, () -> Manager.runUnitOfWork(session -> {
+                intents.incrementAndGet();
+                return session.merge(obsoleta);
+            }, true));
+
+            assertTrue(Manager.isOptimisticLockFailure(error));
+            assertEquals(1 + 2, intents.get());
+        } finally {
+            Manager.setOptimisticRetries(Manager.DEFAULT_OPTIMISTIC_RETRIES);
+        }
+        assertEquals(obsoleta.getVersio() + 1, Manager.getCiutatWithCiutadans(girona.getCiutatId()).getVersio());
+    }
+
+    @Test
+    void unErrorQueNoEsConflicteNoEsReintenta() {
+        Ciutat girona = Manager.addCiutat("Girona", "Espanya", 1000);
+        AtomicInteger intents = new AtomicInteger();
+
+        // nom és NOT NULL: error de dades, no de versió
+        RuntimeException error = assertThrows(RuntimeException.class, () -> Manager.runUnitOfWork(session -> {
+            intents.incrementAndGet();
+            session.get(Ciutat.class, girona.getCiutatId()).setNom(null);
+            session.flush();
+            return null;
+        }, true));
+
+        assertFalse(Manager.isOptimisticLockFailure(error));
+        assertEquals(1, intents.get());
+        assertEquals("Girona", Manager.getCiutatWithCiutadans(girona.getCiutatId()).getNom());
+    }
+
+    // ═══════════════════════════════════════════════════════════════════
+    // WRITE-BEHIND
+    // ═══════════════════════════════════════════════════════════════════
+
+    /** Prou gran perquè només escrigui el flush explícit del test */
+    static final Duration SENSE_FLUSH_PERIODIC = Duration.ofHours(1);
+
+    @Test
+    void writeBehindNomesEscriuLUltimValorDeCadaCiutada() {
+        List<Long> ids = Manager.addCiutadansBatch(ciutadansSenseCiutat(2), 50);
+        Long versioAbans = ciutada(ids.get(0)).getVersio();
+        Manager.enableWriteBehind(100, SENSE_FLUSH_PERIODIC);
+
+        Manager.updateCiutada(ids.get(0), "Primer", "A", 1);
+        Manager.updateCiutada(ids.get(0), "Segon", "B", 2);
+        Manager.updateCiutada(ids.get(0), "Tercer", "C", 3);
+        Manager.updateCiutada(ids.get(1), "Altre", "D", 4);
+
+        assertEquals(2, Manager.writeBehindDepth());
+        assertEquals("Nom 0", ciutada(ids.get(0)).getNom());
+
+        assertEquals(2, Manager.flushWriteBehind());
+
+        Ciutada escrit = ciutada(ids.get(0));
+        assertEquals("Tercer", escrit.getNom());
+        assertEquals(3, escrit.getEdat());
+        // Un sol UPDATE per als tres canvis
+        assertEquals(versioAbans + 1, escrit.getVersio());
+        assertEquals("Altre", ciutada(ids.get(1)).getNom());
+        assertEquals(0, Manager.writeBehindDepth());
+    }
+
+    @Test
+    void writeBehindAillaUnaFilaQueFallaIAcabaDescartantLa() {
+        List<Long> ids = Manager.addCiutadansBatch(ciutadansSenseCiutat(3), 50);
+        Manager.enableWriteBehind(100, SENSE_FLUSH_PERIODIC);
+
+        Manager.updateCiutada(ids.get(0), "Bo", null, 1);
+        // nom és NOT NULL: aquesta fila fa fallar el tros sencer
+        Manager.updateCiutada(ids.get(1), null, null, 2);
+        Manager.updateCiutada(ids.get(2), "També", null, 3);
+
+        assertEquals(2, Manager.flushWriteBehind());
+        assertEquals("Bo", ciutada(ids.get(0)).getNom());
+        assertEquals("També", ciutada(ids.get(2)).getNom());
+        // La dolenta torna al buffer fins a MAX_INTENTS flushos
+        assertEquals(1, Manager.writeBehindDepth());
+        for (int i = 1; i < WriteBehindBuffer.MAX_INTENTS; i++) {
+            assertEquals(0, Manager.flushWriteBehind());
+        }
+        assertEquals(0, Manager.writeBehindDepth());
+        assertEquals("Nom 1", ciutada(ids.get(1)).getNom());
+    }
+
+    @Test
+    void disableWriteBehindEscriuElsPendents() {
+        List<Long> ids = Manager.addCiutadansBatch(ciutadansSenseCiutat(1), 50);
+        Manager.enableWriteBehind(100, SENSE_FLUSH_PERIODIC);
+        Manager.updateCiutada(ids.get(0), "Pendent", null, 40);
+
+        Manager.disableWriteBehind();
+
+        assertEquals("Pendent", ciutada(ids.get(0)).getNom());
+        assertEquals(0, Manager.writeBehindDepth());
+    }
+
+    // ═══════════════════════════════════════════════════════════════════
+    // ESCRIPTOR ÚNIC I GROUP COMMIT
+    // ═══════════════════════════════════════════════════════════════════
+
+    /**
+     * 200 escriptures des de 16 fils; una de cada 10 persisteix un ciutadà
+     * "Dolent", en fa flush i llavors falla.
+     * 
+     * @param execucionsFallides Compta quantes vegades s'executen les fallides
+     * 
+     * @return Errors rebuts per qui ha demanat cada operació fallida
+     */
+    static int escripturesAmbErrors(AtomicInteger execucionsFallides) throws Exception {
+        ExecutorService fils = Executors.newFixedThreadPool(16);
+        try {
+            List<Future<Boolean>> resultats = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                final int k = i;
+                resultats.add(fils.submit(() -> {
+                    if (k % 10 != 0) {
+                        Manager.addCiutada("Nom " + k, "Cognom", k);
+                        return false;
+                    }
+                    try {
+                        Manager.inTransaction(session -> {
+                            execucionsFallides.incrementAndGet();
+                            session.persist(new Ciutada("Dolent", "Cognom", k));
+                            session.flush();
+                            throw new IllegalStateException("Error de l'operació " + k);
+                        });
+                        return false;
+                    } catch (IllegalStateException e) {
+                        return true;
+                    }
+                }));
+            }
+            int errors = 0;
+            for (Future<Boolean> resultat : resultats) {
+                if (resultat.get()) errors++;
+            }
+            return errors;
+        } finally {
+            fils.shutdown();
+        }
+    }
+
+    @Test
+    void singleWriterLliuraLErrorNomesAQuiLHaDemanat() throws Exception {
+        Manager.enableSingleWriter(50);
+        assertTrue(Manager.isSingleWriterEnabled());
+
+        AtomicInteger execucions = new AtomicInteger();
+        int errors = escripturesAmbErrors(execucions);
+        Manager.disableSingleWriter();
+
+        assertEquals(20, errors);
+        // La funció d'una operació que falla no es repeteix
+        assertEquals(20, execucions.get());
+        assertEquals(180, Manager.count(Ciutada.class));
+        assertEquals(0, Manager.count(Ciutada.class, "e.nom = :nom", Map.of("nom", "Dolent")));
+    }
+
+    @Test
+    void groupCommitDesfaNomesElSavepointDeLOperacioQueFalla() throws Exception {
+        Manager.enableGroupCommit(Duration.ofMillis(20), 50);
+
+        AtomicInteger execucions = new AtomicInteger();
+        int errors = escripturesAmbErrors(execucions);
+        Manager.disableSingleWriter();
+
+        assertEquals(20, errors);
+        // La funció d'una operació que falla no es repeteix
+        assertEquals(20, execucions.get());
+        assertEquals(180, Manager.count(Ciutada.class));
+        assertEquals(0, Manager.count(Ciutada.class, "e.nom = :nom", Map.of("nom", "Dolent")));
+    }
+
+    @Test
+    void groupCommitNoPublicaALaCacheAbansDelCommitDelGrup() throws Exception {
+        Manager.close();
+        Manager.createSessionFactory("hibernate.cfg.xml", ambCache(propietats(dir)));
+        Long id = Manager.addCiutat("Girona", "Espanya", 103369).getCiutatId();
+        // Ara la ciutat és a la cache de segon nivell
+        assertEquals("Girona", Manager.getCiutatWithCiutadans(id).getNom());
+
+        Manager.enableGroupCommit(Duration.ofMillis(500), 50);
+        CountDownLatch dinsDelGrup = new CountDownLatch(1);
+        CountDownLatch continua = new CountDownLatch(1);
+        ExecutorService fils = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> canvi = fils.submit(() -> Manager.inTransaction(
+                session -> session.get(Ciutat.class, id).setNom("Girona Nova")));
+            Thread.sleep(50);
+            // Segona operació del mateix grup: reté el commit mentre es llegeix
+            Future<?> espera = fils.submit(() -> Manager.inTransaction(session -> {
+                dinsDelGrup.countDown();
+                try {
+                    continua.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+            assertTrue(dinsDelGrup.await(10, TimeUnit.SECONDS));
+
+            // El canvi ja és escrit dins la transacció del grup, però no confirmat
+            assertEquals("Girona", Manager.getCiutatWithCiutadans(id).getNom());
+
+            continua.countDown();
+            canvi.get(10, TimeUnit.SECONDS);
+            espera.get(10, TimeUnit.SECONDS);
+        } finally {
+            fils.shutdown();
+        }
+
+        // La lectura d'abans no ha deixat a la cache el valor antic
+        assertEquals("Girona Nova", Manager.getCiutatWithCiutadans(id).getNom());
+    }
+
+    // ═══════════════════════════════════════════════════════════════════
+    // SHARDING
+    // ═══════════════════════════════════════════════════════════════════
+
+    /**
+     * Substitueix la BBDD del test per 2 shards (s-0.db i s-1.db dins
+     * 'dir') repartits per país.
+     */
+    void obreShards() {
+        Properties propietats = propietats(dir);
+        propietats.setProperty("hibernate.connection.url", "jdbc:sqlite:" + dir.resolve("s.db"));
+        Manager.createShardedSessionFactories("hibernate.cfg.xml", propietats, 2, Ciutat::getPais);
+    }
+
+    /**
+     * withUnitOfWork necessita la clau de shard: es busca a tots els shards.
+     */
+    static Ciutada ciutadaEnShards(Long ciutadaId) {
+        return Manager.listCollection(Ciutada.class, null).stream()
+            .filter(ciutada -> ciutada.getCiutadaId().equals(ciutadaId))
+            .findFirst().orElse(null);
+    }
+
+    static long shardDeId(Long id) {
+        return id >>> ShardedManager.ID_BITS;
+    }
+
+    /**
+     * @return Una ciutat de cada shard (la primera i la primera d'un altre)
+     */
+    static List<Ciutat> ciutatsEnShardsDiferents() {
+        List<Ciutat> result = new ArrayList<>();
+        for (String pais : List.of("A", "B", "C", "D", "E", "F")) {
+            Ciutat ciutat = Manager.addCiutat("Ciutat " + pais, pais, 1000);
+            if (result.isEmpty() || (result.size() == 1
+                    && shardDeId(ciutat.getCiutatId()) != shardDeId(result.get(0).getCiutatId()))) {
+                result.add(ciutat);
+            }
+        }
+        assertEquals(2, result.size());
+        return result;
+    }
+
+    @Test
+    void shardingEncaminaPerPaisIElsCiutadansSegueixenLaCiutat() {
+        obreShards();
+        List<Ciutat> ciutats = ciutats(30);
+
+        List<Long> ids = Manager.addCiutatsBatch(ciutats, 50);
+        List<Long> deGirona = vinculaCiutadans(ciutats.get(0), 5);
+
+        assertTrue(Manager.isSharded());
+        assertTrue(dir.resolve("s-0.db").toFile().exists());
+        assertTrue(dir.resolve("s-1.db").toFile().exists());
+        assertEquals(30, Manager.count(Ciutat.class));
+        // Els IDs tornen en l'ordre d'entrada encara que els lots siguin per shard
+        assertEquals(ciutats.stream().map(Ciutat::getCiutatId).toList(), ids);
+        // Mateix país → mateix shard
+        for (int i = 3; i < ciutats.size(); i++) {
+            assertEquals(shardDeId(ids.get(i % 3)), shardDeId(ids.get(i)));
+        }
+        for (Long id : deGirona) {
+            assertEquals(shardDeId(ciutats.get(0).getCiutatId()), shardDeId(id));
+        }
+        assertEquals(5, Manager.getCiutatWithCiutadans(ciutats.get(0).getCiutatId()).getCiutadans().size());
+        // Sense clau de shard: al shard per defecte, i només en veu les dades
+        long alShardZero = ids.stream().filter(id -> shardDeId(id) == ShardedManager.SHARD_PER_DEFECTE).count();
+        long vistes = Manager.withUnitOfWork(session ->
+            session.createQuery("SELECT COUNT(e) FROM Ciutat e", Long.class).getSingleResult());
+        assertEquals(alShardZero, vistes);
+    }
+
+    @Test
+    void shardingMouCiutadansDUnShardAUnAltre() {
+        obreShards();
+        List<Ciutat> ciutats = ciutatsEnShardsDiferents();
+        Ciutat origen = ciutats.get(0);
+        Ciutat desti = ciutats.get(1);
+        List<Long> moguts = vinculaCiutadans(origen, 3);
+
+        Set<Ciutada> nous = Set.of(ciutadaEnShards(moguts.get(0)), ciutadaEnShards(moguts.get(1)));
+        Manager.updateCiutat(desti.getCiutatId(), desti.getNom(), desti.getPais(), 2000, nous);
+
+        // Mateix ID, ara al shard de la ciutat de destí
+        assertEquals(Set.of(moguts.get(0), moguts.get(1)), idsCiutadans(desti.getCiutatId()));
+        assertEquals(Set.of(moguts.get(2)), idsCiutadans(origen.getCiutatId()));
+        assertEquals(3, Manager.count(Ciutada.class));
+        assertEquals(2000, Manager.getCiutatWithCiutadans(desti.getCiutatId()).getPoblacio());
+    }
+
+    @Test
+    void shardingCompensaUnMovimentQueFalla() {
+        obreShards();
+        List<Ciutat> ciutats = ciutatsEnShardsDiferents();
+        Ciutat origen = ciutats.get(0);
+        Ciutat desti = ciutats.get(1);
+        Long mogut = vinculaCiutadans(origen, 1).get(0);
+        Ciutada abans = ciutadaEnShards(mogut);
+
+        // nom és NOT NULL: el pas 2 (shard de destí) falla en el commit
+        Manager.updateCiutat(desti.getCiutatId(), null, desti.getPais(), 2000, Set.of(abans));
+
+        // Ha tornat al shard d'origen tal com era
+        assertEquals(Set.of(mogut), idsCiutadans(origen.getCiutatId()));
+        assertTrue(idsCiutadans(desti.getCiutatId()).isEmpty());
+        Ciutada despres = ciutadaEnShards(mogut);
+        assertEquals(abans.getNom(), despres.getNom());
+        assertEquals(abans.getVersio(), despres.getVersio());
+        assertEquals(1, Manager.count(Ciutada.class));
+        assertEquals(1000, Manager.getCiutatWithCiutadans(desti.getCiutatId()).getPoblacio());
+    }
+
+    /**
+     * @return La ciutat llegida directament del shard de 'clau' (null si no hi és)
+     */
+    static Ciutat ciutatAlShardDe(String clau, Long ciutatId) {
+        return Manager.withUnitOfWork(clau, session -> session.get(Ciutat.class, ciutatId));
+    }
+
+    @Test
+    void shardingMouLaCiutatQuanCanviaLaClau() {
+        obreShards();
+        List<Ciutat> ciutats = ciutatsEnShardsDiferents();
+        Ciutat mou = ciutats.get(0);
+        String nouPais = ciutats.get(1).getPais();
+        List<Long> seus = vinculaCiutadans(mou, 3);
+        Long versio = Manager.getCiutatWithCiutadans(mou.getCiutatId()).getVersio();
+        Set<Ciutada> queden = Set.of(ciutadaEnShards(seus.get(0)), ciutadaEnShards(seus.get(1)));
+
+        Manager.updateCiutat(mou.getCiutatId(), mou.getNom(), nouPais, 5000, queden);
+
+        // Mateix ID, ara al shard del nou país i amb els ciutadans que es queda
+        assertNull(ciutatAlShardDe(mou.getPais(), mou.getCiutatId()));
+        assertNotNull(ciutatAlShardDe(nouPais, mou.getCiutatId()));
+        Ciutat despres = Manager.getCiutatWithCiutadans(mou.getCiutatId());
+        assertEquals(nouPais, despres.getPais());
+        assertEquals(5000, despres.getPoblacio());
+        assertEquals(versio + 1, despres.getVersio());
+        assertEquals(Set.of(seus.get(0), seus.get(1)), idsCiutadans(mou.getCiutatId()));
+        assertEquals(3, Manager.count(Ciutada.class));
+        assertEquals(6, Manager.count(Ciutat.class));
+
+        // En tornar a obrir els shards, la ciutat es continua trobant
+        Manager.close();
+        Properties propietats = propietats(dir);
+        propietats.setProperty("hibernate.connection.url", "jdbc:sqlite:" + dir.resolve("s.db"));
+        propietats.setProperty("hibernate.hbm2ddl.auto", "none");
+        Manager.createShardedSessionFactories("hibernate.cfg.xml", propietats, 2, Ciutat::getPais);
+        assertEquals(nouPais, Manager.getCiutatWithCiutadans(mou.getCiutatId()).getPais());
+        assertEquals(Set.of(seus.get(0), seus.get(1)), idsCiutadans(mou.getCiutatId()));
+    }
+
+    @Test
+    void shardingCompensaUnaCiutatQueNoEsPotMoure() {
+        obreShards();
+        List<Ciutat> ciutats = ciutatsEnShardsDiferents();
+        Ciutat mou = ciutats.get(0);
+        List<Long> seus = vinculaCiutadans(mou, 2);
+        Long versio = Manager.getCiutatWithCiutadans(mou.getCiutatId()).getVersio();
+
+        // nom és NOT NULL: el pas 2 (shard de destí) falla i es desfà el moviment
+        Manager.updateCiutat(mou.getCiutatId(), null, ciutats.get(1).getPais(), 5000, null);
+
+        assertNotNull(ciutatAlShardDe(mou.getPais(), mou.getCiutatId()));
+        Ciutat despres = Manager.getCiutatWithCiutadans(mou.getCiutatId());
+        assertEquals(mou.getPais(), despres.getPais());
+        assertEquals(mou.getNom(), despres.getNom());
+        assertEquals(versio, despres.getVersio());
+        assertEquals(new HashSet<>(seus), idsCiutadans(mou.getCiutatId()));
+        assertEquals(6, Manager.count(Ciutat.class));
+    }
+
+    @Test
+    void shardingLocalitzaElsCiutadansAmbUnaConsultaPerShard() {
+        obreShards();
+        List<Ciutat> ciutats = ciutatsEnShardsDiferents();
+        Ciutat origen = ciutats.get(0);
+        Ciutat desti = ciutats.get(1);
+        Set<Long> moguts = new HashSet<>(vinculaCiutadans(origen, 40));
+        Set<Ciutada> nous = Manager.listCollection(Ciutada.class, null).stream()
+            .filter(ciutada -> moguts.contains(ciutada.getCiutadaId()))
+            .collect(Collectors.toSet());
+        Statistics estadistiques = Manager.getStatistics();
+        estadistiques.setStatisticsEnabled(true);
+        estadistiques.clear();
+
+        Manager.updateCiutat(desti.getCiutatId(), desti.getNom(), desti.getPais(), 2000, nous);
+
+        assertEquals(moguts, idsCiutadans(desti.getCiutatId()));
+        // Abans: una consulta per ciutadà i shard; ara una per shard, més les del moviment
+        assertTrue(estadistiques.getQueryExecutionCount() < 10);
+    }
+
+    @Test
+    void shardingNoEncaminaAlShardZeroUnCiutadaInexistent() {
+        obreShards();
+        Long inexistent = ShardedManager.primerId(1) + 12345;
+        Statistics estadistiques = Manager.getStatistics();
+        estadistiques.setStatisticsEnabled(true);
+        estadistiques.clear();
+
+        Manager.updateCiutada(inexistent, "Ningú", "Enlloc", 1);
+        Manager.delete(Ciutada.class, inexistent);
+
+        // No s'ha obert cap transacció d'escriptura (abans: al shard 0)
+        assertEquals(0, estadistiques.getTransactionCount());
+        assertEquals(0, Manager.count(Ciutada.class));
+    }
+
+    // ═══════════════════════════════════════════════════════════════════
+    // ASYNC
+    // ═══════════════════════════════════════════════════════════════════
+
+    @Test
+    void asyncManagerDimensionaPerTotsElsShards() throws Exception {
+        int perPool = Manager.maxPoolSize();
+        assertEquals(1, Manager.sqliteWriters());
+
+        obreShards();
+
+        assertEquals(2 * perPool, Manager.maxPoolSize());
+        assertEquals(2, Manager.sqliteWriters());
+        AsyncManager.start();
+        try {
+            List<Future<Ciutat>> altes = new ArrayList<>();
+            for (String pais : List.of("A", "B", "C", "D")) {
+                altes.add(AsyncManager.addCiutat("Ciutat " + pais, pais, 1000));
+            }
+            for (Future<Ciutat> alta : altes) {
+                assertNotNull(alta.get(10, TimeUnit.SECONDS));
+            }
+            assertEquals(4, AsyncManager.listCollection(Ciutat.class, null).get(10, TimeUnit.SECONDS).size());
+        } finally {
+            AsyncManager.shutdown();
+        }
+    }
+
+    @Test
+    void asyncManagerDescartaLesEscripturesCancelladesALaCua() throws Exception {
+        Manager.enableSingleWriter();
+        CountDownLatch ocupat = new CountDownLatch(1);
+        CountDownLatch allibera = new CountDownLatch(1);
+        ExecutorService fil = Executors.newSingleThreadExecutor();
+        AsyncManager.start();
+        try {
+            // Reté el fil escriptor: les escriptures següents queden a la cua
+            Future<?> bloqueig = fil.submit(() -> Manager.inTransaction(session -> {
+                ocupat.countDown();
+                try {
+                    allibera.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+            assertTrue(ocupat.await(10, TimeUnit.SECONDS));
+
+            CompletableFuture<Ciutat> cancellada = AsyncManager.addCiutat("Cancel·lada", "A", 1);
+            CompletableFuture<Ciutat> expirada = AsyncManager.withTimeout(
+                AsyncManager.addCiutat("Expirada", "A", 1), Duration.ofMillis(100));
+            CompletableFuture<Ciutat> bona = AsyncManager.addCiutat("Bona", "A", 1);
+            Thread.sleep(300);
+            cancellada.cancel(true);
+
+            assertTrue(cancellada.isCancelled());
+            assertThrows(ExecutionException.class, () -> expirada.get(10, TimeUnit.SECONDS));
+            allibera.countDown();
+            bloqueig.get(10, TimeUnit.SECONDS);
+            assertNotNull(bona.get(10, TimeUnit.SECONDS));
+        } finally {
+            allibera.countDown();
+            fil.shutdown();
+            AsyncManager.shutdown();
+        }
+        Manager.disableSingleWriter();
+
+        // Ni la cancel·lada ni l'expirada s'han executat
+        assertEquals(1, Manager.count(Ciutat.class));
+        assertEquals(1, Manager.count(Ciutat.class, "e.nom = :nom", Map.of("nom", "Bona")));
+    }
+
+    @Test
+    void asyncManagerCobreixComptatgesResumsIStreams() throws Exception {
+        Manager.addCiutatsBatch(ciutats(30), 10);
+        AsyncManager.start();
+        try {
+            assertEquals(30L, AsyncManager.count(Ciutat.class).get(10, TimeUnit.SECONDS));
+            assertEquals(30, AsyncManager.listCiutatSummaries().get(10, TimeUnit.SECONDS).size());
+            assertEquals(30, AsyncManager.listCollectionStateless(Ciutat.class, "id").get(10, TimeUnit.SECONDS).size());
+            assertEquals(Manager.poblacioPerPais(), AsyncManager.poblacioPerPais().get(10, TimeUnit.SECONDS));
+
+            List<String> noms = new ArrayList<>();
+            long recorreguts = AsyncManager.stream(Ciutat.class, "id", 7, ciutat -> noms.add(ciutat.getNom()))
+                .get(10, TimeUnit.SECONDS);
+            assertEquals(30L, recorreguts);
+            assertEquals(30, noms.size());
+        } finally {
+            AsyncManager.shutdown();
+        }
+    }
+}